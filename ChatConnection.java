@@ -0,0 +1,5 @@
+interface ChatConnection {  // Connessione lato server verso un client, comune a tutti i motori di rete del server.
+    void send(ChatMessage message);  // Accoda un messaggio nel formato negoziato dal client; la connessione acquisisce un proprio riferimento.
+
+    void close();  // Chiude la connessione e libera le risorse associate.
+}
@@ -0,0 +1,52 @@
+import javax.swing.AbstractListModel;  // Importa il modello di base delle liste Swing.
+
+// Cronologia della chat del client: buffer circolare delle ultime righe, mostrato da una JList che disegna solo le righe
+// visibili. Le righe arrivano a gruppi dal timer di aggiornamento: ogni gruppo produce al più due eventi (righe rimosse
+// in testa e righe aggiunte in coda), qualunque sia il numero di messaggi. Usato solo dal thread di dispatch degli eventi.
+final class ChatHistory extends AbstractListModel<String> {  // Modello della lista dei messaggi.
+    private static final long serialVersionUID = 1L;  // AbstractListModel è serializzabile.
+    static final int CAPACITY = Integer.getInteger("chat.client.lines", 2000);  // Righe trattenute.
+
+    private final String[] lines;  // Righe, a partire da start.
+    private int start;  // Posizione della riga più vecchia.
+    private int size;  // Righe presenti.
+    private int shown;  // Righe presenti all'ultimo aggiornamento della lista.
+    private int added;  // Righe aggiunte dall'ultimo aggiornamento della lista.
+    private int removed;  // Righe rimosse in testa dall'ultimo aggiornamento della lista.
+
+    ChatHistory() {  // Costruttore con la capacità configurata.
+        this.lines = new String[Math.max(1, CAPACITY)];  // Almeno una riga.
+    }
+
+    @Override
+    public int getSize() {  // Restituisce il numero di righe mostrate.
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {  // Restituisce la riga alla posizione indicata, dalla più vecchia.
+        return lines[(start + index) % lines.length];
+    }
+
+    void add(String line) {  // Aggiunge una riga senza notificare la lista; le modifiche si pubblicano con publish.
+        if (size == lines.length) {  // Buffer pieno: scarta la riga più vecchia.
+            lines[start] = line;  // La nuova riga prende il suo posto.
+            start = (start + 1) % lines.length;  // La successiva diventa la più vecchia.
+            if (removed < shown) removed++;  // Riga già mostrata.
+            else added--;  // Riga aggiunta e già scartata: non è mai stata mostrata.
+        } else {
+            lines[(start + size++) % lines.length] = line;  // Scrive dopo l'ultima riga.
+        }
+        added++;  // Da mostrare.
+    }
+
+    boolean publish() {  // Notifica alla lista le righe rimosse e aggiunte dall'ultima chiamata; restituisce true se è cambiato qualcosa.
+        if (added == 0 && removed == 0) return false;  // Nessuna modifica.
+        if (removed > 0) fireIntervalRemoved(this, 0, removed - 1);  // Righe uscite in testa.
+        if (added > 0) fireIntervalAdded(this, size - added, size - 1);  // Righe nuove in coda.
+        shown = size;  // Stato ora visibile alla lista.
+        added = 0;  // Tutto pubblicato.
+        removed = 0;
+        return true;
+    }
+}
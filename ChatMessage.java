@@ -0,0 +1,44 @@
+final class ChatMessage {  // Messaggio di broadcast con il suo numero di sequenza, codificato al più una volta per ciascun formato del protocollo.
+    final long seq;  // Numero di sequenza assegnato dal server.
+    final String text;  // Testo del messaggio.
+    private EncodedMessage line;  // Codifica per i client a righe (creata al primo uso).
+    private EncodedMessage frame;  // Codifica per i client a frame (creata al primo uso).
+    private EncodedMessage deflated;  // Codifica compressa per i client che l'hanno negoziata (creata al primo uso).
+    private boolean deflateTried;  // True dopo il primo tentativo di compressione.
+
+    ChatMessage(long seq, String text) {  // Costruttore del messaggio.
+        this.seq = seq;  // Imposta il numero di sequenza.
+        this.text = text;  // Imposta il testo.
+    }
+
+    synchronized EncodedMessage line() {  // Restituisce la codifica a righe, condivisa da tutti i destinatari legacy.
+        if (line == null) line = EncodedMessage.line(text);  // Codifica una sola volta.
+        return line;
+    }
+
+    synchronized EncodedMessage frame() {  // Restituisce la codifica a frame, condivisa da tutti i destinatari che l'hanno negoziata.
+        if (frame == null) frame = EncodedMessage.frame(ChatProtocol.TYPE_MESSAGE, seq, text);  // Codifica una sola volta.
+        return frame;
+    }
+
+    boolean fitsFrame() {  // Controlla se il payload rispetta MAX_PAYLOAD: i client a frame, anche cifrati, e il giornale rifiutano i frame più lunghi.
+        return frame().length() - ChatProtocol.HEADER_SIZE <= ChatProtocol.MAX_PAYLOAD;  // Il tag aggiunto dalle sessioni cifrate è già riservato.
+    }
+
+    synchronized EncodedMessage deflatedFrame() {  // Restituisce la codifica compressa, o quella a frame se il messaggio è breve o non si comprime.
+        if (!deflateTried) {  // Comprime una sola volta per tutti i destinatari.
+            deflateTried = true;  // Anche un tentativo fallito non va ripetuto.
+            if (Compression.worthTrying(text)) deflated = EncodedMessage.deflatedFrame(ChatProtocol.TYPE_MESSAGE_DEFLATE, seq, text);  // Null se inutile.
+        }
+        return deflated != null ? deflated : frame();
+    }
+
+    synchronized void release() {  // Rilascia i riferimenti del creatore; i destinatari tengono i propri.
+        if (line != null) line.release();  // Rilascia la codifica a righe.
+        if (frame != null) frame.release();  // Rilascia la codifica a frame.
+        if (deflated != null) deflated.release();  // Rilascia la codifica compressa.
+        line = null;  // Dimentica le codifiche.
+        frame = null;
+        deflated = null;
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.DataInputStream;  // Importa il flusso per leggere tipi primitivi.
+import java.io.DataOutputStream;  // Importa il flusso per scrivere tipi primitivi.
+import java.io.IOException;  // Importa l'eccezione per gli errori di input/output.
+import java.util.ArrayList;  // Importa la lista dinamica.
+import java.util.List;  // Importa l'interfaccia delle liste.
+
+// Protocollo di chat condiviso da client e server.
+// Modalità a righe (legacy): ogni messaggio è una riga terminata da '\n' nella codifica di piattaforma.
+// Modalità a frame: il client apre con una riga di saluto "\u0001CHAT/2 <funzionalità...>", il server risponde con
+// "\u0001CHAT/2 ok <funzionalità accettate>" e da quel punto, in entrambe le direzioni, ogni messaggio è un frame:
+//   int lunghezza (byte che seguono) | byte tipo | long numero di sequenza | payload
+final class ChatProtocol {  // Costanti e utilità del protocollo.
+    static final int PORT = Integer.getInteger("chat.port", 12345);  // Porta del server di chat (diversa per ogni nodo di un cluster sulla stessa macchina).
+    static final String HELLO = "\u0001CHAT/2";  // Prefisso del saluto: il carattere di controllo iniziale non può essere digitato in una chat.
+    static final String ACK = HELLO + " ok";  // Prefisso della risposta del server.
+    static final String FEATURE_FRAMED = "framed";  // Funzionalità: frame con lunghezza prefissata.
+    static final String FEATURE_DEFLATE = "deflate";  // Funzionalità: messaggi lunghi compressi (richiede i frame).
+    static final String FEATURE_HEARTBEAT = "heartbeat";  // Saluto: il client risponde ai ping; risposta: "heartbeat=<secondi>" di silenzio dopo cui ciascuna parte invia un ping (richiede i frame).
+    static final String FEATURE_REPLAY = "replay";  // Risposta: il server ripete i messaggi successivi a "since" (richiede i frame).
+    static final String PARAM_SINCE = "since";  // Saluto: ultimo numero di sequenza visto dal client prima della riconnessione.
+    static final String PARAM_HEAD = "head";  // Risposta: ultimo numero di sequenza registrato dal server.
+    static final String PARAM_SECURE = "secure";  // Saluto e risposta: chiave pubblica effimera per la cifratura di sessione (richiede i frame, vedi SessionCipher).
+    static final String COMMAND_JOIN = "/join";  // Comando del client: "/join <stanza>" entra in una stanza (inviato in chiaro).
+    static final String COMMAND_LEAVE = "/leave";  // Comando del client: torna nella stanza iniziale (inviato in chiaro).
+    static final String COMMAND_SHARE = "/share";  // Comando del client: "/share <id>" annuncia nella stanza un file caricato (vedi FileShare).
+    static final String COMMAND_SEARCH = "/search";  // Comando del client: "/search <termini>" cerca nei messaggi registrati (vedi SearchIndex).
+    static final String PARAM_FILES = "files";  // Risposta: porta dei trasferimenti di file, se la condivisione è abilitata.
+    static final String PARAM_FILE_TOKEN = "filetoken";  // Risposta: gettone della sessione per caricare i file, valido finché la connessione resta aperta.
+    static final long UNSEQUENCED = 0;  // Numero di sequenza dei messaggi non registrati nel giornale (stanze diverse dalla iniziale).
+
+    static final byte TYPE_MESSAGE = 1;  // Frame con un messaggio di chat in UTF-8.
+    static final byte TYPE_MESSAGE_DEFLATE = 2;  // Frame con un messaggio di chat in UTF-8 compresso con deflate.
+    static final byte TYPE_PING = 5;  // Frame di controllo senza payload: chi lo riceve risponde con TYPE_PONG.
+    static final byte TYPE_PONG = 6;  // Risposta a un ping, senza payload.
+
+    static final int HEADER_SIZE = 4 + 1 + 8;  // Lunghezza, tipo e numero di sequenza.
+    static final int MAX_FRAME = Integer.getInteger("chat.frame.max", 1 << 20);  // Lunghezza massima di un frame, oltre la quale la connessione è considerata corrotta.
+    static final int MAX_PAYLOAD = MAX_FRAME - (HEADER_SIZE - 4) - SessionCipher.TAG_SIZE;  // Payload massimo di un messaggio: resta nel limite anche dopo la cifratura di sessione.
+
+    private ChatProtocol() {  // Classe di sole utilità statiche.
+    }
+
+    static String hello(List<String> features) {  // Costruisce la riga di saluto del client.
+        return HELLO + " " + String.join(" ", features);  // Saluto seguito dalle funzionalità richieste.
+    }
+
+    static boolean isHello(String line) {  // Controlla se una riga è un saluto del client.
+        return line.startsWith(HELLO + " ") && !line.startsWith(ACK);  // Il saluto non è mai una risposta.
+    }
+
+    static boolean isAck(String line) {  // Controlla se una riga è la risposta del server al saluto.
+        return line.startsWith(ACK);  // Prefisso della risposta.
+    }
+
+    static List<String> features(String line) {  // Estrae le funzionalità da un saluto o da una risposta.
+        String body = line.startsWith(ACK) ? line.substring(ACK.length()) : line.substring(HELLO.length());  // Parte dopo il prefisso.
+        List<String> features = new ArrayList<>();  // Funzionalità trovate.
+        for (String token : body.trim().split(" +")) {  // Le funzionalità sono separate da spazi.
+            if (!token.isEmpty()) features.add(token);  // Ignora i token vuoti.
+        }
+        return features;
+    }
+
+    static long value(List<String> features, String name) {  // Restituisce il valore di un parametro "nome=numero", o -1 se assente.
+        for (String feature : features) {  // Cerca il parametro.
+            if (feature.startsWith(name + "=")) {
+                try {
+                    return Long.parseLong(feature.substring(name.length() + 1));  // Valore del parametro.
+                } catch (NumberFormatException e) {  // Valore non numerico.
+                    return -1;
+                }
+            }
+        }
+        return -1;  // Parametro assente.
+    }
+
+    static String text(List<String> features, String name) {  // Restituisce il valore di un parametro "nome=testo", o null se assente.
+        for (String feature : features) {  // Cerca il parametro.
+            if (feature.startsWith(name + "=")) return feature.substring(name.length() + 1);  // Valore del parametro.
+        }
+        return null;  // Parametro assente.
+    }
+
+    static boolean isCommand(String text) {  // Controlla se un messaggio è un comando di stanza, di condivisione o di ricerca.
+        return text.equals(COMMAND_LEAVE) || text.startsWith(COMMAND_JOIN + " ") || text.startsWith(COMMAND_SHARE + " ") || text.startsWith(COMMAND_SEARCH + " ");  // Gli altri testi che iniziano con '/' sono messaggi.
+    }
+
+    static String ack(List<String> accepted) {  // Costruisce la risposta del server con le funzionalità accettate.
+        return accepted.isEmpty() ? ACK : ACK + " " + String.join(" ", accepted);  // Risposta seguita dalle funzionalità.
+    }
+
+    static void writeFrame(DataOutputStream out, byte type, long seq, byte[] payload) throws IOException {  // Scrive un frame su un flusso bloccante (client e collegamenti del cluster).
+        out.writeInt(1 + 8 + payload.length);  // Lunghezza dei byte che seguono.
+        out.writeByte(type);  // Tipo del frame.
+        out.writeLong(seq);  // Numero di sequenza.
+        out.write(payload);  // Payload.
+    }
+
+    static Frame readFrame(DataInputStream in) throws IOException {  // Legge un frame da un flusso bloccante (client e collegamenti del cluster).
+        int length = in.readInt();  // Lunghezza dei byte che seguono.
+        if (length < 9 || length > MAX_FRAME) throw new IOException("Invalid frame length " + length);  // Frame corrotto.
+        byte type = in.readByte();  // Tipo del frame.
+        long seq = in.readLong();  // Numero di sequenza.
+        byte[] payload = new byte[length - 9];  // Payload.
+        in.readFully(payload);  // Legge il payload completo.
+        return new Frame(type, seq, payload);
+    }
+
+    static final class Frame {  // Frame decodificato da un flusso bloccante.
+        final byte type;  // Tipo del frame.
+        final long seq;  // Numero di sequenza.
+        final byte[] payload;  // Payload.
+
+        Frame(byte type, long seq, byte[] payload) {  // Costruttore del frame.
+            this.type = type;  // Imposta il tipo.
+            this.seq = seq;  // Imposta il numero di sequenza.
+            this.payload = payload;  // Imposta il payload.
+        }
+    }
+}
@@ -0,0 +1,493 @@
+import java.io.IOException;  // Importa l'eccezione per gli errori di input/output.
+import java.net.InetSocketAddress;  // Importa la classe per l'indirizzo di ascolto del server.
+import java.net.StandardSocketOptions;  // Importa le opzioni standard dei socket.
+import java.nio.ByteBuffer;  // Importa i buffer di byte usati per le scritture raggruppate.
+import java.nio.channels.ServerSocketChannel;  // Importa il canale del server per accettare connessioni.
+import java.nio.channels.SocketChannel;  // Importa il canale del socket dei client.
+import java.util.concurrent.ExecutorService;  // Importa l'interfaccia per gli esecutori di compiti.
+import java.util.concurrent.Executors;  // Importa le fabbriche di esecutori.
+import java.util.concurrent.atomic.AtomicLong;  // Importa un long atomico.
+import java.util.concurrent.locks.LockSupport;  // Importa le primitive di sospensione dei thread.
+
+// Nucleo del server di chat, senza interfaccia grafica: motori di rete, stanze, giornale, ricerca, metriche, cluster e file condivisi.
+// Gli eventi vengono scritti in due LogRing limitati (log di sistema e chat) che ServerGUI legge a intervalli regolari;
+// senza interfaccia il server si avvia direttamente:
+//   java -cp out -Djava.awt.headless=true ChatServer [nio|thread|virtual]
+// La cifratura applicata ai messaggi dei client si sceglie con setCrypto (-Dchat.crypto e -Dchat.crypto.key senza interfaccia).
+public final class ChatServer {  // Server di chat eseguibile con o senza interfaccia.
+    private final String serverMode; // Modalità del server: "nio" (event loop), "thread" (un thread per client) o "virtual" (un thread virtuale per client).
+    private final LogRing log = new LogRing(); // Righe del log di sistema.
+    private final LogRing chat = new LogRing(); // Righe della chat.
+    private final RoomRegistry rooms = new RoomRegistry(); // Indice concorrente delle connessioni client per stanza.
+    private final AtomicLong messageSequence = new AtomicLong(); // Numero di sequenza dell'ultimo messaggio inoltrato, quando il giornale è disabilitato.
+    private volatile String cryptoOption = CipherEngine.PLAIN_TEXT; // Opzione di cifratura applicata ai messaggi dei client.
+    private volatile String cryptoKey = ""; // Chiave assegnata alle nuove connessioni.
+    private ServerSocketChannel serverSocket; // Canale del server (bloccante) per accettare connessioni.
+    private NioServer nioServer; // Motore non bloccante usato nella modalità "nio".
+    private ExecutorService handlerExecutor; // Esecutore dei ClientHandler nelle modalità "thread" e "virtual".
+    private ServerMetrics metrics; // Metriche esposte via JMX e sul file periodico (null a server fermo).
+    private volatile MessageJournal journal; // Giornale dei messaggi inoltrati, ripetuti ai client che si riconnettono (null se disabilitato).
+    private volatile SearchIndex search; // Indice dei messaggi del giornale per il comando di ricerca (null se disabilitato).
+    private volatile ClusterRelay cluster; // Collegamenti con gli altri nodi del cluster (null su un nodo singolo).
+    private volatile FileShare files; // Porta dei trasferimenti di file (null se la condivisione è disabilitata).
+    private volatile TimerWheel timers; // Ruota dei controlli di inattività di tutte le sessioni (null a server fermo o se disabilitati).
+    private final ClusterRelay.Listener clusterListener = new ClusterRelay.Listener() { // Consegna ai client locali i messaggi nati sugli altri nodi.
+        @Override
+        public void onRelay(String node, String room, String text) {
+            broadcast(room, null, text);  // Tutti i membri locali: il mittente è su un altro nodo.
+            String label = ClusterRelay.ALL_ROOMS.equals(room) || RoomRegistry.LOBBY.equals(room) ? node : node + " [" + room + "]";  // Indica nodo e stanza.
+            chat.append(label + ": " + text);  // Aggiunge il messaggio alla chat.
+        }
+
+        @Override
+        public void onStatus(String text) {
+            log.append(text);  // Visualizza l'evento del collegamento nel log.
+        }
+    };
+    private final ClientSession.Listener sessionListener = new ClientSession.Listener() { // Collega gli eventi delle sessioni, di qualunque motore, alla logica di chat.
+        @Override
+        public void onOpen(ClientSession session) {
+            session.key = cryptoKey;  // Prende la chiave attuale.
+            rooms.open(session);  // Aggiunge la connessione alla stanza iniziale.
+            TimerWheel wheel = timers;  // Ruota attuale.
+            if (wheel != null) session.watch(wheel);  // Chiude la connessione se resta silenziosa.
+        }
+
+        @Override
+        public void onMessage(ClientSession session, String text) {
+            handleClientMessage(session, text, session.key);  // Elabora e inoltra il messaggio ricevuto.
+        }
+
+        @Override
+        public void onClose(ClientSession session) {
+            rooms.close(session);  // Rimuove la connessione dalla sua stanza.
+            FileShare current = files;  // Condivisione corrente.
+            String token = session.fileToken;  // Gettone dei caricamenti, se rilasciato.
+            if (current != null && token != null) current.revokeToken(token);  // La sessione non può più caricare.
+        }
+
+        @Override
+        public MessageJournal journal() {
+            return journal;  // Giornale per la ripetizione dei messaggi persi.
+        }
+
+        @Override
+        public int filePort() {
+            FileShare current = files;  // Condivisione corrente.
+            return current != null ? current.port() : 0;  // Annunciata nella risposta al saluto.
+        }
+
+        @Override
+        public String fileToken(ClientSession session) {
+            FileShare current = files;  // Condivisione corrente.
+            if (current == null) return null;  // Condivisione chiusa nel frattempo.
+            session.fileToken = current.issueToken();  // Revocato alla chiusura della sessione.
+            return session.fileToken;
+        }
+    };
+
+    ChatServer(String serverMode) {  // Costruttore del server.
+        this.serverMode = serverMode;  // Imposta la modalità del server.
+    }
+
+    LogRing log() {  // Restituisce le righe del log di sistema.
+        return log;
+    }
+
+    LogRing chat() {  // Restituisce le righe della chat.
+        return chat;
+    }
+
+    void setCrypto(String option, String key) {  // Imposta la cifratura dei messaggi dei client e la chiave delle nuove connessioni.
+        cryptoOption = option;  // Letta dai thread di rete a ogni messaggio.
+        cryptoKey = key;  // Catturata all'apertura di ogni connessione.
+    }
+
+    static String transform(String message, String option, String key) {  // Applica la cifratura o decifratura al messaggio; lancia IllegalArgumentException se la chiave non è valida.
+        long start = System.nanoTime();  // Inizio della misura della trasformazione.
+        String result = CipherEngine.transformer(option, key).apply(message);  // Applica il trasformatore precompilato per l'opzione e la chiave.
+        ServerMetrics.CRYPTO.record(System.nanoTime() - start);  // Registra il costo della trasformazione.
+        return result;
+    }
+
+    void start(int port) {  // Metodo per avviare il server.
+        openJournal();  // Riprende la numerazione e la cronologia dei messaggi.
+        openTimers();  // Avvia i controlli di inattività.
+        startMetrics();  // Espone le metriche via JMX e sul file periodico.
+        openCluster();  // Si collega agli altri nodi, se configurati.
+        openFiles();  // Apre la porta dei trasferimenti di file.
+        if ("nio".equals(serverMode)) {  // Nella modalità NIO le connessioni sono gestite dagli event loop.
+            if (!startNioServer(port)) closeResources();  // Porta non disponibile: nessuna risorsa resta aperta.
+            return;
+        }
+        try {
+            serverSocket = ServerSocketChannel.open().bind(new InetSocketAddress(port), ClientSession.ACCEPT_BACKLOG);  // Crea un nuovo canale di server in modalità bloccante, con la coda di accept configurata.
+            handlerExecutor = "virtual".equals(serverMode) ? newVirtualThreadExecutor() : Executors.newCachedThreadPool();  // Sceglie l'esecutore dei gestori in base alla modalità.
+            log.append("Server connected on port " + port + " (" + serverMode + " mode)");  // Visualizza la connessione nel log.
+            new Thread(() -> {  // Crea un nuovo thread per gestire le connessioni in arrivo.
+                try {
+                    while (serverSocket.isOpen()) {  // Continua a eseguire finché il canale non viene chiuso.
+                        SocketChannel socket = serverSocket.accept();  // Accetta una connessione in entrata.
+                        if (!ClientSession.reserveSlot()) {  // Server pieno: rifiuto immediato, senza thread né sessione.
+                            NioServer.reject(socket);  // Chiude con un reset.
+                            continue;
+                        }
+                        socket.setOption(StandardSocketOptions.SO_KEEPALIVE, true);  // Il kernel rileva anche i client senza heartbeat scomparsi.
+                        ClientHandler handler = new ClientHandler(socket);  // Crea un nuovo gestore per il client connesso.
+                        sessionListener.onOpen(handler);  // Cattura la chiave e aggiunge il gestore alla lista.
+                        handlerExecutor.execute(handler);  // Avvia il gestore sull'esecutore scelto.
+                    }
+                } catch (IOException e) {  // Gestisce le eccezioni di input/output.
+                    log.append("Server interrupted.");  // Visualizza l'interruzione nel log.
+                }
+            }).start();  // Avvia il thread.
+        } catch (IOException e) {  // Gestisce le eccezioni di input/output.
+            log.append("Unable to start server: " + e.getMessage());  // Visualizza l'errore di avvio nel log.
+            closeResources();  // Porta non disponibile: nessuna risorsa resta aperta.
+        }
+    }
+
+    private boolean startNioServer(int port) {  // Metodo per avviare il server con il motore NIO; false se l'avvio non riesce.
+        int workers = Integer.getInteger("chat.nio.workers", Runtime.getRuntime().availableProcessors());  // Un event loop per core, salvo diversa configurazione.
+        nioServer = new NioServer(port, workers, sessionListener);  // Collega gli eventi del motore alla logica di chat.
+        try {
+            nioServer.start();  // Avvia gli event loop e il thread di accettazione.
+            log.append("Server connected on port " + port + " (NIO, " + workers + " event loops)");  // Visualizza la connessione nel log.
+            return true;
+        } catch (IOException e) {  // Gestisce le eccezioni di input/output.
+            nioServer.stop();  // Libera le risorse eventualmente già allocate.
+            nioServer = null;  // Dimentica il motore non avviato.
+            log.append("Unable to start server: " + e.getMessage());  // Visualizza l'errore di avvio nel log.
+            return false;
+        }
+    }
+
+    void stop() {  // Metodo per fermare il server.
+        if (nioServer != null) {  // Se è attivo il motore NIO, fermalo.
+            nioServer.stop();  // Chiude il canale del server e tutte le connessioni.
+            nioServer = null;  // Dimentica il motore fermato.
+            stopped();  // Chiude cluster, giornale e metriche.
+            return;
+        }
+        try {
+            if (serverSocket != null && serverSocket.isOpen()) {  // Se il canale di server esiste e non è chiuso, chiudilo.
+                serverSocket.close();  // Chiude il socket di server.
+                handlerExecutor.shutdown();  // Non accetta nuovi gestori; quelli attivi terminano alla chiusura dei loro socket.
+                for (ChatConnection connection : rooms.connections()) connection.close();  // Chiude i socket: i gestori bloccati in lettura terminano.
+                stopped();  // Chiude cluster, giornale e metriche.
+            }
+        } catch (IOException e) {  // Gestisce le eccezioni di input/output.
+            log.append("Error stopping server: " + e.getMessage());  // Visualizza l'errore di fermata nel log.
+        }
+    }
+
+    private void stopped() {  // Metodo per liberare le risorse condivise dopo la fermata del motore.
+        closeResources();  // Cluster, file, giornale, metriche e timer.
+        log.append("Server stopped (" + OutboundQueue.dropSummary() + "; " + Compression.summary() + ").");  // Visualizza la fermata e i contatori di scarto e compressione nel log.
+    }
+
+    private void closeResources() {  // Metodo per chiudere le risorse aperte da start, dopo la fermata o un avvio fallito.
+        closeCluster();  // Chiude i collegamenti con gli altri nodi.
+        closeFiles();  // Chiude i trasferimenti di file.
+        closeJournal();  // Salva l'indice del giornale.
+        stopMetrics();  // Scrive l'ultimo campione e rimuove il bean JMX.
+        closeTimers();  // Ferma i controlli di inattività.
+    }
+
+    private void openJournal() {  // Metodo per aprire il giornale dei messaggi.
+        try {
+            journal = MessageJournal.open();  // Null se disabilitato con -Dchat.journal.dir=
+            if (journal != null) log.append("Journal " + journal.directory().toAbsolutePath() + " (head " + journal.head() + ")");  // Visualizza il giornale nel log.
+            if (journal != null && SearchIndex.ENABLED) openSearch(journal);  // Indicizza i messaggi già registrati.
+        } catch (IOException e) {  // Directory non utilizzabile.
+            journal = null;  // Continua senza persistenza.
+            log.append("Journal disabled: " + e.getMessage());  // Visualizza l'errore nel log.
+        }
+    }
+
+    private void openSearch(MessageJournal current) {  // Metodo per costruire l'indice di ricerca dai messaggi del giornale.
+        long start = System.nanoTime();  // Inizio della costruzione.
+        SearchIndex index = new SearchIndex();  // Indice vuoto.
+        current.forEach((text, seq) -> index.add(seq, text));  // In ordine di sequenza, senza trattenere i testi.
+        search = index;  // Da qui i nuovi messaggi vengono indicizzati all'inoltro.
+        log.append("Search index: " + index.describe() + " (" + (System.nanoTime() - start) / 1_000_000 + " ms)");  // Visualizza l'indice nel log.
+    }
+
+    private void closeJournal() {  // Metodo per chiudere il giornale dei messaggi.
+        search = null;  // L'indice vale solo per questo giornale.
+        if (journal != null) journal.close();  // Forza i dati su disco e salva l'indice.
+        journal = null;  // Dimentica il giornale.
+    }
+
+    private void openCluster() {  // Metodo per collegarsi agli altri nodi del cluster.
+        try {
+            cluster = ClusterRelay.open(clusterListener);  // Null su un nodo singolo.
+            if (cluster != null) log.append("Cluster " + cluster.describe());  // Visualizza la configurazione nel log.
+        } catch (IOException e) {  // Porta occupata o pari non valido.
+            cluster = null;  // Continua come nodo singolo.
+            log.append("Cluster disabled: " + e.getMessage());  // Visualizza l'errore nel log.
+        }
+    }
+
+    private void closeCluster() {  // Metodo per chiudere i collegamenti con gli altri nodi.
+        if (cluster != null) cluster.close();  // Chiude socket e thread.
+        cluster = null;  // Dimentica il cluster.
+    }
+
+    private void openFiles() {  // Metodo per aprire la porta dei trasferimenti di file.
+        try {
+            files = FileShare.open(log::append);  // Null se disabilitata con -Dchat.files.port=0
+            if (files != null) log.append("File sharing " + files.describe());  // Visualizza la configurazione nel log.
+        } catch (IOException e) {  // Porta occupata o directory non utilizzabile.
+            files = null;  // Continua senza condivisione.
+            log.append("File sharing disabled: " + e.getMessage());  // Visualizza l'errore nel log.
+        }
+    }
+
+    private void closeFiles() {  // Metodo per chiudere la porta dei trasferimenti di file.
+        if (files != null) files.close();  // Chiude i trasferimenti ed elimina i file.
+        files = null;  // Dimentica la condivisione.
+    }
+
+    private void openTimers() {  // Metodo per avviare la ruota dei controlli di inattività.
+        if (ClientSession.HEARTBEAT_SECONDS <= 0 && ClientSession.IDLE_SECONDS <= 0 && ClientSession.LEGACY_IDLE_SECONDS <= 0) return;  // Tutto disabilitato.
+        timers = new TimerWheel("chat-timers");  // Un solo thread per tutte le sessioni.
+        log.append("Idle timeout: ping after " + ClientSession.HEARTBEAT_SECONDS + "s, close after " + ClientSession.IDLE_SECONDS + "s (heartbeat) / "
+                + (ClientSession.LEGACY_IDLE_SECONDS > 0 ? ClientSession.LEGACY_IDLE_SECONDS + "s" : "never") + " (legacy), tick " + TimerWheel.TICK_MILLIS + " ms");  // Visualizza la configurazione nel log.
+    }
+
+    private void closeTimers() {  // Metodo per fermare la ruota dei controlli di inattività.
+        if (timers != null) timers.close();  // Ferma il thread della ruota.
+        timers = null;  // Dimentica la ruota.
+    }
+
+    private void startMetrics() {  // Metodo per avviare la raccolta delle metriche.
+        metrics = new ServerMetrics(rooms, timers);  // Metriche delle connessioni di questo server.
+        metrics.start();  // Registra il bean e avvia il campionatore.
+        String dump = ServerMetrics.INTERVAL > 0 && !ServerMetrics.FILE.isEmpty() ? ", " + ServerMetrics.FILE + " every " + ServerMetrics.INTERVAL + "s" : "";  // File periodico, se abilitato.
+        log.append("Metrics: JMX " + ServerMetrics.OBJECT_NAME + dump);  // Visualizza dove leggere le metriche.
+    }
+
+    private void stopMetrics() {  // Metodo per fermare la raccolta delle metriche.
+        if (metrics == null) return;  // Mai avviate.
+        log.append("Metrics: " + metrics.summary());  // Visualizza il riepilogo finale nel log.
+        metrics.stop();  // Ultimo campione e deregistrazione del bean.
+        metrics = null;  // Dimentica le metriche.
+    }
+
+    private ChatMessage newMessage(String room, String text) throws IOException {  // Metodo per numerare (e registrare) un messaggio da inoltrare in una stanza; lancia un'eccezione se supera la lunghezza massima di un frame.
+        MessageJournal current = RoomRegistry.LOBBY.equals(room) ? journal : null;  // Solo la stanza iniziale viene registrata e ripetuta alla riconnessione.
+        if (current == null) {  // Nessuna persistenza né ricerca.
+            ChatMessage message = new ChatMessage(RoomRegistry.LOBBY.equals(room) ? messageSequence.incrementAndGet() : ChatProtocol.UNSEQUENCED, text);  // Numerato solo nella stanza iniziale.
+            if (message.fitsFrame()) return message;  // Lo stesso controllo del giornale.
+            message.release();  // Nessun client a frame potrebbe leggerlo.
+            throw new IOException("Message exceeds " + ChatProtocol.MAX_PAYLOAD + " bytes");
+        }
+        SearchIndex index = search;  // Indice corrente.
+        if (index == null) return current.append(text);  // Il giornale assegna i numeri di sequenza.
+        synchronized (index) {  // L'indice riceve i numeri di sequenza nell'ordine in cui il giornale li assegna.
+            ChatMessage message = current.append(text);  // Registra il messaggio.
+            index.add(message.seq, text);  // E lo indicizza.
+            return message;
+        }
+    }
+
+    void sendToAll(String text) {  // Metodo per inviare un messaggio dell'operatore, già cifrato, a tutti i client di tutti i nodi.
+        if (!broadcast(ClusterRelay.ALL_ROOMS, null, text)) return;  // Accoda il messaggio per tutti i client, in tutte le stanze.
+        ClusterRelay current = cluster;  // Cluster corrente.
+        if (current != null) current.publish(ClusterRelay.ALL_ROOMS, text);  // E per i client degli altri nodi.
+        chat.append("You: " + text);  // Aggiunge il messaggio alla chat.
+    }
+
+    private ExecutorService newVirtualThreadExecutor() {  // Metodo per creare un esecutore con un thread virtuale per compito.
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);  // Disponibile da Java 21: risolto a runtime per compilare anche su JDK precedenti.
+        } catch (ReflectiveOperationException e) {  // JDK senza thread virtuali.
+            log.append("Virtual threads not available on Java " + Runtime.version().feature() + ", using platform threads.");  // Segnala il ripiego nel log.
+            return Executors.newCachedThreadPool();  // Ripiega su thread di piattaforma.
+        }
+    }
+
+    private void handleClientMessage(ChatConnection sender, String line, String key) {  // Metodo per elaborare un messaggio ricevuto da un client e inoltrarlo.
+        if (ChatProtocol.isCommand(line)) {  // Comando di stanza o di condivisione, ricevuto in chiaro.
+            handleCommand(sender, line);  // Cambia la stanza del mittente o annuncia un file.
+            return;
+        }
+        if (line.startsWith(FileShare.NOTICE) || line.startsWith(SearchIndex.RESULT)) return;  // Solo il server annuncia i file e invia i risultati delle ricerche.
+        String room = rooms.roomOf(sender);  // Stanza del mittente.
+        if (room == null) return;  // Connessione già chiusa.
+        String processedMessage;  // Messaggio cifrato o decifrato.
+        try {
+            processedMessage = transform(line, cryptoOption, key);  // Applica la cifratura/decifratura al messaggio ricevuto.
+        } catch (IllegalArgumentException e) {  // Chiave non valida: il messaggio non viene né registrato né inoltrato.
+            log.append("Key Error: " + e.getMessage());  // Visualizza l'errore nel log.
+            return;
+        }
+        if (!broadcast(room, sender, processedMessage)) return;  // Inoltra il messaggio agli altri membri della stanza.
+        ClusterRelay current = cluster;  // Cluster corrente.
+        if (current != null) current.publish(room, processedMessage);  // E ai membri della stanza sugli altri nodi.
+        String label = RoomRegistry.LOBBY.equals(room) ? "Client: " : "Client [" + room + "]: ";  // Indica la stanza, se non è quella iniziale.
+        chat.append(label + processedMessage);  // Aggiunge il messaggio alla chat.
+    }
+
+    private boolean broadcast(String room, ChatConnection sender, String text) {  // Metodo per registrare un messaggio e accodarlo ai membri locali di una stanza (o di tutte), escluso il mittente; false se il messaggio è stato scartato.
+        boolean everyone = ClusterRelay.ALL_ROOMS.equals(room);  // Messaggio per tutte le stanze.
+        ChatMessage outgoing;  // Registrato e codificato una sola volta per formato, per tutti i destinatari.
+        try {
+            outgoing = newMessage(everyone ? RoomRegistry.LOBBY : room, text);  // Numera e registra il messaggio.
+        } catch (IOException e) {  // Messaggio troppo lungo per un frame: né registrato né inoltrato.
+            log.append("Message dropped: " + e.getMessage());  // Visualizza lo scarto nel log.
+            return false;
+        }
+        long start = System.nanoTime();  // Inizio della misura del broadcast.
+        for (ChatConnection client : everyone ? rooms.connections() : rooms.members(room)) {  // Destinatari locali.
+            if (client != sender) client.send(outgoing);  // Evita di inviare il messaggio al mittente originale.
+        }
+        ServerMetrics.FAN_OUT.record(System.nanoTime() - start);  // Registra il costo del broadcast.
+        outgoing.release();  // Rilascia i riferimenti locali; i destinatari tengono il proprio.
+        return true;
+    }
+
+    private void handleCommand(ChatConnection sender, String command) {  // Metodo per eseguire un comando di stanza o di condivisione.
+        if (command.startsWith(ChatProtocol.COMMAND_SEARCH + " ")) {  // Ricerca nei messaggi registrati.
+            searchMessages(sender, command.substring(ChatProtocol.COMMAND_SEARCH.length() + 1).trim());
+            return;
+        }
+        if (command.startsWith(ChatProtocol.COMMAND_SHARE + " ")) {  // Annuncio di un file caricato.
+            shareFile(sender, command.substring(ChatProtocol.COMMAND_SHARE.length() + 1).trim());
+            return;
+        }
+        String room = command.equals(ChatProtocol.COMMAND_LEAVE) ? RoomRegistry.LOBBY : RoomRegistry.normalize(command.substring(ChatProtocol.COMMAND_JOIN.length()));  // Stanza di destinazione.
+        if (room == null) return;  // Nome non valido: comando ignorato.
+        String previous = rooms.join(sender, room);  // Sposta il mittente.
+        if (previous == null || previous.equals(room)) return;  // Connessione chiusa o nessun cambio.
+        log.append("Client moved from " + previous + " to " + room + " (" + rooms.roomCount() + " rooms)");  // Visualizza lo spostamento nel log.
+    }
+
+    private void searchMessages(ChatConnection sender, String query) {  // Metodo per inviare al solo mittente i messaggi più recenti che contengono tutti i termini della query.
+        SearchIndex index = search;  // Indice corrente.
+        MessageJournal current = journal;  // Giornale con i testi.
+        long start = System.nanoTime();  // Inizio della misura della ricerca.
+        long[] found = index != null && current != null ? index.search(query, SearchIndex.MAX_RESULTS) : new long[0];  // Numeri di sequenza, dal più vecchio.
+        int sent = 0;  // Risultati inviati.
+        for (long seq : found) {
+            String text = current.read(seq);  // Testo letto dal giornale mappato.
+            if (text == null) continue;  // Segmento illeggibile.
+            reply(sender, SearchIndex.result(seq, text));  // Un messaggio per risultato.
+            sent++;
+        }
+        if (sent == 0) reply(sender, SearchIndex.result(0, query));  // Nessun risultato: il client mostra la query.
+        ServerMetrics.SEARCH.record(System.nanoTime() - start);  // Registra il costo della ricerca.
+    }
+
+    private void reply(ChatConnection recipient, String text) {  // Metodo per inviare un messaggio a una sola connessione, senza registrarlo.
+        ChatMessage message = new ChatMessage(ChatProtocol.UNSEQUENCED, text);  // Fuori dalla numerazione del giornale.
+        recipient.send(message);  // La connessione prende il proprio riferimento.
+        message.release();  // Rilascia il riferimento locale.
+    }
+
+    private void shareFile(ChatConnection sender, String id) {  // Metodo per annunciare un file ai membri locali della stanza del mittente.
+        String room = rooms.roomOf(sender);  // Stanza del mittente.
+        FileShare current = files;  // Condivisione corrente.
+        String notice = current != null ? current.notice(id) : null;  // Avviso del file, se esiste.
+        if (room == null || notice == null) return;  // Connessione chiusa, condivisione disabilitata o file sconosciuto.
+        broadcast(room, null, notice);  // Anche al mittente, che vede il file come gli altri; non inoltrato al cluster: il file è solo su questo nodo.
+        String[] file = FileShare.parseNotice(notice);  // Identificativo, byte e nome.
+        String label = RoomRegistry.LOBBY.equals(room) ? "Client: " : "Client [" + room + "]: ";  // Indica la stanza, se non è quella iniziale.
+        chat.append(label + "[file " + file[2] + ", " + file[1] + " bytes]");  // Aggiunge l'annuncio alla chat.
+    }
+
+    public static void main(String[] args) throws InterruptedException {  // Metodo principale per avviare il server senza interfaccia.
+        String mode = args.length > 0 ? args[0] : System.getProperty("chat.server.mode", "nio");  // Modalità del server: "nio" (predefinita), "thread" oppure "virtual".
+        ChatServer server = new ChatServer(mode);  // Crea il server.
+        server.setCrypto(System.getProperty("chat.crypto", CipherEngine.PLAIN_TEXT), System.getProperty("chat.crypto.key", ""));  // Cifratura da riga di comando.
+        server.start(ChatProtocol.PORT);  // Avvia il server.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {  // Ctrl+C: ferma il server e stampa le ultime righe.
+            server.stop();  // Salva giornale e metriche.
+            server.print();  // Stampa il riepilogo.
+        }));
+        while (true) {  // Fino all'interruzione del processo.
+            server.print();  // Stampa le righe accumulate.
+            Thread.sleep(LogRing.REFRESH_MILLIS);  // Stesso ritmo dell'interfaccia.
+        }
+    }
+
+    private void print() {  // Metodo per stampare sulla console le righe accumulate di log e chat.
+        StringBuilder out = new StringBuilder();  // Righe da stampare.
+        log.drainTo(out);  // Log di sistema.
+        chat.drainTo(out);  // Chat.
+        if (out.length() > 0) System.out.print(out);  // Una sola scrittura.
+    }
+
+    class ClientHandler extends ClientSession implements Runnable {  // Classe interna per gestire le connessioni client, eseguita su un thread di piattaforma o virtuale.
+        private SocketChannel socket;  // Canale bloccante per la connessione con il client.
+
+        ClientHandler(SocketChannel socket) {  // Costruttore del gestore client.
+            super(sessionListener);  // Gli eventi della sessione vanno alla logica di chat.
+            this.socket = socket;  // Imposta il canale del client.
+        }
+
+        public void run() {  // Metodo eseguito dal thread del gestore.
+            handlerExecutor.execute(this::writeLoop);  // Avvia il writer che svuota la coda di uscita.
+            ByteBuffer buffer = ByteBuffer.allocate(8192);  // Buffer di lettura.
+            try {
+                while (true) {  // Legge dal client fino alla chiusura della connessione.
+                    long delay;
+                    while ((delay = readDelayNanos()) > 0) LockSupport.parkNanos(delay);  // Client oltre i limiti: il kernel lo rallenta tramite TCP.
+                    if (socket.read(buffer) < 0) break;  // Il client ha chiuso la connessione.
+                    bytesRead(buffer.position());  // Conta i byte e li addebita al limite.
+                    buffer.flip();  // Prepara il buffer alla lettura.
+                    decoder.feed(buffer);  // Elabora e inoltra i messaggi completi.
+                    buffer.clear();  // Prepara il buffer alla prossima lettura.
+                }
+            } catch (IOException e) {  // Gestisce le eccezioni di input/output.
+                if (socket.isOpen()) e.printStackTrace();  // Stampa le informazioni di eccezione, salvo chiusura volontaria.
+            } finally {
+                readerFinished();  // Libera il contesto di decompressione.
+                close();  // Chiude il canale e rimuove il gestore dalla lista di gestori.
+            }
+        }
+
+        private void writeLoop() {  // Metodo del writer: invia i messaggi accodati finché la connessione è aperta.
+            EncodedMessage[] batch = new EncodedMessage[MAX_BATCH];  // Messaggi del gruppo corrente.
+            ByteBuffer[] views = new ByteBuffer[MAX_BATCH];  // Viste dei messaggi per la scrittura raggruppata.
+            int count = 0;  // Messaggi nel gruppo corrente.
+            try {
+                EncodedMessage message;
+                while ((message = outbound.take()) != null) {  // Attende il prossimo messaggio (null alla chiusura).
+                    do {
+                        batch[count] = message;  // Aggiunge il messaggio al gruppo.
+                        views[count++] = message.view();  // Vista indipendente sul buffer condiviso.
+                    } while (count < MAX_BATCH && (message = outbound.poll()) != null);  // Raggruppa i messaggi già in coda.
+                    long remaining = 0;  // Byte ancora da scrivere.
+                    for (int i = 0; i < count; i++) remaining += views[i].remaining();  // Somma le lunghezze del gruppo.
+                    ServerMetrics.BYTES_OUT.add(remaining);  // Conta i byte del gruppo.
+                    while (remaining > 0) remaining -= socket.write(views, 0, count);  // Una scrittura raggruppata per gruppo di messaggi.
+                    count = releaseAll(batch, views, count);  // Rilascia i messaggi inviati.
+                }
+            } catch (IOException | InterruptedException e) {  // Il client non è più raggiungibile.
+                close();  // Chiude la connessione; il thread di lettura terminerà.
+            } finally {
+                releaseAll(batch, views, count);  // Rilascia i messaggi del gruppo non inviato.
+            }
+        }
+
+        private int releaseAll(EncodedMessage[] batch, ByteBuffer[] views, int count) {  // Metodo per rilasciare i messaggi di un gruppo.
+            for (int i = 0; i < count; i++) {  // Scorre il gruppo.
+                batch[i].release();  // Rilascia il riferimento del gestore.
+                batch[i] = null;  // Dimentica il messaggio.
+                views[i] = null;  // Dimentica la vista.
+            }
+            return 0;  // Il gruppo ora è vuoto.
+        }
+
+        public void close() {  // Metodo per chiudere la connessione con il client.
+            try {
+                socket.close();  // Chiude il canale, sbloccando la lettura del thread.
+            } catch (IOException e) {  // Gestisce le eccezioni di input/output.
+                e.printStackTrace();  // Stampa le informazioni di eccezione.
+            }
+            closed();  // Scarta i messaggi non inviati, ferma il writer e rimuove il gestore dalla lista.
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.Locale;  // Importa la classe per la conversione indipendente dalla lingua.
+import java.util.Map;  // Importa l'interfaccia delle mappe.
+import java.util.concurrent.ConcurrentHashMap;  // Importa una mappa thread-safe.
+
+final class CipherEngine {  // Motore di cifratura condiviso da ClientGUI e ServerGUI: ogni coppia (opzione, chiave) viene compilata una sola volta.
+    static final String PLAIN_TEXT = "Plain Text";  // Nessuna trasformazione.
+    static final String CAESAR_ENCRYPT = "Caesar Encrypt";  // Cifratura di Cesare.
+    static final String CAESAR_DECRYPT = "Caesar Decrypt";  // Decifratura di Cesare.
+    static final String VIGENERE_ENCRYPT = "Vigenère Encrypt";  // Cifratura di Vigenère.
+    static final String VIGENERE_DECRYPT = "Vigenère Decrypt";  // Decifratura di Vigenère.
+    static final String[] OPTIONS = {PLAIN_TEXT, CAESAR_ENCRYPT, CAESAR_DECRYPT, VIGENERE_ENCRYPT, VIGENERE_DECRYPT};  // Voci dei menu a tendina.
+
+    private static final int ASCII = 128;  // Le tabelle coprono solo l'ASCII: gli altri caratteri restano inalterati.
+    private static final int MAX_CACHED = 1024;  // Numero massimo di trasformatori in cache prima di svuotarla.
+    private static final Map<String, Map<String, Transformer>> CACHE = new ConcurrentHashMap<>();  // Trasformatori compilati per opzione e chiave.
+    private static final ThreadLocal<char[]> SCRATCH = ThreadLocal.withInitial(() -> new char[256]);  // Buffer di lavoro riutilizzato per thread.
+    private static final Transformer IDENTITY = new Transformer(null);  // Trasformatore del testo in chiaro.
+
+    private CipherEngine() {  // Classe di sole utilità statiche.
+    }
+
+    static boolean keyRequired(String option) {  // Metodo per determinare se una chiave è necessaria per l'opzione selezionata.
+        return option.contains("Caesar") || option.contains("Vigenère");  // Restituisce vero se l'opzione contiene "Caesar" o "Vigenère".
+    }
+
+    static Transformer transformer(String option, String key) {  // Restituisce il trasformatore per l'opzione e la chiave, compilandolo solo la prima volta.
+        if (!keyRequired(option)) return IDENTITY;  // Il testo in chiaro non dipende dalla chiave.
+        Map<String, Transformer> byKey = CACHE.computeIfAbsent(option, o -> new ConcurrentHashMap<>());  // Trasformatori per questa opzione.
+        Transformer transformer = byKey.get(key);  // Cerca il trasformatore già compilato.
+        if (transformer == null) {  // Prima volta per questa coppia.
+            transformer = compile(option, key);  // Compila le tabelle (può lanciare IllegalArgumentException).
+            if (byKey.size() >= MAX_CACHED) byKey.clear();  // Evita che chiavi sempre diverse facciano crescere la cache senza limite.
+            byKey.put(key, transformer);  // Memorizza il trasformatore.
+        }
+        return transformer;
+    }
+
+    static Transformer compile(String option, String key) {  // Compila le tabelle di sostituzione per l'opzione e la chiave.
+        switch (option) {  // Seleziona l'opzione di cifratura.
+            case CAESAR_ENCRYPT:
+            case CAESAR_DECRYPT:
+                int shift;  // Spostamento di Cesare.
+                try {
+                    shift = Math.floorMod(Integer.parseInt(key.trim()), 26);  // Normalizza lo shift tra 0 e 25, anche per chiavi negative.
+                } catch (NumberFormatException e) {  // Chiave non numerica.
+                    throw new IllegalArgumentException("Invalid key format for Caesar cipher. Please enter a valid number.", e);
+                }
+                if (option.equals(CAESAR_DECRYPT)) shift = (26 - shift) % 26;  // Decifrare equivale a cifrare con lo shift inverso.
+                return new Transformer(new char[][]{table(shift)});  // Una sola tabella per tutto il testo.
+            case VIGENERE_ENCRYPT:
+            case VIGENERE_DECRYPT:
+                if (key == null || key.isEmpty()) throw new IllegalArgumentException("A key is required for " + option);  // La chiave vuota non definisce alcuno spostamento.
+                String lower = key.toLowerCase(Locale.ROOT);  // Converte la chiave in minuscolo.
+                char[][] tables = new char[lower.length()][];  // Una tabella per ogni posizione della chiave.
+                for (int j = 0; j < tables.length; j++) {  // Precalcola lo shift di ogni lettera della chiave.
+                    int letterShift = Math.floorMod(lower.charAt(j) - 'a', 26);  // Spostamento della lettera j della chiave.
+                    tables[j] = table(option.equals(VIGENERE_ENCRYPT) ? letterShift : (26 - letterShift) % 26);  // Tabella di cifratura o decifratura.
+                }
+                return new Transformer(tables);
+            default:
+                return IDENTITY;  // Nessuna cifratura/decifratura.
+        }
+    }
+
+    private static char[] table(int shift) {  // Costruisce la tabella di sostituzione ASCII per uno spostamento.
+        char[] table = new char[ASCII];  // Una voce per ogni carattere ASCII.
+        for (char c = 0; c < ASCII; c++) table[c] = c;  // I caratteri non alfabetici restano inalterati.
+        for (int i = 0; i < 26; i++) {  // Sposta le lettere.
+            table['a' + i] = (char) ('a' + (i + shift) % 26);  // Lettere minuscole.
+            table['A' + i] = (char) ('A' + (i + shift) % 26);  // Lettere maiuscole.
+        }
+        return table;
+    }
+
+    private static boolean isAsciiLetter(char c) {  // Controlla se il carattere è una lettera ASCII.
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');  // Solo le lettere avanzano la chiave di Vigenère.
+    }
+
+    static final class Transformer {  // Trasformazione immutabile e thread-safe di una coppia (opzione, chiave).
+        private final char[][] tables;  // Tabelle di sostituzione, una per posizione della chiave (null per il testo in chiaro).
+
+        private Transformer(char[][] tables) {  // Costruttore privato: usare compile() o transformer().
+            this.tables = tables;  // Imposta le tabelle.
+        }
+
+        boolean isIdentity() {  // Restituisce vero se il trasformatore lascia il testo inalterato.
+            return tables == null;  // Nessuna tabella.
+        }
+
+        void transform(char[] chars, int offset, int length) {  // Trasforma i caratteri sul posto, senza allocazioni.
+            if (tables == null) return;  // Testo in chiaro: niente da fare.
+            int end = offset + length;  // Fine dell'intervallo.
+            if (tables.length == 1) {  // Cesare: una sola tabella.
+                char[] table = tables[0];  // Tabella di sostituzione.
+                for (int i = offset; i < end; i++) {  // Itera su ogni carattere.
+                    char c = chars[i];  // Carattere corrente.
+                    if (c < ASCII) chars[i] = table[c];  // Sostituisce i caratteri ASCII.
+                }
+                return;
+            }
+            int j = 0;  // Posizione corrente nella chiave.
+            for (int i = offset; i < end; i++) {  // Vigenère: itera su ogni carattere.
+                char c = chars[i];  // Carattere corrente.
+                if (isAsciiLetter(c)) {  // Solo le lettere sono cifrate e avanzano la chiave.
+                    chars[i] = tables[j][c];  // Sostituisce la lettera con la tabella della posizione j.
+                    if (++j == tables.length) j = 0;  // Ripete la chiave se necessario.
+                }
+            }
+        }
+
+        String apply(String text) {  // Trasforma un testo usando il buffer di lavoro del thread.
+            if (tables == null || text == null) return text;  // Testo in chiaro: restituisce la stessa stringa.
+            int length = text.length();  // Lunghezza del testo.
+            char[] scratch = SCRATCH.get();  // Buffer di lavoro del thread.
+            if (scratch.length < length) {  // Il buffer è troppo piccolo.
+                scratch = new char[Math.max(length, scratch.length * 2)];  // Lo ingrandisce.
+                SCRATCH.set(scratch);  // E lo conserva per i messaggi successivi.
+            }
+            text.getChars(0, length, scratch, 0);  // Copia il testo nel buffer.
+            transform(scratch, 0, length);  // Lo trasforma sul posto.
+            return new String(scratch, 0, length);  // Unica allocazione: la stringa risultante.
+        }
+    }
+}
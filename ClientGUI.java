@@ -1,19 +1,70 @@
 import javax.swing.*;  // Importa le classi Swing per la creazione dell'interfaccia grafica.
+import javax.swing.event.DocumentEvent;  // Importa gli eventi di modifica dei documenti.
+import javax.swing.event.DocumentListener;  // Importa l'ascoltatore delle modifiche dei documenti.
 import java.awt.*;  // Importa le classi AWT per il layout e la grafica.
 import java.awt.event.ActionEvent;  // Importa le classi per la gestione degli eventi di azione.
+import java.awt.event.MouseAdapter;  // Importa l'adattatore degli eventi del mouse, per il doppio clic sui file.
+import java.awt.event.MouseEvent;  // Importa gli eventi del mouse, per i tooltip della chat.
 import java.io.*;  // Importa le classi per l'input/output di file e flussi di dati.
+import java.net.InetAddress;  // Importa l'indirizzo del server, per i trasferimenti di file.
+import java.net.InetSocketAddress;  // Importa l'indirizzo della porta dei trasferimenti di file.
 import java.net.Socket;  // Importa la classe Socket per la comunicazione di rete.
+import java.net.SocketTimeoutException;  // Importa l'eccezione per il timeout di lettura.
+import java.nio.ByteBuffer;  // Importa i buffer di byte.
+import java.nio.charset.StandardCharsets;  // Importa le codifiche standard.
+import java.security.GeneralSecurityException;  // Importa l'eccezione generica degli algoritmi crittografici.
+import java.util.ArrayList;  // Importa la lista dinamica.
+import java.util.BitSet;  // Importa l'insieme di bit per scartare i messaggi ripetuti due volte.
+import java.util.Collections;  // Importa le utilità per le collezioni.
+import java.util.List;  // Importa l'interfaccia delle liste (prevale su java.awt.List).
+import java.util.zip.Inflater;  // Importa il decompressore deflate.
 
 public class ClientGUI extends JFrame {  // Definisce la classe ClientGUI che estende JFrame.
     private JTextArea textArea; // Area di testo per visualizzare eventi di sistema o messaggi dal server.
-    private JTextArea chatArea; // Area di testo per la chat dell'utente.
+    private JList<String> chatList; // Lista della chat dell'utente: disegna solo le righe visibili.
+    private JScrollPane chatScroll; // Scorrimento della lista della chat.
+    private final ChatHistory history = new ChatHistory(); // Ultime righe della chat, mostrate dalla lista.
+    private final LogRing incoming = new LogRing(ChatHistory.CAPACITY); // Righe in attesa del prossimo aggiornamento della lista, scritte da qualunque thread.
+    private volatile String cryptoOption = CipherEngine.PLAIN_TEXT; // Opzione selezionata, letta dal thread di ricezione.
+    private volatile String cryptoKey = ""; // Chiave inserita, letta dal thread di ricezione.
+    private volatile OutboundQueue<String> outgoing; // Messaggi in attesa del thread di invio (null se disconnesso).
     private JTextField chatInput; // Campo di testo per inserire i messaggi da inviare.
     private JTextField keyField; // Campo di testo per inserire la chiave di cifratura/decifratura.
     private JButton toggleConnectionButton; // Pulsante per connettersi/disconnettersi dal server.
+    private JButton shareButton; // Pulsante per inviare un file alla stanza.
     private JComboBox<String> cryptoOptions; // Menu a tendina per selezionare l'opzione di cifratura/decifratura.
-    private Socket socket; // Socket per la connessione al server.
+    private volatile Socket socket; // Socket per la connessione al server (letto anche dal thread di ricezione e dalla ruota).
+    private final Object connectionLock = new Object(); // Rende atomici il controllo della connessione corrente e la sua pulizia.
     private PrintWriter out; // Strumento per inviare messaggi al server.
     private BufferedReader in; // Lettore per ricevere messaggi dal server.
+    private DataInputStream frameIn; // Flusso per ricevere frame dal server (protocollo a frame).
+    private DataOutputStream frameOut; // Flusso per inviare frame al server (protocollo a frame).
+    private long sentSequence; // Numero di sequenza dell'ultimo frame inviato.
+    private boolean deflate; // True se il server ha accettato la compressione dei messaggi lunghi.
+    private SessionCipher session; // Cifratura di sessione AES-GCM accettata dal server (null se i frame viaggiano in chiaro).
+    private volatile int filePort; // Porta dei trasferimenti di file annunciata dal server (0 se la condivisione non è disponibile).
+    private volatile String fileToken; // Gettone dei caricamenti della connessione corrente, annunciato dal server.
+    private volatile long heartbeatNanos; // Silenzio dopo cui il client invia un ping, annunciato dal server (0 senza heartbeat).
+    private volatile long lastReceived; // Istante dell'ultimo frame ricevuto dal server.
+    private final TimerWheel timers = new TimerWheel("chat-heartbeat"); // Ruota del controllo del server.
+    private final TimerWheel.Timeout heartbeatCheck = new TimerWheel.Timeout() { // Controllo del silenzio del server, riprogrammato a ogni scadenza.
+        @Override
+        protected void expire() {
+            checkServer();  // Invia un ping o chiude la connessione.
+        }
+    };
+    private final Inflater inflater = new Inflater(true); // Contesto di decompressione riutilizzato per tutti i messaggi compressi.
+    private long lastSequence = -1; // Ultimo numero di sequenza visto dal server, conservato tra le riconnessioni (-1 prima della prima connessione a frame).
+    private long replaySince; // Estremo escluso dei messaggi ripetuti dal server dopo la riconnessione.
+    private long replayHead; // Estremo incluso dei messaggi ripetuti dal server dopo la riconnessione.
+    private long replayBase; // Primo numero di sequenza ricevuto nell'intervallo ripetuto (-1 finché non arriva).
+    private BitSet replayed; // Messaggi già ricevuti nell'intervallo ripetuto (null senza ripetizione).
+    private static final int HANDSHAKE_TIMEOUT = 2000; // Millisecondi di attesa della risposta al saluto prima di ripiegare sul protocollo a righe.
+    private static final int SEND_QUEUE = Integer.getInteger("chat.client.queue", 256); // Messaggi in attesa di invio oltre i quali la connessione è considerata bloccata.
+    private static final String FILE_LINE = "File condiviso: "; // Prefisso delle righe della chat che annunciano un file, scaricabile con un doppio clic.
+    private static final int MISSED_HEARTBEATS = 3; // Intervalli di silenzio del server dopo cui la connessione è considerata morta.
+    private static final String PING = new String("ping"); // Segnaposto accodato al thread di invio per un frame di ping: confrontato per identità, mai uguale a un messaggio digitato.
+    private static final String PONG = new String("pong"); // Segnaposto per un frame di risposta a un ping del server.
 
     public ClientGUI() {  // Costruttore della classe.
         super("Client Chat");  // Titolo della finestra del client.
@@ -21,6 +72,7 @@ public class ClientGUI extends JFrame {  // Definisce la classe ClientGUI che es
         setSize(800, 600);  // Imposta le dimensioni della finestra.
         setLocationRelativeTo(null);  // Centra la finestra sullo schermo.
         initializeComponents();  // Chiama il metodo per inizializzare i componenti dell'interfaccia.
+        new Timer(LogRing.REFRESH_MILLIS, this::refresh).start();  // Aggiorna la chat a intervalli fissi, indipendentemente dal traffico.
         setVisible(true);  // Rende la finestra visibile.
     }
 
@@ -29,11 +81,26 @@ public class ClientGUI extends JFrame {  // Definisce la classe ClientGUI che es
         textArea.setEditable(false);  // Impedisce la modifica dell'area di testo.
         JScrollPane scrollPane1 = new JScrollPane(textArea);  // Aggiunge lo scorrimento all'area di testo.
 
-        chatArea = new JTextArea();  // Crea un'area di testo per la chatArea.
-        chatArea.setEditable(false);  // Impedisce la modifica dell'area di testo.
-        JScrollPane scrollPane2 = new JScrollPane(chatArea);  // Aggiunge lo scorrimento all'area di testo.
+        chatList = new JList<String>(history) {  // Crea la lista della chat sulla cronologia limitata.
+            @Override
+            public String getToolTipText(MouseEvent event) {  // Mostra la riga completa sotto il mouse.
+                int index = locationToIndex(event.getPoint());  // Riga sotto il mouse.
+                return index >= 0 ? getModel().getElementAt(index) : null;
+            }
+        };
+        chatList.setPrototypeCellValue("Server: ");  // Altezza fissa delle righe: la lista non misura ogni riga.
+        chatList.setFixedCellWidth(1);  // Segue la larghezza della finestra: le righe lunghe sono troncate, il testo completo è nel tooltip.
+        ToolTipManager.sharedInstance().registerComponent(chatList);  // Abilita i tooltip della lista.
+        chatList.addMouseListener(new MouseAdapter() {  // Doppio clic su un file condiviso: lo scarica.
+            @Override
+            public void mouseClicked(MouseEvent event) {
+                int index = chatList.locationToIndex(event.getPoint());  // Riga sotto il mouse.
+                if (event.getClickCount() == 2 && index >= 0) downloadFile(history.getElementAt(index));  // Ignora le righe che non sono file.
+            }
+        });
+        chatScroll = new JScrollPane(chatList);  // Aggiunge lo scorrimento alla lista.
 
-        JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, scrollPane1, scrollPane2);  // Divide la finestra in due aree scorrevoli.
+        JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, scrollPane1, chatScroll);  // Divide la finestra in due aree scorrevoli.
         splitPane.setDividerLocation(250); // Imposta la posizione del divisore tra le due aree.
         add(splitPane, BorderLayout.CENTER);  // Aggiunge il pannello diviso al centro della finestra.
 
@@ -43,18 +110,38 @@ public class ClientGUI extends JFrame {  // Definisce la classe ClientGUI che es
         toggleConnectionButton = new JButton("Connect");  // Crea un pulsante per connettersi.
         toggleConnectionButton.addActionListener(this::toggleConnection);  // Associa l'azione di connessione/disconnessione al pulsante.
 
-        cryptoOptions = new JComboBox<>(new String[]{  // Crea un menu a tendina con le opzioni di cifratura.
-            "Plain Text", "Caesar Encrypt", "Caesar Decrypt", "Vigenère Encrypt", "Vigenère Decrypt"
-        });
+        shareButton = new JButton("Invia file");  // Crea un pulsante per condividere un file.
+        shareButton.addActionListener(this::shareFile);  // Associa l'azione di condivisione al pulsante.
+
+        cryptoOptions = new JComboBox<>(CipherEngine.OPTIONS);  // Crea un menu a tendina con le opzioni di cifratura condivise con il server.
         cryptoOptions.addActionListener(this::updateCryptoOptions);  // Associa l'azione di aggiornamento delle opzioni al menu a tendina.
 
         keyField = new JTextField(); // Crea un campo di testo per la chiave.
         keyField.setVisible(true); // Rende il campo chiave sempre visibile.
+        keyField.getDocument().addDocumentListener(new DocumentListener() {  // Aggiorna la chiave letta dal thread di ricezione.
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                cryptoKey = keyField.getText();  // Caratteri aggiunti.
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                cryptoKey = keyField.getText();  // Caratteri rimossi.
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                cryptoKey = keyField.getText();  // Attributi cambiati (mai per un campo di testo semplice).
+            }
+        });
 
         JPanel bottomPanel = new JPanel(new BorderLayout());  // Crea un pannello in basso per gli elementi di controllo.
         bottomPanel.add(cryptoOptions, BorderLayout.WEST);  // Aggiunge il menu a tendina a ovest.
         bottomPanel.add(chatInput, BorderLayout.CENTER);  // Aggiunge il campo di input della chat al centro.
-        bottomPanel.add(toggleConnectionButton, BorderLayout.EAST);  // Aggiunge il pulsante di connessione a est.
+        JPanel buttons = new JPanel(new GridLayout(1, 2));  // Pulsanti affiancati.
+        buttons.add(shareButton);  // Pulsante di condivisione.
+        buttons.add(toggleConnectionButton);  // Pulsante di connessione.
+        bottomPanel.add(buttons, BorderLayout.EAST);  // Aggiunge i pulsanti a est.
         bottomPanel.add(keyField, BorderLayout.NORTH);  // Aggiunge il campo chiave a nord.
 
         add(bottomPanel, BorderLayout.SOUTH);  // Aggiunge il pannello inferiore al sud della finestra.
@@ -62,6 +149,7 @@ public class ClientGUI extends JFrame {  // Definisce la classe ClientGUI che es
 
     private void updateCryptoOptions(ActionEvent event) {  // Metodo per aggiornare le opzioni di cifratura.
         String selected = (String) cryptoOptions.getSelectedItem();  // Ottiene l'opzione selezionata dal menu a tendina.
+        cryptoOption = selected;  // Letta dal thread di ricezione.
         boolean isKeyNeeded = selected.endsWith("Encrypt") || selected.endsWith("Decrypt");  // Determina se è necessaria una chiave.
         keyField.setVisible(isKeyNeeded); // Mostra il campo chiave solo se necessario.
         revalidate(); // Aggiorna il layout per mostrare/nascondere il campo chiave.
@@ -69,73 +157,260 @@ public class ClientGUI extends JFrame {  // Definisce la classe ClientGUI che es
 
     private void toggleConnection(ActionEvent event) {  // Metodo per attivare/disattivare la connessione.
         if (socket == null || socket.isClosed()) {  // Se il socket è chiuso o non esiste, tenta di connettere.
-            connectToServer("localhost", 12345);  // Chiama il metodo per connettersi al server.
+            connectToServer("localhost", ChatProtocol.PORT);  // Chiama il metodo per connettersi al server.
             toggleConnectionButton.setText("Disconnect");  // Cambia il testo del pulsante in "Disconnetti".
         } else {
-            disconnect();  // Chiama il metodo per disconnettersi.
+            disconnect(socket);  // Chiama il metodo per disconnettersi.
             toggleConnectionButton.setText("Connect");  // Cambia il testo del pulsante in "Connetti".
         }
     }
 
     private void connectToServer(String serverAddress, int port) {  // Metodo per connettersi al server.
         new Thread(() -> {  // Crea un nuovo thread per la connessione.
+            Socket mine = null;  // Connessione di questo thread: la pulizia finale non deve toccare quella di una riconnessione.
             try {
-                socket = new Socket(serverAddress, port);  // Crea un socket per connettersi al server.
-                out = new PrintWriter(socket.getOutputStream(), true);  // Crea uno strumento di output per inviare messaggi.
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));  // Crea uno strumento di input per ricevere messaggi.
+                mine = new Socket(serverAddress, port);  // Crea un socket per connettersi al server.
+                socket = mine;  // Connessione corrente.
+                mine.setTcpNoDelay(true);  // Disabilita Nagle: ogni messaggio è già un'unica scrittura.
+                List<String> early = negotiate();  // Propone il protocollo a frame, con ripiego sulle righe.
+                startSender();  // Le scritture sul socket non passano più dal thread dell'interfaccia.
+                String protocol = frameOut == null ? "righe" : session != null ? "frame, cifratura AES-GCM" : deflate ? "frame, compressione" : "frame";  // Protocollo in uso.
                 SwingUtilities.invokeLater(() -> {
-                    textArea.append("Connesso al server: " + serverAddress + ":" + port + "\n"); // Mostra la connessione nel text area.
+                    textArea.append("Connesso al server: " + serverAddress + ":" + port + " (protocollo a " + protocol + ")\n"); // Mostra la connessione nel text area.
                     toggleConnectionButton.setText("Disconnettiti");  // Cambia il testo del pulsante in "Disconnetti".
                 });
-                receiveMessages(); // Chiama il metodo per ricevere i messaggi dal server.
+                if (!early.isEmpty()) showReceived(early);  // Mostra i messaggi arrivati durante la negoziazione.
+                receiveMessages(mine); // Chiama il metodo per ricevere i messaggi dal server.
             } catch (IOException e) {  // Gestisce le eccezioni di input/output.
                 SwingUtilities.invokeLater(() -> textArea.append("Impossibile connettersi al server: " + e.getMessage() + "\n"));  // Mostra l'errore di connessione.
-                cleanupResources(); // Pulisce le risorse in caso di errore.
+                cleanupResources(mine); // Pulisce le risorse in caso di errore.
             }
         }).start();  // Avvia il thread.
     }
 
-    private void disconnect() {  // Metodo per disconnettersi dal server.
-        if (socket != null && !socket.isClosed()) {  // Se il socket è attivo, tenta di disconnettersi.
+    private List<String> negotiate() throws IOException {  // Metodo per negoziare il protocollo a frame, con ripiego sulle righe per i server legacy; restituisce i messaggi ricevuti nel frattempo.
+        InputStream input = new BufferedInputStream(socket.getInputStream());  // Buffer condiviso dalla risposta al saluto e dai messaggi successivi.
+        OutputStream output = socket.getOutputStream();  // Flusso di uscita del socket.
+        List<String> features = new ArrayList<>(Collections.singletonList(ChatProtocol.FEATURE_FRAMED));  // Funzionalità richieste.
+        if (Compression.ENABLED) features.add(ChatProtocol.FEATURE_DEFLATE);  // Compressione dei messaggi lunghi.
+        features.add(ChatProtocol.FEATURE_HEARTBEAT);  // Risponde ai ping del server.
+        if (lastSequence >= 0) features.add(ChatProtocol.PARAM_SINCE + "=" + lastSequence);  // Riconnessione: chiede i messaggi persi.
+        SessionCipher.Handshake handshake = null;  // Chiavi effimere per la cifratura di sessione.
+        if (SessionCipher.ENABLED) {  // Propone la cifratura di sessione.
             try {
-                if (out != null) {
-                    out.close();  // Chiude il flusso di output.
+                handshake = new SessionCipher.Handshake();  // Nuova coppia di chiavi per ogni connessione.
+                features.add(ChatProtocol.PARAM_SECURE + "=" + handshake.publicKey());  // Chiave pubblica del client.
+            } catch (GeneralSecurityException e) {  // Piattaforma senza X25519: frame in chiaro.
+                handshake = null;
+            }
+        }
+        output.write((ChatProtocol.hello(features) + "\n").getBytes());  // Invia il saluto come riga.
+        output.flush();  // Lo invia subito.
+        deflate = false;  // Nessuna compressione finché il server non la accetta.
+        replayed = null;  // Nessuna ripetizione finché il server non la accetta.
+        session = null;  // Nessuna cifratura finché il server non la accetta.
+        filePort = 0;  // Nessuna condivisione di file finché il server non la annuncia.
+        fileToken = null;  // Nessun caricamento senza gettone.
+        heartbeatNanos = 0;  // Nessun ping finché il server non li accetta.
+        List<String> early = new ArrayList<>();  // Broadcast arrivati come righe prima della risposta.
+        ByteArrayOutputStream line = new ByteArrayOutputStream();  // Riga in ricezione.
+        long deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT;  // Un server legacy non risponde mai al saluto.
+        boolean accepted = false;  // True se il server ha accettato i frame.
+        try {
+            for (long wait; (wait = deadline - System.currentTimeMillis()) > 0; ) {  // Legge righe fino alla risposta o alla scadenza.
+                socket.setSoTimeout((int) wait);  // Attende al più fino alla scadenza.
+                int b = input.read();  // Legge byte per byte, senza consumare i frame successivi alla risposta.
+                if (b == -1) throw new EOFException("Connessione chiusa dal server");  // Il server ha chiuso la connessione.
+                if (b != '\n') {  // Riga non ancora completa.
+                    line.write(b);  // Accumula il byte.
+                    continue;
                 }
-                socket.close();  // Chiude il socket.
-                SwingUtilities.invokeLater(() -> {
-                    textArea.append("Disconnesso.\n");  // Aggiorna l'area di testo per mostrare lo stato di disconnessione.
-                    toggleConnectionButton.setText("Connetti");  // Cambia il testo del pulsante in "Connetti".
-                });
-            } catch (IOException e) {  // Gestisce le eccezioni di input/output.
-                SwingUtilities.invokeLater(() -> textArea.append("Errore di disconnessione: " + e.getMessage() + "\n"));  // Mostra l'errore di disconnessione.
-            } finally {
-                cleanupResources();  // Chiama il metodo per pulire le risorse.
+                String text = line.toString();  // Decodifica con la codifica di piattaforma, come BufferedReader.
+                line.reset();  // Azzera la riga.
+                if (text.endsWith("\r")) text = text.substring(0, text.length() - 1);  // Ignora il ritorno a capo di Windows.
+                if (ChatProtocol.isAck(text)) {  // Risposta al saluto.
+                    accepted = ChatProtocol.features(text).contains(ChatProtocol.FEATURE_FRAMED);  // Il server può accettare o rifiutare i frame.
+                    deflate = accepted && ChatProtocol.features(text).contains(ChatProtocol.FEATURE_DEFLATE);  // E la compressione.
+                    long head = ChatProtocol.value(ChatProtocol.features(text), ChatProtocol.PARAM_HEAD);  // Ultimo messaggio registrato dal server, o -1.
+                    if (accepted && ChatProtocol.features(text).contains(ChatProtocol.FEATURE_REPLAY) && head > lastSequence) {  // Il server ripete i messaggi persi.
+                        replaySince = lastSequence;  // Estremo escluso.
+                        replayHead = head;  // Estremo incluso.
+                        replayBase = -1;  // Nessun messaggio ripetuto ancora ricevuto.
+                        replayed = new BitSet();  // Messaggi ricevuti nell'intervallo.
+                        early.clear();  // Le righe arrivate prima della risposta sono comprese nella ripetizione.
+                    }
+                    if (accepted && head >= 0 && (lastSequence < 0 || head < lastSequence)) lastSequence = head;  // Prima connessione, o giornale del server azzerato.
+                    if (accepted) filePort = (int) Math.max(0, ChatProtocol.value(ChatProtocol.features(text), ChatProtocol.PARAM_FILES));  // Porta dei file, se annunciata.
+                    if (accepted) fileToken = ChatProtocol.text(ChatProtocol.features(text), ChatProtocol.PARAM_FILE_TOKEN);  // Gettone dei caricamenti.
+                    if (accepted) heartbeatNanos = Math.max(0, ChatProtocol.value(ChatProtocol.features(text), ChatProtocol.FEATURE_HEARTBEAT)) * 1_000_000_000L;  // Intervallo dei ping, se accettati.
+                    String serverKey = ChatProtocol.text(ChatProtocol.features(text), ChatProtocol.PARAM_SECURE);  // Chiave pubblica del server, se ha accettato la cifratura.
+                    if (accepted && handshake != null && serverKey != null) {  // Cifratura di sessione accettata.
+                        try {
+                            session = handshake.complete(serverKey, true);  // Chiavi di sessione.
+                        } catch (GeneralSecurityException e) {  // Chiave del server non valida: i frame successivi non sarebbero leggibili.
+                            throw new IOException("Negoziazione della cifratura non riuscita: " + e.getMessage(), e);
+                        }
+                    }
+                    break;
+                }
+                early.add(text);  // Broadcast inviato prima che il server leggesse il saluto.
             }
+        } catch (SocketTimeoutException e) {  // Nessuna risposta: server legacy.
+        } finally {
+            socket.setSoTimeout(0);  // Torna alle letture senza limite di tempo.
         }
+        if (accepted) {  // Il server ha accettato i frame.
+            frameIn = new DataInputStream(input);  // Riceve i frame dal buffer condiviso.
+            frameOut = new DataOutputStream(new BufferedOutputStream(output));  // Ogni frame è scritto con un solo flush.
+            return early;
+        }
+        if (line.size() > 0) input = new SequenceInputStream(new ByteArrayInputStream(line.toByteArray()), input);  // Conserva la riga interrotta dalla scadenza.
+        out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(output)));  // Crea uno strumento di output per inviare messaggi, svuotato a ogni gruppo.
+        in = new BufferedReader(new InputStreamReader(input));  // Crea uno strumento di input per ricevere messaggi.
+        return early;
+    }
+
+    private void disconnect(Socket connection) {  // Metodo per disconnettersi dal server, se la connessione indicata è ancora quella corrente.
+        if (!cleanupResources(connection)) return;  // Già disconnesso, o sostituita da una riconnessione. Un socket chiuso dal controllo del server va comunque ripulito.
+        SwingUtilities.invokeLater(() -> {
+            textArea.append("Disconnesso (" + Compression.summary() + ").\n");  // Aggiorna l'area di testo per mostrare lo stato di disconnessione e i contatori di compressione.
+            toggleConnectionButton.setText("Connetti");  // Cambia il testo del pulsante in "Connetti".
+        });
     }
 
     private void sendChatMessage(ActionEvent event) {  // Metodo per inviare messaggi di chat.
         String message = chatInput.getText();  // Prende il testo dal campo di input della chat.
+        if (message.startsWith(ChatProtocol.COMMAND_SHARE + " ") || message.startsWith(ChatProtocol.COMMAND_SEARCH + " ")) {  // Annuncio di un file già caricato o ricerca: viaggiano in chiaro.
+            if (send(message.trim())) chatInput.setText("");  // Il server ignora gli identificativi sconosciuti e risponde alle ricerche solo a questo client.
+            return;
+        }
+        if (ChatProtocol.isCommand(message)) {  // Comando di stanza: viaggia in chiaro, senza cifratura.
+            String room = message.equals(ChatProtocol.COMMAND_LEAVE) ? RoomRegistry.LOBBY : RoomRegistry.normalize(message.substring(ChatProtocol.COMMAND_JOIN.length()));  // Stanza di destinazione.
+            if (room == null) {  // Il server ignorerebbe il comando.
+                textArea.append("Nome di stanza non valido (lettere, cifre, '-' e '_', al massimo " + RoomRegistry.MAX_NAME + " caratteri)\n");  // Mostra l'errore nel log.
+                return;
+            }
+            if (!send(ChatProtocol.COMMAND_JOIN + " " + room)) return;  // Invia il comando in forma canonica.
+            textArea.append("Stanza: " + room + "\n");  // Mostra la stanza corrente nel log.
+            chatInput.setText("");  // Pulisce il campo di input della chat.
+            return;
+        }
         if (!message.isEmpty()) {  // Controlla se il messaggio non è vuoto.
             String selectedCrypto = (String) cryptoOptions.getSelectedItem();  // Prende l'opzione di cifratura selezionata.
             String key = keyField.getText();  // Prende la chiave dal campo chiave.
-            if (keyRequired(selectedCrypto) && key.isEmpty()) {  // Controlla se la chiave è necessaria e se è vuota.
+            if (CipherEngine.keyRequired(selectedCrypto) && key.isEmpty()) {  // Controlla se la chiave è necessaria e se è vuota.
                 JOptionPane.showMessageDialog(this, "Key is required for " + selectedCrypto, "Key Error", JOptionPane.ERROR_MESSAGE);  // Mostra un messaggio di errore se la chiave è necessaria ma non è stata inserita.
                 return;  // Termina il metodo se non c'è la chiave necessaria.
             }
             String encryptedMessage = applyCrypto(message, selectedCrypto, key);  // Applica la cifratura al messaggio.
-            out.println(encryptedMessage);  // Invia il messaggio cifrato al server.
-            chatArea.append("Tu: " + encryptedMessage + "\n");  // Aggiunge il messaggio cifrato alla chat area.
+            if (!send(encryptedMessage)) return;  // Accoda il messaggio cifrato per il server.
+            incoming.append("Tu: " + encryptedMessage);  // Aggiunge il messaggio cifrato alla chat.
             chatInput.setText("");  // Pulisce il campo di input della chat dopo l'invio.
         }
     }
 
-    private void receiveMessages() {  // Metodo per ricevere messaggi dal server.
+    private boolean send(String text) {  // Metodo per accodare un testo al thread di invio; restituisce false se la connessione è chiusa o bloccata.
+        OutboundQueue<String> queue = outgoing;  // Coda della connessione corrente.
+        if (queue != null && queue.offer(text)) return true;  // Il thread di invio lo scriverà.
+        textArea.append("Messaggio non inviato: connessione chiusa o bloccata\n");  // Mostra l'errore nel log.
+        return false;
+    }
+
+    private void startSender() {  // Metodo per avviare il thread che scrive sul socket i messaggi accodati dall'interfaccia.
+        OutboundQueue<String> queue = new OutboundQueue<>(SEND_QUEUE, OutboundQueue.OverflowPolicy.DISCONNECT, null);  // Piena solo se il server non legge più.
+        PrintWriter lines = out;  // Flussi della connessione appena negoziata.
+        DataOutputStream frames = frameOut;
+        boolean compress = deflate;
+        SessionCipher sealer = session;
+        outgoing = queue;  // Da qui l'interfaccia può accodare.
+        Thread sender = new Thread(() -> sendLoop(queue, lines, frames, compress, sealer), "chat-sender");  // Un thread per connessione.
+        sender.setDaemon(true);  // Non impedisce l'uscita.
+        sender.start();
+        lastReceived = System.nanoTime();  // Il silenzio si conta dalla risposta al saluto.
+        if (heartbeatNanos > 0) timers.schedule(heartbeatCheck, heartbeatNanos);  // Primo controllo del server.
+        else timers.cancel(heartbeatCheck);  // Server senza heartbeat.
+    }
+
+    private void checkServer() {  // Metodo della ruota: invia un ping dopo un intervallo di silenzio del server, e chiude la connessione dopo MISSED_HEARTBEATS intervalli.
+        long interval = heartbeatNanos;  // Intervallo della connessione corrente.
+        OutboundQueue<String> queue = outgoing;  // Coda della connessione corrente.
+        Socket current = socket;  // Socket della connessione corrente.
+        if (interval <= 0 || queue == null || current == null) return;  // Disconnesso nel frattempo.
+        long silent = System.nanoTime() - lastReceived;  // Silenzio attuale del server.
+        if (silent >= interval * MISSED_HEARTBEATS) {  // Server irraggiungibile o connessione mezza aperta.
+            long seconds = silent / 1_000_000_000L;  // Secondi di silenzio.
+            SwingUtilities.invokeLater(() -> textArea.append("Il server non risponde da " + seconds + " secondi: connessione chiusa\n"));  // Mostra la chiusura nel log.
+            queue.close();  // Ferma il thread di invio.
+            try {
+                current.close();  // Sblocca il thread di ricezione, che completa la disconnessione con cleanupResources.
+            } catch (IOException ignored) {  // Socket già chiuso.
+            }
+            return;
+        }
+        if (silent >= interval) queue.offer(PING);  // Il pong, o qualunque altro frame, azzera il silenzio.
+        timers.schedule(heartbeatCheck, silent >= interval ? interval : interval - silent);  // Prossimo controllo.
+    }
+
+    private void sendLoop(OutboundQueue<String> queue, PrintWriter lines, DataOutputStream frames, boolean compress, SessionCipher sealer) {  // Metodo del thread di invio: scrive i messaggi a gruppi, con un flush per gruppo.
+        try {
+            String text;
+            while ((text = queue.take()) != null) {  // Attende il prossimo messaggio (null alla disconnessione).
+                do {
+                    if (text == PING || text == PONG) {  // Frame di controllo senza payload (solo con il protocollo a frame).
+                        byte type = text == PING ? ChatProtocol.TYPE_PING : ChatProtocol.TYPE_PONG;  // Tipo del frame.
+                        byte[] payload = sealer != null ? sealer.seal(type, ChatProtocol.UNSEQUENCED, new byte[0]) : new byte[0];  // Sessione cifrata: solo il tag.
+                        ChatProtocol.writeFrame(frames, type, ChatProtocol.UNSEQUENCED, payload);  // Non consuma numeri di sequenza.
+                    } else if (frames != null) {  // Protocollo a frame: il messaggio può contenere anche a capo.
+                        byte[] payload = text.getBytes(StandardCharsets.UTF_8);  // Messaggio in UTF-8.
+                        byte[] compressed = compress ? Compression.deflate(payload) : null;  // Compresso solo se lungo e se si riduce.
+                        byte type = compressed != null ? ChatProtocol.TYPE_MESSAGE_DEFLATE : ChatProtocol.TYPE_MESSAGE;  // Tipo del frame.
+                        if (compressed != null) payload = compressed;  // Invia il messaggio compresso.
+                        if (payload.length > ChatProtocol.MAX_PAYLOAD) {  // Il server chiuderebbe la connessione: il messaggio non viene inviato.
+                            int length = payload.length;  // Byte del messaggio, per il log.
+                            SwingUtilities.invokeLater(() -> textArea.append("Messaggio troppo lungo (" + length + " byte, massimo " + ChatProtocol.MAX_PAYLOAD + "): non inviato\n"));  // Mostra lo scarto.
+                            continue;  // Non consuma numeri di sequenza.
+                        }
+                        long seq = ++sentSequence;  // Numero di sequenza del frame.
+                        if (sealer != null) payload = sealer.seal(type, seq, payload);  // Sessione cifrata: cifra e autentica il payload.
+                        ChatProtocol.writeFrame(frames, type, seq, payload);  // Invia il messaggio al server.
+                    } else {
+                        lines.println(text);  // Invia il messaggio al server.
+                    }
+                } while ((text = queue.poll()) != null);  // Raggruppa i messaggi già in coda.
+                if (frames != null) frames.flush();  // Un solo flush per gruppo.
+                else if (lines.checkError()) throw new IOException("Scrittura non riuscita");  // PrintWriter non lancia eccezioni.
+            }
+        } catch (IOException e) {  // Gestisce le eccezioni di input/output.
+            queue.close();  // I prossimi messaggi vengono rifiutati; la lettura rileverà la disconnessione.
+            SwingUtilities.invokeLater(() -> textArea.append("Errore di invio: " + e.getMessage() + "\n"));  // Mostra l'errore di invio.
+        } catch (InterruptedException e) {  // Interruzione del thread.
+            Thread.currentThread().interrupt();  // Conserva lo stato di interruzione.
+        }
+    }
+
+    private void receiveMessages(Socket connection) {  // Metodo per ricevere messaggi dal server sulla connessione indicata.
         try {
+            if (frameIn != null) {  // Protocollo a frame.
+                while (true) {
+                    ChatProtocol.Frame frame = ChatProtocol.readFrame(frameIn);  // Attende il prossimo frame.
+                    ByteBuffer payload = ByteBuffer.wrap(frame.payload);  // Payload ricevuto.
+                    lastReceived = System.nanoTime();  // Il server è vivo.
+                    if (session != null) payload = session.open(frame.type, frame.seq, payload);  // Sessione cifrata: verifica e decifra ogni frame, anche i duplicati, per restare allineati sul nonce.
+                    if (frame.type == ChatProtocol.TYPE_PING) {  // Il server controlla che il client sia vivo.
+                        OutboundQueue<String> queue = outgoing;  // Coda della connessione corrente.
+                        if (queue != null) queue.offer(PONG);  // Risposta dal thread di invio.
+                        continue;
+                    }
+                    if (frame.type == ChatProtocol.TYPE_PONG) continue;  // Risposta a un ping: basta l'attività.
+                    if (isDuplicate(frame.seq)) continue;  // Messaggio già ricevuto durante la ripetizione.
+                    lastSequence = Math.max(lastSequence, frame.seq);  // Punto di ripresa per la prossima riconnessione.
+                    if (frame.type == ChatProtocol.TYPE_MESSAGE) show(StandardCharsets.UTF_8.decode(payload).toString());  // Messaggio di chat.
+                    else if (frame.type == ChatProtocol.TYPE_MESSAGE_DEFLATE) show(Compression.inflate(inflater, payload));  // Messaggio compresso.
+                }
+            }
             String line;
             while ((line = in.readLine()) != null) {  // Legge i messaggi in arrivo finché la connessione è attiva.
-                String finalMessage = applyDecryptionIfNeeded(line);  // Decifra il messaggio se necessario.
-                SwingUtilities.invokeLater(() -> chatArea.append("Server: " + finalMessage + "\n"));  // Mostra il messaggio nella chat area.
+                show(line);  // Mostra la riga.
             }
         } catch (IOException e) {
             SwingUtilities.invokeLater(() -> {
@@ -143,116 +418,144 @@ public class ClientGUI extends JFrame {  // Definisce la classe ClientGUI che es
                 toggleConnectionButton.setText("Connetti");  // Cambia il testo del bottone in "Connect" dopo la disconnessione.
             });
         } finally {
-            disconnect();  // Pulisce le risorse quando il ciclo while termina.
+            disconnect(connection);  // Pulisce le risorse quando il ciclo while termina, salvo riconnessione nel frattempo.
         }
     }
-    
-    private String applyDecryptionIfNeeded(String message) {  // Metodo per applicare la decifratura se necessario.
-        if (shouldDecrypt()) {  // Controlla se è necessario decifrare.
-            return applyCrypto(message, (String) cryptoOptions.getSelectedItem(), keyField.getText());  // Applica la decifratura.
+
+    private boolean isDuplicate(long seq) {  // Metodo per scartare i messaggi inoltrati sia dalla ripetizione sia in diretta durante la riconnessione.
+        if (replayed == null || seq <= replaySince || seq > replayHead) return false;  // Fuori dall'intervallo ripetuto.
+        if (replayBase < 0) replayBase = seq;  // La ripetizione arriva per prima e in ordine crescente.
+        if (seq < replayBase) return false;  // Messaggio escluso dal limite di ripetizione: arriva una volta sola.
+        int bit = (int) (seq - replayBase);  // Posizione nell'insieme.
+        if (replayed.get(bit)) return true;  // Seconda copia.
+        replayed.set(bit);  // Prima copia.
+        return false;
+    }
+
+    private void showReceived(List<String> messages) {  // Metodo per mostrare un gruppo di messaggi.
+        for (String message : messages) show(message);  // Un messaggio alla volta.
+    }
+
+    private void show(String message) {  // Metodo per decifrare un messaggio e accodarlo al prossimo aggiornamento della chat.
+        String[] file = FileShare.parseNotice(message);  // Identificativo, byte e nome, se è l'avviso di un file.
+        if (file != null) {  // Gli avvisi non sono cifrati dall'opzione selezionata.
+            incoming.append(FILE_LINE + file[2] + " (" + file[1] + " byte) #" + file[0]);  // Identificativo in coda: il nome può contenere spazi.
+            return;
+        }
+        String[] result = SearchIndex.parseResult(message);  // Numero di sequenza e testo, se è un risultato di ricerca.
+        if (result != null) {  // Il testo è registrato come gli altri messaggi: si decifra allo stesso modo.
+            incoming.append(result[0].equals("0") ? "Ricerca \"" + result[1] + "\": nessun risultato" : "Trovato #" + result[0] + ": " + applyDecryptionIfNeeded(result[1]));
+            return;
         }
-        return message;  // Restituisce il messaggio se non è necessaria la decifratura.
+        incoming.append("Server: " + applyDecryptionIfNeeded(message));  // Non tocca i componenti Swing.
     }
-    
-    private boolean shouldDecrypt() {  // Metodo per controllare se è necessario decifrare.
-        String option = (String) cryptoOptions.getSelectedItem();  // Prende l'opzione di cifratura selezionata.
-        return option != null && option.endsWith("Decrypt");  // Restituisce vero se l'opzione termina con "Decrypt".
+
+    private InetSocketAddress fileAddress() {  // Metodo per ottenere l'indirizzo dei trasferimenti di file, o null se non disponibile.
+        Socket current = socket;  // Connessione corrente.
+        InetAddress host = current != null ? current.getInetAddress() : null;  // Stesso host della chat.
+        int port = filePort;  // Porta annunciata dal server.
+        if (host == null || current.isClosed() || port <= 0) return null;  // Disconnesso, o server senza condivisione.
+        return new InetSocketAddress(host, port);
     }
-    
-    private void cleanupResources() {  // Metodo per pulire le risorse.
-        try {
-            if (in != null) {
-                in.close();  // Chiude il flusso di input.
-                in = null;  // Imposta il flusso di input a null.
-            }
-            if (out != null) {
-                out.close();  // Chiude il flusso di output.
-                out = null;  // Imposta il flusso di output a null.
-            }
-            if (socket != null) {
-                socket.close();  // Chiude il socket.
-                socket = null;  // Imposta il socket a null.
+
+    private void shareFile(ActionEvent event) {  // Metodo per caricare un file sul server e annunciarlo nella stanza.
+        InetSocketAddress address = fileAddress();  // Porta dei trasferimenti.
+        String token = fileToken;  // Gettone della connessione corrente.
+        if (address == null || token == null) {
+            textArea.append("Condivisione di file non disponibile: connettiti a un server che la supporta\n");  // Mostra l'errore nel log.
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();  // Finestra di scelta del file.
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;  // Scelta annullata.
+        File selected = chooser.getSelectedFile();  // File da inviare.
+        textArea.append("Invio di " + selected.getName() + " (" + selected.length() + " byte)...\n");  // Mostra l'inizio dell'invio.
+        new Thread(() -> {  // Il trasferimento non blocca l'interfaccia né la chat.
+            try {
+                String id = FileShare.upload(address, token, selected.toPath());  // Il server scrive il file una sola volta.
+                SwingUtilities.invokeLater(() -> {
+                    if (send(ChatProtocol.COMMAND_SHARE + " " + id)) textArea.append("File inviato: " + selected.getName() + "\n");  // Annuncia il file nella stanza.
+                });
+            } catch (IOException e) {  // Gestisce le eccezioni di input/output.
+                SwingUtilities.invokeLater(() -> textArea.append("Invio del file non riuscito: " + e.getMessage() + "\n"));  // Mostra l'errore di invio.
             }
-        } catch (IOException e) {  // Gestisce le eccezioni di input/output.
-            SwingUtilities.invokeLater(() -> textArea.append("Error cleaning up resources: " + e.getMessage() + "\n"));  // Mostra l'errore di pulizia delle risorse.
+        }, "chat-upload").start();  // Avvia il thread.
+    }
+
+    private void downloadFile(String line) {  // Metodo per scaricare il file annunciato da una riga della chat.
+        int hash = line.lastIndexOf(" #");  // Inizio dell'identificativo.
+        int size = line.lastIndexOf(" (", hash);  // Inizio della dimensione.
+        if (!line.startsWith(FILE_LINE) || hash < 0 || size < FILE_LINE.length()) return;  // Riga di chat.
+        String id = line.substring(hash + 2);  // Identificativo del file.
+        InetSocketAddress address = fileAddress();  // Porta dei trasferimenti.
+        if (address == null) {
+            textArea.append("Connettiti al server per scaricare il file\n");  // Mostra l'errore nel log.
+            return;
         }
+        JFileChooser chooser = new JFileChooser();  // Finestra di scelta della destinazione.
+        chooser.setSelectedFile(new File(line.substring(FILE_LINE.length(), size)));  // Propone il nome originale.
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;  // Scelta annullata.
+        File target = chooser.getSelectedFile();  // File di destinazione.
+        new Thread(() -> {  // Il trasferimento non blocca l'interfaccia né la chat.
+            try {
+                long bytes = FileShare.download(address, id, target.toPath());  // Scrive il file senza passare dallo heap.
+                SwingUtilities.invokeLater(() -> textArea.append("File salvato: " + target + " (" + bytes + " byte)\n"));  // Mostra il salvataggio.
+            } catch (IOException e) {  // Gestisce le eccezioni di input/output.
+                SwingUtilities.invokeLater(() -> textArea.append("Scaricamento non riuscito: " + e.getMessage() + "\n"));  // Mostra l'errore di scaricamento.
+            }
+        }, "chat-download").start();  // Avvia il thread.
     }
-    
-    private boolean keyRequired(String option) {  // Metodo per determinare se una chiave è necessaria.
-        return option.contains("Caesar") || option.contains("Vigenère");  // Restituisce vero se l'opzione contiene "Caesar" o "Vigenère".
+
+    private void refresh(ActionEvent event) {  // Metodo del timer: aggiunge alla chat le righe accumulate dall'ultimo aggiornamento.
+        JScrollBar bar = chatScroll.getVerticalScrollBar();  // Barra di scorrimento della chat.
+        boolean following = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum();  // True se l'utente è in fondo alla chat.
+        incoming.drainTo(history::add);  // Sposta le righe nella cronologia.
+        if (history.publish() && following) chatList.ensureIndexIsVisible(history.getSize() - 1);  // Un solo aggiornamento della lista; segue i nuovi messaggi.
     }
 
-    private String applyCrypto(String message, String option, String key) {  // Metodo per applicare la cifratura o la decifratura.
+    private String applyDecryptionIfNeeded(String message) {  // Metodo per applicare la decifratura se necessario.
+        String option = cryptoOption;  // Opzione selezionata.
+        if (!option.endsWith("Decrypt")) return message;  // Restituisce il messaggio se non è necessaria la decifratura.
         try {
-            switch (option) {  // Seleziona l'opzione di cifratura.
-                case "Caesar Encrypt":
-                case "Caesar Decrypt":
-                    int shift = Integer.parseInt(key); // Assumi che la chiave per la cifratura di Cesare sia un intero.
-                    return option.contains("Encrypt") ? encryptCaesar(message, shift) : decryptCaesar(message, shift);  // Applica la cifratura o la decifratura di Cesare.
-                case "Vigenère Encrypt":
-                case "Vigenère Decrypt":
-                    return option.contains("Encrypt") ? encryptVigenere(message, key) : decryptVigenere(message, key);  // Applica la cifratura o la decifratura di Vigenère.
-                default:
-                    return message; // Restituisce il messaggio originale se non è applicata alcuna cifratura/decifratura.
-            }
-        } catch (NumberFormatException e) {  // Gestisce le eccezioni di formato numerico non valido.
-            JOptionPane.showMessageDialog(this, "Invalid key format for Caesar cipher. Please enter a valid number.", "Key Error", JOptionPane.ERROR_MESSAGE);  // Mostra un messaggio di errore se il formato della chiave non è valido.
-            return message; // Restituisce il messaggio originale se il formato della chiave è errato.
+            return CipherEngine.transformer(option, cryptoKey).apply(message);  // Applica la decifratura.
+        } catch (IllegalArgumentException e) {  // Chiave non valida: l'errore viene mostrato all'invio.
+            return message;  // Restituisce il messaggio originale.
         }
     }
 
-    private String encryptCaesar(String text, int shift) {  // Metodo per cifrare un testo con la cifratura di Cesare.
-        shift = shift % 26 + 26; // Normalizza il valore di shift.
-        StringBuilder encrypted = new StringBuilder();  // Crea un oggetto StringBuilder per costruire il testo cifrato.
-        for (char i : text.toCharArray()) {  // Itera su ogni carattere del testo.
-            if (Character.isLetter(i)) {  // Controlla se il carattere è una lettera.
-                if (Character.isUpperCase(i)) {  // Controlla se la lettera è maiuscola.
-                    encrypted.append((char) ('A' + (i - 'A' + shift) % 26));  // Cifra la lettera maiuscola.
-                } else {
-                    encrypted.append((char) ('a' + (i - 'a' + shift) % 26));  // Cifra la lettera minuscola.
-                }
-            } else {
-                encrypted.append(i); // Lascia inalterati i caratteri non alfabetici.
-            }
+    private boolean cleanupResources(Socket connection) {  // Metodo per chiudere la connessione indicata e, se è ancora quella corrente, pulirne le risorse; false altrimenti.
+        if (connection == null) return false;  // Connessione mai aperta.
+        boolean current;  // True se nessuna riconnessione l'ha sostituita.
+        synchronized (connectionLock) {  // Il thread di ricezione e l'interfaccia possono pulire insieme.
+            current = socket == connection;  // Le risorse di una riconnessione non vanno toccate.
+            if (current) cleanupCurrent();  // Già pulita altrimenti.
         }
-        return encrypted.toString(); // Ritorna il testo cifrato.
+        try {
+            connection.close();  // Chiude il socket, senza svuotare i flussi: un socket bloccato non blocca l'interfaccia.
+        } catch (IOException e) {  // Gestisce le eccezioni di input/output.
+            SwingUtilities.invokeLater(() -> textArea.append("Error cleaning up resources: " + e.getMessage() + "\n"));  // Mostra l'errore di pulizia delle risorse.
+        }
+        return current;
     }
 
-    private String decryptCaesar(String text, int shift) {  // Metodo per decifrare un testo con la cifratura di Cesare.
-        return encryptCaesar(text, -shift); // Utilizza la cifratura di Cesare con uno shift negativo per decifrare.
-    }
-    
-
-    private String encryptVigenere(String text, String key) {  // Metodo per cifrare un testo con la cifratura di Vigenère.
-        StringBuilder result = new StringBuilder();  // Crea un oggetto StringBuilder per costruire il testo cifrato.
-        key = key.toLowerCase();  // Converte la chiave in minuscolo.
-        int j = 0;  // Inizializza un indice per la chiave.
-        for (char c : text.toCharArray()) {  // Itera su ogni carattere del testo.
-            if (Character.isLetter(c)) {  // Controlla se il carattere è una lettera.
-                int base = (Character.isLowerCase(c) ? 'a' : 'A');  // Determina la base ASCII per lettere minuscole o maiuscole.
-                result.append((char) ((c - base + (key.charAt(j) - 'a')) % 26 + base));  // Cifra il carattere con la chiave di Vigenère.
-                j = (j + 1) % key.length();  // Aggiorna l'indice della chiave, ripetendo la chiave se necessario.
-            } else {
-                result.append(c);  // Lascia inalterati i caratteri non alfabetici.
-            }
-        }
-        return result.toString();  // Ritorna il testo cifrato.
+    private void cleanupCurrent() {  // Metodo per dimenticare le risorse della connessione corrente (con connectionLock).
+        timers.cancel(heartbeatCheck);  // Nessun controllo senza connessione.
+        OutboundQueue<String> queue = outgoing;  // Coda del thread di invio.
+        if (queue != null) queue.close();  // Ferma il thread di invio e scarta i messaggi non inviati.
+        outgoing = null;  // Nessun invio fino alla prossima connessione.
+        in = null;  // I flussi si chiudono con il socket: svuotarli qui potrebbe bloccare.
+        out = null;
+        frameIn = null;
+        frameOut = null;
+        socket = null;  // Dimentica la connessione.
     }
 
-    private String decryptVigenere(String text, String key) {  // Metodo per decifrare un testo con la cifratura di Vigenère.
-        StringBuilder result = new StringBuilder();  // Crea un oggetto StringBuilder per costruire il testo decifrato.
-        key = key.toLowerCase();  // Converte la chiave in minuscolo.
-        int j = 0;  // Inizializza un indice per la chiave.
-        for (char c : text.toCharArray()) {  // Itera su ogni carattere del testo.
-            if (Character.isLetter(c)) {  // Controlla se il carattere è una lettera.
-                int base = (Character.isLowerCase(c) ? 'a' : 'A');  // Determina la base ASCII per lettere minuscole o maiuscole.
-                result.append((char) ((c - base - (key.charAt(j) - 'a') + 26) % 26 + base));  // Decifra il carattere con la chiave di Vigenère.
-                j = (j + 1) % key.length();  // Aggiorna l'indice della chiave, ripetendo la chiave se necessario.
-            } else {
-                result.append(c);  // Lascia inalterati i caratteri non alfabetici.
-            }
+    private String applyCrypto(String message, String option, String key) {  // Metodo per applicare la cifratura o la decifratura.
+        try {
+            return CipherEngine.transformer(option, key).apply(message);  // Applica il trasformatore precompilato per l'opzione e la chiave.
+        } catch (IllegalArgumentException e) {  // Gestisce le chiavi non valide (formato numerico errato per Cesare, chiave vuota per Vigenère).
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Key Error", JOptionPane.ERROR_MESSAGE);  // Mostra un messaggio di errore se la chiave non è valida.
+            return message; // Restituisce il messaggio originale se il formato della chiave è errato.
         }
-        return result.toString();  // Ritorna il testo decifrato.
     }
 
     public static void main(String[] args) {  // Metodo principale per avviare il client.
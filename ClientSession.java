@@ -0,0 +1,296 @@
+import java.io.IOException;  // Importa l'eccezione per gli errori di input/output.
+import java.nio.ByteBuffer;  // Importa i buffer di byte.
+import java.nio.charset.Charset;  // Importa la classe per la codifica dei caratteri.
+import java.nio.charset.StandardCharsets;  // Importa le codifiche standard.
+import java.security.GeneralSecurityException;  // Importa l'eccezione generica degli algoritmi crittografici.
+import java.util.ArrayList;  // Importa la lista dinamica.
+import java.util.List;  // Importa l'interfaccia delle liste.
+import java.util.concurrent.atomic.AtomicBoolean;  // Importa un booleano atomico.
+import java.util.concurrent.atomic.AtomicInteger;  // Importa un intero atomico.
+import java.util.concurrent.locks.ReentrantLock;  // Importa il lock rientrante.
+import java.util.zip.Inflater;  // Importa il decompressore deflate.
+
+abstract class ClientSession implements ChatConnection, ProtocolDecoder.Handler {  // Stato di protocollo di una connessione lato server, comune al motore NIO e ai ClientHandler.
+    interface Listener {  // Callback per gli eventi delle sessioni.
+        void onOpen(ClientSession session);  // Chiamato quando una nuova connessione è stata accettata.
+
+        void onMessage(ClientSession session, String text);  // Chiamato per ogni messaggio ricevuto dal client.
+
+        void onClose(ClientSession session);  // Chiamato una sola volta quando la connessione viene chiusa.
+
+        default MessageJournal journal() {  // Giornale dei messaggi per la ripetizione dopo una riconnessione, o null se disabilitato.
+            return null;
+        }
+
+        default int filePort() {  // Porta dei trasferimenti di file, o 0 se la condivisione è disabilitata.
+            return 0;
+        }
+
+        default String fileToken(ClientSession session) {  // Gettone dei caricamenti per la sessione, o null se la condivisione è disabilitata.
+            return null;
+        }
+    }
+
+    static final int MAX_BATCH = 64;  // Numero massimo di messaggi scritti con una sola scrittura raggruppata.
+    static final int MAX_CONNECTIONS = Integer.getInteger("chat.max.connections", 10000);  // Connessioni aperte oltre cui il server rifiuta le nuove.
+    static final int ACCEPT_BACKLOG = Integer.getInteger("chat.accept.backlog", 128);  // Connessioni in attesa di accept nel kernel.
+    static final long MESSAGE_RATE = Long.getLong("chat.limit.messages", 20);  // Messaggi al secondo per connessione (0 o meno disabilita il limite).
+    static final long BYTE_RATE = Long.getLong("chat.limit.bytes", 64 * 1024);  // Byte al secondo per connessione (0 o meno disabilita il limite).
+    static final long BURST_SECONDS = Long.getLong("chat.limit.burst", 2);  // Secondi di traffico accumulabili per le raffiche.
+    static final long HEARTBEAT_SECONDS = Long.getLong("chat.heartbeat", 15);  // Secondi di silenzio dopo cui il server invia un ping ai client che lo supportano (0 o meno disabilita).
+    static final long IDLE_SECONDS = Long.getLong("chat.idle.timeout", 45);  // Secondi di silenzio dopo cui una sessione con heartbeat viene chiusa (0 o meno disabilita).
+    static final long LEGACY_IDLE_SECONDS = Long.getLong("chat.idle.legacy", 0);  // Secondi di silenzio dopo cui una sessione senza heartbeat viene chiusa (0 o meno: mai, resta il keepalive TCP).
+    private static final AtomicInteger OPEN = new AtomicInteger();  // Posti occupati da connessioni aperte, su tutti i motori.
+
+    protected final OutboundQueue<EncodedMessage> outbound = new OutboundQueue<>(EncodedMessage::release);  // Coda limitata dei messaggi da inviare.
+    protected final ProtocolDecoder decoder = new ProtocolDecoder(Charset.defaultCharset(), this);  // Decodificatore dei byte ricevuti (solo thread di lettura).
+    protected final Listener listener;  // Destinatario degli eventi della sessione.
+    private final ReentrantLock sendLock = new ReentrantLock();  // Rende atomici la scelta del formato e l'accodamento rispetto al cambio di protocollo.
+    private final AtomicBoolean closed = new AtomicBoolean();  // True dopo la chiusura.
+    private volatile boolean framed;  // True se il client ha negoziato i frame.
+    private volatile boolean deflate;  // True se il client ha negoziato la compressione.
+    private volatile SessionCipher cipher;  // Cifratura di sessione negoziata (null se i frame viaggiano in chiaro).
+    private Inflater inflater;  // Contesto di decompressione della connessione (solo thread di lettura, creato al primo uso).
+    private boolean greeted;  // True dopo la prima riga ricevuta, l'unica che può essere un saluto (solo thread di lettura).
+    private final TokenBucket messageBucket = MESSAGE_RATE > 0 ? new TokenBucket(MESSAGE_RATE, BURST_SECONDS) : null;  // Limite dei messaggi in entrata (solo thread di lettura).
+    private final TokenBucket byteBucket = BYTE_RATE > 0 ? new TokenBucket(BYTE_RATE, BURST_SECONDS) : null;  // Limite dei byte in entrata (solo thread di lettura).
+    private final TimerWheel.Timeout idleCheck = new TimerWheel.Timeout() {  // Controllo di inattività, programmato nella ruota condivisa.
+        @Override
+        protected void expire() {
+            checkIdle();  // Chiude, invia un ping o riprogramma.
+        }
+    };
+    private volatile TimerWheel timers;  // Ruota dei controlli di inattività (null se non sorvegliata).
+    private volatile long lastRead = System.nanoTime();  // Istante dell'ultima lettura dal socket: la ruota non viene toccata a ogni lettura.
+    private volatile boolean heartbeat;  // True se il client ha negoziato i ping.
+    volatile String key;  // Chiave di cifratura catturata al momento dell'accettazione.
+    volatile String fileToken;  // Gettone dei caricamenti rilasciato alla negoziazione (null se non rilasciato).
+
+    static boolean reserveSlot() {  // Riserva un posto per una nuova connessione; false se il server è pieno. Da chiamare prima di creare la sessione.
+        int open;
+        do {
+            open = OPEN.get();  // Posti occupati.
+            if (open >= MAX_CONNECTIONS) {  // Server pieno.
+                ServerMetrics.REJECTED.increment();  // Conta il rifiuto.
+                return false;
+            }
+        } while (!OPEN.compareAndSet(open, open + 1));  // Occupa il posto senza lock.
+        return true;
+    }
+
+    static void releaseSlot() {  // Libera un posto riservato per una connessione che non è mai diventata una sessione.
+        OPEN.decrementAndGet();  // Libera il posto.
+    }
+
+    ClientSession(Listener listener) {  // Costruttore della sessione (il posto è già riservato).
+        this.listener = listener;  // Imposta il destinatario degli eventi.
+        ServerMetrics.ACCEPTED.increment();  // Conta la connessione accettata.
+    }
+
+    @Override
+    public final void send(ChatMessage message) {  // Accoda il messaggio nel formato del client, senza mai bloccarsi sul socket.
+        boolean accepted;  // True se il messaggio è stato accodato.
+        sendLock.lock();  // Nessun cambio di protocollo tra la scelta del formato e l'accodamento.
+        try {
+            if (cipher != null) {  // Sessione cifrata: il frame condiviso viene cifrato per questa sola connessione, nell'ordine della coda.
+                accepted = outbound.offer(EncodedMessage.sealedFrames(message.frame().view(), cipher));  // La coda prende il riferimento.
+            } else {
+                EncodedMessage encoded = !framed ? message.line() : deflate ? message.deflatedFrame() : message.frame();  // Codifica condivisa nel formato del client.
+                accepted = outbound.offer(encoded.retain());  // Acquisisce un riferimento sulla codifica condivisa.
+            }
+        } finally {
+            sendLock.unlock();  // Rilascia il lock.
+        }
+        if (accepted) ServerMetrics.MESSAGES_OUT.increment();  // Conta il messaggio accodato.
+        if (accepted) messageQueued();  // Risveglia il writer.
+        else close();  // Coda piena con politica di disconnessione, o connessione già chiusa.
+    }
+
+    protected void messageQueued() {  // Chiamato dopo ogni accodamento; i motori che non attendono sulla coda pianificano qui la scrittura.
+    }
+
+    protected final void bytesRead(int count) {  // Da chiamare dopo ogni lettura dal socket: conta i byte, li addebita al limite e segna l'attività.
+        long now = System.nanoTime();  // Istante della lettura.
+        lastRead = now;  // Una sola scrittura volatile: il controllo di inattività la legge alla scadenza.
+        ServerMetrics.BYTES_IN.add(count);  // Conta i byte ricevuti.
+        if (byteBucket != null) byteBucket.consume(count, now);  // Può andare in debito.
+    }
+
+    final void watch(TimerWheel wheel) {  // Sorveglia l'inattività della sessione con la ruota indicata.
+        timers = wheel;  // Ruota condivisa da tutte le sessioni.
+        checkIdle();  // Programma il primo controllo.
+    }
+
+    private void checkIdle() {  // Chiude la sessione silenziosa oltre il limite, invia un ping dopo un intervallo di silenzio, e riprogramma il controllo.
+        TimerWheel wheel = timers;  // Ruota corrente.
+        if (wheel == null || closed.get()) return;  // Sessione non sorvegliata o chiusa.
+        long limit = (heartbeat ? IDLE_SECONDS : LEGACY_IDLE_SECONDS) * 1_000_000_000L;  // Silenzio massimo (0 o meno: nessun limite).
+        long interval = heartbeat ? HEARTBEAT_SECONDS * 1_000_000_000L : 0;  // Silenzio dopo cui inviare un ping (0 o meno: mai).
+        long silent = System.nanoTime() - lastRead;  // Silenzio attuale.
+        if (limit > 0 && silent >= limit) {  // Connessione morta o client bloccato.
+            ServerMetrics.IDLE_CLOSED.increment();  // Conta la chiusura.
+            close();  // Libera socket, coda e thread.
+            return;
+        }
+        long delay = limit > 0 ? limit - silent : Long.MAX_VALUE;  // Prossimo controllo per il limite.
+        if (interval > 0) {  // Ping periodici durante il silenzio.
+            if (silent >= interval) sendControl(ChatProtocol.TYPE_PING);  // Il pong, o qualunque altro byte, azzera il silenzio.
+            delay = Math.min(delay, silent >= interval ? interval : interval - silent);  // Prossimo ping.
+        }
+        if (delay != Long.MAX_VALUE) wheel.schedule(idleCheck, delay);  // Un solo nodo per sessione, riprogrammato in O(1).
+        else wheel.cancel(idleCheck);  // Nessun controllo necessario.
+    }
+
+    private void sendControl(byte type) {  // Accoda un frame di controllo senza payload (ping o pong), cifrato se la sessione lo è.
+        boolean accepted;  // True se il frame è stato accodato.
+        sendLock.lock();  // Stesso ordine dei messaggi: il nonce di ogni frame cifrato segue la coda.
+        try {
+            if (!framed) return;  // Solo il protocollo a frame ha i frame di controllo.
+            EncodedMessage frame = EncodedMessage.frame(type, ChatProtocol.UNSEQUENCED, "");  // Frame vuoto.
+            if (cipher != null) {  // Sessione cifrata: solo il tag.
+                EncodedMessage sealed = EncodedMessage.sealedFrames(frame.view(), cipher);  // Frame cifrato per questa connessione.
+                frame.release();  // Il frame in chiaro non serve più.
+                frame = sealed;
+            }
+            accepted = outbound.offer(frame);  // La coda prende il riferimento.
+        } finally {
+            sendLock.unlock();  // Rilascia il lock.
+        }
+        if (accepted && type == ChatProtocol.TYPE_PING) ServerMetrics.PINGS.increment();  // Conta il ping.
+        if (accepted) messageQueued();  // Risveglia il writer.
+        else close();  // Coda piena con politica di disconnessione, o connessione già chiusa.
+    }
+
+    protected final long readDelayNanos() {  // Da chiamare prima di ogni lettura: nanosecondi di pausa finché il client non rientra nei limiti (0 per leggere subito).
+        if (messageBucket == null && byteBucket == null) return 0;  // Nessun limite.
+        long now = System.nanoTime();  // Istante corrente.
+        long delay = Math.max(messageBucket != null ? messageBucket.delayNanos(now) : 0, byteBucket != null ? byteBucket.delayNanos(now) : 0);  // Il limite più stretto.
+        if (delay > 0) ServerMetrics.THROTTLED.increment();  // Conta la pausa.
+        return delay;
+    }
+
+    private boolean messageReceived() {  // Conta un messaggio ricevuto; false se supera il limite e va scartato.
+        ServerMetrics.MESSAGES_IN.increment();  // Conta il messaggio ricevuto.
+        if (messageBucket == null || messageBucket.tryConsume(1, System.nanoTime())) return true;  // Entro il limite.
+        ServerMetrics.LIMITED.increment();  // Conta lo scarto: niente cifratura né broadcast.
+        return false;
+    }
+
+    @Override
+    public void onLine(String line) {  // Riga ricevuta in modalità legacy.
+        if (!greeted) {  // Solo la prima riga può aprire la negoziazione.
+            greeted = true;  // Le righe successive sono sempre messaggi.
+            if (ChatProtocol.isHello(line)) {  // Il client supporta il protocollo a frame.
+                negotiate(line);  // Risponde al saluto.
+                return;
+            }
+        }
+        if (messageReceived()) listener.onMessage(this, line);  // Messaggio di chat, se entro il limite.
+    }
+
+    @Override
+    public void onFrame(byte type, long seq, ByteBuffer payload) throws IOException {  // Frame ricevuto dopo la negoziazione.
+        SessionCipher session = cipher;  // Cifratura di sessione, se negoziata.
+        if (type == ChatProtocol.TYPE_PING || type == ChatProtocol.TYPE_PONG) {  // Controllo della connessione: l'attività è già segnata, non conta come messaggio.
+            if (session != null) session.open(type, seq, payload);  // Autentica anche i frame di controllo, e consuma il loro nonce.
+            if (type == ChatProtocol.TYPE_PING) sendControl(ChatProtocol.TYPE_PONG);  // Il client verifica che il server risponda.
+            return;
+        }
+        if (!messageReceived()) {  // Oltre il limite: scartato prima di decodificarlo.
+            if (session != null) session.skip();  // Il nonce del frame è comunque consumato.
+            return;
+        }
+        if (session != null) payload = session.open(type, seq, payload);  // Verifica e decifra il payload.
+        if (type == ChatProtocol.TYPE_MESSAGE) listener.onMessage(this, StandardCharsets.UTF_8.decode(payload).toString());  // Messaggio di chat.
+        else if (type == ChatProtocol.TYPE_MESSAGE_DEFLATE && deflate) listener.onMessage(this, Compression.inflate(inflater(), payload));  // Messaggio compresso.
+        else throw new IOException("Unknown frame type " + type);  // Tipo non negoziato: flusso corrotto.
+    }
+
+    private void negotiate(String hello) {  // Accetta le funzionalità supportate e passa ai frame.
+        List<String> requested = ChatProtocol.features(hello);  // Funzionalità richieste dal client.
+        List<String> accepted = new ArrayList<>();  // Funzionalità accettate.
+        MessageJournal journal = listener.journal();  // Giornale per la ripetizione, se abilitato.
+        long since = ChatProtocol.value(requested, ChatProtocol.PARAM_SINCE);  // Ultimo messaggio visto dal client, o -1.
+        SessionCipher session = null;  // Cifratura di sessione, se richiesta e disponibile.
+        if (requested.contains(ChatProtocol.FEATURE_FRAMED)) {  // Frame con lunghezza prefissata.
+            accepted.add(ChatProtocol.FEATURE_FRAMED);
+            String peerKey = ChatProtocol.text(requested, ChatProtocol.PARAM_SECURE);  // Chiave pubblica del client.
+            if (SessionCipher.ENABLED && peerKey != null) {  // Il client chiede la cifratura di sessione.
+                try {
+                    SessionCipher.Handshake handshake = new SessionCipher.Handshake();  // Chiavi effimere del server.
+                    session = handshake.complete(peerKey, false);  // Chiavi di sessione.
+                    accepted.add(ChatProtocol.PARAM_SECURE + "=" + handshake.publicKey());  // Il client deriva le stesse chiavi.
+                } catch (GeneralSecurityException e) {  // Chiave del client non valida o X25519 non disponibile: frame in chiaro.
+                    session = null;
+                }
+            }
+            if (Compression.ENABLED && session == null && requested.contains(ChatProtocol.FEATURE_DEFLATE)) accepted.add(ChatProtocol.FEATURE_DEFLATE);  // Compressione, solo sopra i frame in chiaro: comprimere prima di cifrare rivelerebbe il contenuto tramite la lunghezza.
+            if (journal != null && since >= 0) accepted.add(ChatProtocol.FEATURE_REPLAY);  // Ripetizione dei messaggi persi.
+            if (HEARTBEAT_SECONDS > 0 && requested.contains(ChatProtocol.FEATURE_HEARTBEAT)) accepted.add(ChatProtocol.FEATURE_HEARTBEAT + "=" + HEARTBEAT_SECONDS);  // Ping durante il silenzio.
+            int filePort = listener.filePort();  // Porta dei trasferimenti di file.
+            String token = filePort > 0 ? listener.fileToken(this) : null;  // Solo le sessioni di chat possono caricare.
+            if (token != null) accepted.add(ChatProtocol.PARAM_FILES + "=" + filePort);  // Il client carica e scarica i file su un canale separato.
+            if (token != null) accepted.add(ChatProtocol.PARAM_FILE_TOKEN + "=" + token);  // E si presenta con il gettone.
+        }
+        boolean queued;  // True se la risposta e la ripetizione sono state accodate.
+        sendLock.lock();  // La risposta e la ripetizione precedono tutti i messaggi nel nuovo formato.
+        try {
+            boolean framing = accepted.contains(ChatProtocol.FEATURE_FRAMED);  // Passaggio ai frame.
+            List<EncodedMessage> backlog = new ArrayList<>();  // Messaggi persi dal client.
+            if (framing && journal != null) {  // Il giornale fissa il punto di ripresa sotto questo lock.
+                if (accepted.contains(ChatProtocol.FEATURE_REPLAY)) backlog = journal.replay(since);  // Fette del giornale, senza copie.
+                accepted.add(ChatProtocol.PARAM_HEAD + "=" + journal.head());  // Da qui il client riprende alla prossima riconnessione.
+            }
+            if (session != null) outbound.disconnectOnOverflow();  // Ogni frame cifrato consuma un nonce all'accodamento: scartarne uno disallineerebbe il client, meglio chiudere.
+            queued = outbound.offer(EncodedMessage.line(ChatProtocol.ack(accepted)));  // Accoda la risposta, che viaggia ancora come riga (la coda prende il riferimento).
+            for (EncodedMessage chunk : backlog) {  // Accoda la ripetizione prima dei messaggi nuovi.
+                if (queued && session != null) {  // Sessione cifrata: cifra i frame della fetta per questa connessione.
+                    queued = outbound.offer(EncodedMessage.sealedFrames(chunk.view(), session));  // La coda prende il riferimento della copia cifrata.
+                    chunk.release();  // La fetta del giornale non serve più.
+                } else if (queued) {
+                    queued = outbound.offer(chunk);  // La coda prende il riferimento.
+                } else {
+                    chunk.release();  // Coda non disponibile: scarta il resto.
+                }
+            }
+            framed = framing;  // Da qui in poi i messaggi in uscita sono frame.
+            deflate = accepted.contains(ChatProtocol.FEATURE_DEFLATE);  // E quelli lunghi sono compressi.
+            cipher = session;  // E, se negoziato, cifrati.
+        } finally {
+            sendLock.unlock();  // Rilascia il lock.
+        }
+        if (framed) decoder.switchToFrames();  // Da qui in poi anche i messaggi in entrata sono frame.
+        heartbeat = framed && HEARTBEAT_SECONDS > 0 && requested.contains(ChatProtocol.FEATURE_HEARTBEAT);  // Il client risponde ai ping.
+        checkIdle();  // Applica il limite della sessione con heartbeat.
+        if (queued) messageQueued();  // Risveglia il writer.
+        else close();  // Coda non disponibile.
+    }
+
+    int queueDepth() {  // Restituisce il numero di messaggi in attesa di invio.
+        return outbound.size();
+    }
+
+    boolean isFramed() {  // Restituisce true se la sessione usa i frame.
+        return framed;
+    }
+
+    private Inflater inflater() {  // Restituisce il contesto di decompressione, creandolo al primo messaggio compresso.
+        if (inflater == null) inflater = new Inflater(true);  // Blocchi deflate senza intestazione zlib.
+        return inflater;
+    }
+
+    protected final void readerFinished() {  // Da chiamare sul thread di lettura quando smette di leggere: libera la memoria nativa del decompressore.
+        if (inflater != null) inflater.end();  // Libera il contesto.
+        inflater = null;  // Dimentica il contesto.
+    }
+
+    protected final void closed() {  // Da chiamare dopo aver chiuso il trasporto: scarta i messaggi e notifica una sola volta.
+        if (!closed.compareAndSet(false, true)) return;  // Già chiusa.
+        ServerMetrics.CLOSED.increment();  // Conta la connessione chiusa.
+        TimerWheel wheel = timers;  // Ruota dei controlli.
+        if (wheel != null) wheel.cancel(idleCheck);  // Annulla il controllo in O(1).
+        releaseSlot();  // Libera il posto per una nuova connessione.
+        outbound.close();  // Scarta i messaggi non inviati e sblocca il writer.
+        listener.onClose(this);  // Notifica la chiusura.
+    }
+}
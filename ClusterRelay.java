@@ -0,0 +1,327 @@
+import java.io.BufferedInputStream;  // Importa il flusso di input bufferizzato.
+import java.io.BufferedOutputStream;  // Importa il flusso di output bufferizzato.
+import java.io.ByteArrayInputStream;  // Importa il flusso di input su un array di byte.
+import java.io.ByteArrayOutputStream;  // Importa il flusso di output su un array di byte.
+import java.io.DataInputStream;  // Importa il flusso per leggere tipi primitivi.
+import java.io.DataOutputStream;  // Importa il flusso per scrivere tipi primitivi.
+import java.io.IOException;  // Importa l'eccezione per gli errori di input/output.
+import java.net.InetAddress;  // Importa gli indirizzi dei pari in entrata, per l'elenco dei consentiti.
+import java.net.InetSocketAddress;  // Importa gli indirizzi dei nodi.
+import java.net.ServerSocket;  // Importa il socket di ascolto dei collegamenti in entrata.
+import java.net.Socket;  // Importa i socket dei collegamenti.
+import java.nio.charset.StandardCharsets;  // Importa le codifiche standard.
+import java.security.GeneralSecurityException;  // Importa l'eccezione generica degli algoritmi crittografici.
+import java.security.MessageDigest;  // Importa il confronto a tempo costante.
+import java.security.SecureRandom;  // Importa il generatore delle sfide.
+import java.util.ArrayList;  // Importa la lista dinamica.
+import java.util.List;  // Importa l'interfaccia delle liste.
+import java.util.Set;  // Importa l'interfaccia degli insiemi.
+import java.util.concurrent.ConcurrentHashMap;  // Importa la mappa concorrente.
+import java.util.concurrent.atomic.AtomicLong;  // Importa un long atomico.
+import javax.crypto.Mac;  // Importa il codice di autenticazione della risposta alla sfida.
+import javax.crypto.spec.SecretKeySpec;  // Importa le chiavi simmetriche.
+
+// Cluster di server: ogni nodo inoltra ai pari i messaggi nati localmente su collegamenti TCP persistenti tra nodi.
+// Topologia a maglia completa: ogni nodo apre un collegamento in uscita verso ogni pari (chat.cluster.peers, "host:porta,...")
+// e accetta quelli dei pari sulla propria porta (chat.cluster.port); i messaggi ricevuti da un pari non vengono reinoltrati.
+// Ogni messaggio porta la propria origine (nome del nodo e istante di avvio del processo) e un numero di sequenza crescente
+// per origine: il gruppo di frame la cui scrittura non è riuscita viene reinviato dopo la riconnessione, e il pari scarta
+// quelli già ricevuti. L'inoltro resta best effort: i frame già accettati dal socket quando un collegamento cade possono
+// andare persi, come quelli scartati dalla coda piena.
+// I collegamenti usano i frame di ChatProtocol: tipo 5 = sfida (16 byte casuali, inviata da chi accetta), tipo 4 = saluto
+// (origine in UTF, poi HMAC-SHA256 del segreto su sfida e origine), tipo 3 = messaggio (origine e stanza in UTF, poi il testo
+// in UTF-8). Con un segreto condiviso (chat.cluster.secret) un pari in entrata è accettato solo se risponde alla sfida;
+// senza segreto, solo dagli host consentiti: loopback, gli host dei pari configurati e quelli di chat.cluster.allow.
+final class ClusterRelay {  // Collegamenti tra i nodi del cluster.
+    interface Listener {  // Destinatario dei messaggi arrivati dai pari.
+        void onRelay(String node, String room, String text);  // Messaggio nato sul nodo indicato, per la stanza indicata (ALL_ROOMS per tutte).
+
+        default void onStatus(String text) {  // Eventi dei collegamenti, per il log.
+        }
+    }
+
+    static final String ALL_ROOMS = "*";  // Stanza dei messaggi destinati a tutte le stanze (broadcast dell'operatore).
+    static final int PORT = Integer.getInteger("chat.cluster.port", 0);  // Porta dei collegamenti in entrata (0 per non accettarne).
+    static final String PEERS = System.getProperty("chat.cluster.peers", "");  // Pari a cui collegarsi.
+    static final int LINK_CAPACITY = Integer.getInteger("chat.cluster.queue", 4096);  // Messaggi in attesa per collegamento prima di scartare i più vecchi.
+    static final String SECRET = System.getProperty("chat.cluster.secret", "");  // Segreto condiviso dai nodi (vuoto: solo gli host consentiti).
+    static final String ALLOW = System.getProperty("chat.cluster.allow", "");  // Host aggiuntivi da cui accettare pari senza segreto, separati da virgole.
+
+    private static final byte TYPE_RELAY = 3;  // Frame con un messaggio inoltrato.
+    private static final byte TYPE_HELLO = 4;  // Primo frame di un collegamento, in risposta alla sfida.
+    private static final byte TYPE_CHALLENGE = 5;  // Sfida inviata da chi accetta il collegamento.
+    private static final int CHALLENGE_SIZE = 16;  // Byte casuali della sfida.
+    private static final int HELLO_TIMEOUT = 5000;  // Millisecondi di attesa della sfida o del saluto.
+    private static final int MAX_BATCH = 256;  // Frame per scrittura: tenuti finché il flush non riesce, per reinviarli dopo la riconnessione.
+    private static final int CONNECT_TIMEOUT = 2000;  // Millisecondi di attesa della connessione a un pari.
+    private static final long MAX_BACKOFF = 5000;  // Millisecondi massimi tra due tentativi di riconnessione.
+
+    private final String node;  // Nome di questo nodo.
+    private final String origin;  // Origine dei messaggi di questo processo.
+    private final Listener listener;  // Destinatario dei messaggi e degli eventi.
+    private final ServerSocket server;  // Socket di ascolto (null se PORT è 0).
+    private final List<PeerLink> links = new ArrayList<>();  // Collegamenti in uscita.
+    private final Set<Socket> inbound = ConcurrentHashMap.newKeySet();  // Collegamenti in entrata aperti.
+    private final List<String> allowed;  // Host da cui accettare pari senza segreto, oltre al loopback.
+    private final SecureRandom random = new SecureRandom();  // Sfide non prevedibili: un saluto registrato non vale due volte.
+    private final ConcurrentHashMap<String, AtomicLong> lastSeen = new ConcurrentHashMap<>();  // Ultimo numero di sequenza ricevuto per origine.
+    private long sequence;  // Numero di sequenza dell'ultimo messaggio pubblicato (protetto da links).
+    private volatile boolean running = true;  // False dopo la chiusura.
+
+    private ClusterRelay(Listener listener, List<InetSocketAddress> peers, List<String> allowed) throws IOException {  // Costruttore privato: usare open.
+        this.allowed = allowed;  // Imposta gli host consentiti.
+        this.node = System.getProperty("chat.cluster.node", "node-" + (PORT > 0 ? PORT : ProcessHandle.current().pid()));  // Nome configurato o derivato.
+        this.origin = node + "/" + System.currentTimeMillis();  // Un riavvio ricomincia la numerazione con un'origine nuova.
+        this.listener = listener;  // Imposta il destinatario.
+        this.server = PORT > 0 ? new ServerSocket(PORT) : null;  // Apre la porta dei collegamenti in entrata.
+        if (server != null) startThread("cluster-accept", this::acceptLoop);  // Accetta i pari.
+        for (InetSocketAddress peer : peers) {  // Un collegamento in uscita per pari.
+            PeerLink link = new PeerLink(peer);  // Crea il collegamento.
+            links.add(link);
+            startThread("cluster-link-" + peer.getPort(), link::run);  // Si connette e invia in background.
+        }
+    }
+
+    static ClusterRelay open(Listener listener) throws IOException {  // Apre il cluster configurato; null se né porta né pari sono configurati.
+        List<InetSocketAddress> peers = new ArrayList<>();  // Indirizzi dei pari.
+        for (String peer : PEERS.split(",")) {  // "host:porta" separati da virgole.
+            peer = peer.trim();
+            if (peer.isEmpty()) continue;  // Voce vuota.
+            int colon = peer.lastIndexOf(':');  // Separatore della porta.
+            if (colon <= 0) throw new IOException("Invalid peer " + peer + " (expected host:port)");  // Configurazione errata.
+            peers.add(InetSocketAddress.createUnresolved(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));  // Risolto a ogni connessione.
+        }
+        if (PORT <= 0 && peers.isEmpty()) return null;  // Nodo singolo.
+        List<String> allowed = new ArrayList<>();  // Host consentiti senza segreto.
+        for (InetSocketAddress peer : peers) allowed.add(peer.getHostString());  // I pari configurati.
+        for (String host : ALLOW.split(",")) if (!host.trim().isEmpty()) allowed.add(host.trim());  // E quelli aggiuntivi.
+        return new ClusterRelay(listener, peers, allowed);
+    }
+
+    String node() {  // Restituisce il nome di questo nodo.
+        return node;
+    }
+
+    String describe() {  // Descrive la configurazione per il log.
+        String access = !SECRET.isEmpty() ? "shared secret" : "loopback" + (allowed.isEmpty() ? "" : ", " + String.join(", ", allowed));  // Pari in entrata ammessi.
+        return "node " + node + (server != null ? ", peer port " + PORT + " (" + access + ")" : "") + ", " + links.size() + " peers";
+    }
+
+    void publish(String room, String text) {  // Inoltra un messaggio nato su questo nodo a tutti i pari.
+        if (links.isEmpty()) return;  // Nessun pari in uscita.
+        synchronized (links) {  // I frame devono entrare nelle code in ordine di sequenza, o il pari li scarterebbe come duplicati.
+            byte[] frame = encode(sequence + 1, room, text);  // Codificato una sola volta per tutti i pari.
+            if (frame.length - 4 > ChatProtocol.MAX_FRAME) {  // Il pari lo rifiuterebbe e chiuderebbe il collegamento, e la riconnessione lo reinvierebbe.
+                listener.onStatus("Cluster message dropped: " + frame.length + " bytes exceed the frame limit");  // Visualizza lo scarto.
+                return;
+            }
+            sequence++;  // Numero assegnato.
+            for (PeerLink link : links) link.queue.offer(frame);  // Non blocca mai: i collegamenti lenti scartano i più vecchi.
+        }
+        ServerMetrics.RELAYED_OUT.increment();  // Conta il messaggio inoltrato.
+    }
+
+    void close() {  // Chiude tutti i collegamenti.
+        running = false;  // Ferma i thread.
+        try {
+            if (server != null) server.close();  // Sblocca accept().
+        } catch (IOException ignored) {  // Ignora gli errori di chiusura.
+        }
+        for (PeerLink link : links) link.close();  // Chiude i collegamenti in uscita.
+        for (Socket socket : inbound) closeQuietly(socket);  // Chiude quelli in entrata.
+    }
+
+    private byte[] encode(long seq, String room, String text) {  // Costruisce il frame completo di un messaggio.
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(64 + text.length());  // Payload del frame.
+            DataOutputStream out = new DataOutputStream(payload);
+            out.writeUTF(origin);  // Origine.
+            out.writeUTF(room);  // Stanza.
+            out.write(text.getBytes(StandardCharsets.UTF_8));  // Testo.
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(ChatProtocol.HEADER_SIZE + payload.size());  // Frame completo.
+            ChatProtocol.writeFrame(new DataOutputStream(frame), TYPE_RELAY, seq, payload.toByteArray());  // Intestazione e payload.
+            return frame.toByteArray();
+        } catch (IOException e) {  // Impossibile in memoria.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void acceptLoop() {  // Accetta i collegamenti dei pari.
+        while (running) {  // Fino alla chiusura.
+            try {
+                Socket socket = server.accept();  // Attende un pari.
+                if (SECRET.isEmpty() && !allowed(socket.getInetAddress())) {  // Senza segreto conta solo l'indirizzo.
+                    listener.onStatus("Cluster peer rejected from " + socket.getRemoteSocketAddress() + ": host not allowed (set chat.cluster.allow or chat.cluster.secret)");  // Visualizza il rifiuto.
+                    closeQuietly(socket);
+                    continue;
+                }
+                socket.setTcpNoDelay(true);  // Inoltra subito i messaggi brevi.
+                inbound.add(socket);  // Da chiudere alla fermata.
+                startThread("cluster-in-" + socket.getPort(), () -> readLink(socket));  // Un thread di lettura per pari.
+            } catch (IOException e) {  // Socket di ascolto chiuso.
+                if (running) listener.onStatus("Cluster accept failed: " + e.getMessage());  // Errore inatteso.
+                return;
+            }
+        }
+    }
+
+    private void readLink(Socket socket) {  // Legge i messaggi di un pari.
+        String peer = null;  // Nodo del pari, noto dopo il saluto.
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            byte[] challenge = new byte[CHALLENGE_SIZE];  // Sfida del collegamento.
+            random.nextBytes(challenge);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());  // Unica scrittura del collegamento in entrata.
+            ChatProtocol.writeFrame(out, TYPE_CHALLENGE, 0, challenge);  // Il pari risponde nel saluto.
+            out.flush();
+            socket.setSoTimeout(HELLO_TIMEOUT);  // Un saluto che non arriva non trattiene il thread.
+            ChatProtocol.Frame hello = ChatProtocol.readFrame(in);  // Il primo frame presenta il pari.
+            if (hello.type != TYPE_HELLO) throw new IOException("Not a cluster peer");  // Client o servizio sbagliato sulla porta.
+            DataInputStream fields = new DataInputStream(new ByteArrayInputStream(hello.payload));  // Origine e risposta.
+            String claimed = fields.readUTF();  // Origine del pari.
+            if (!SECRET.isEmpty() && !MessageDigest.isEqual(fields.readAllBytes(), answer(challenge, claimed))) {  // Risposta errata: segreto diverso o pari estraneo.
+                listener.onStatus("Cluster peer rejected from " + socket.getRemoteSocketAddress() + ": authentication failed");  // Visualizza il rifiuto.
+                return;
+            }
+            socket.setSoTimeout(0);  // Da qui i messaggi arrivano quando ci sono.
+            peer = nodeOf(claimed);  // Nome del pari.
+            listener.onStatus("Cluster peer " + peer + " connected from " + socket.getRemoteSocketAddress());  // Visualizza il collegamento.
+            while (running) {  // Fino alla chiusura.
+                ChatProtocol.Frame frame = ChatProtocol.readFrame(in);  // Attende il prossimo messaggio.
+                if (frame.type != TYPE_RELAY) continue;  // Tipo sconosciuto: compatibilità con versioni future.
+                DataInputStream payload = new DataInputStream(new ByteArrayInputStream(frame.payload));  // Campi del messaggio.
+                String from = payload.readUTF();  // Origine.
+                String room = payload.readUTF();  // Stanza.
+                String text = new String(payload.readAllBytes(), StandardCharsets.UTF_8);  // Testo.
+                if (from.equals(origin) || !firstDelivery(from, frame.seq)) {  // Eco di sé stesso o duplicato.
+                    ServerMetrics.RELAY_DUPLICATES.increment();  // Conta lo scarto.
+                    continue;
+                }
+                ServerMetrics.RELAYED_IN.increment();  // Conta il messaggio ricevuto.
+                listener.onRelay(nodeOf(from), room, text);  // Consegna ai client locali.
+            }
+        } catch (IOException e) {  // Pari disconnesso o flusso corrotto.
+            if (running) listener.onStatus("Cluster peer " + (peer != null ? peer : socket.getRemoteSocketAddress()) + " disconnected: " + e.getMessage());
+        } finally {
+            inbound.remove(socket);  // Non più aperto.
+            closeQuietly(socket);  // Chiude il socket.
+        }
+    }
+
+    private boolean allowed(InetAddress address) {  // Controlla se un pari in entrata viene da un host consentito.
+        if (address.isLoopbackAddress()) return true;  // Nodi sulla stessa macchina.
+        for (String host : allowed) {  // Risolti a ogni collegamento: gli indirizzi possono cambiare.
+            try {
+                for (InetAddress candidate : InetAddress.getAllByName(host)) if (candidate.equals(address)) return true;
+            } catch (IOException ignored) {  // Host non risolvibile: non consente nulla.
+            }
+        }
+        return false;
+    }
+
+    private static byte[] answer(byte[] challenge, String origin) {  // Restituisce la risposta alla sfida: HMAC-SHA256 del segreto su sfida e origine.
+        try {
+            Mac hmac = Mac.getInstance("HmacSHA256");  // Sempre disponibile.
+            hmac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));  // Chiave: il segreto condiviso.
+            hmac.update(challenge);  // Sfida di questo collegamento.
+            return hmac.doFinal(origin.getBytes(StandardCharsets.UTF_8));  // Lega la risposta all'origine dichiarata.
+        } catch (GeneralSecurityException e) {  // Impossibile con HmacSHA256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean firstDelivery(String from, long seq) {  // Registra il numero di sequenza di un'origine; false se già visto.
+        AtomicLong last = lastSeen.computeIfAbsent(from, key -> new AtomicLong());  // Ultimo numero visto da questa origine.
+        long current;
+        do {
+            current = last.get();  // Ultimo numero visto.
+            if (seq <= current) return false;  // Già consegnato: ogni origine numera in ordine crescente.
+        } while (!last.compareAndSet(current, seq));  // Più collegamenti possono consegnare la stessa origine.
+        return true;
+    }
+
+    private static String nodeOf(String origin) {  // Estrae il nome del nodo da un'origine.
+        int slash = origin.lastIndexOf('/');  // Separatore dell'istante di avvio.
+        return slash > 0 ? origin.substring(0, slash) : origin;
+    }
+
+    private static void startThread(String name, Runnable task) {  // Avvia un thread demone del cluster.
+        Thread thread = new Thread(task, name);  // Thread con nome riconoscibile.
+        thread.setDaemon(true);  // Non impedisce l'uscita.
+        thread.start();
+    }
+
+    private static void closeQuietly(Socket socket) {  // Chiude un socket ignorando gli errori.
+        try {
+            socket.close();  // Chiude il socket.
+        } catch (IOException ignored) {  // Ignora gli errori di chiusura.
+        }
+    }
+
+    private final class PeerLink {  // Collegamento in uscita verso un pari, con riconnessione automatica.
+        final InetSocketAddress address;  // Indirizzo del pari.
+        final OutboundQueue<byte[]> queue = new OutboundQueue<>(LINK_CAPACITY, OutboundQueue.OverflowPolicy.DROP_OLDEST, null);  // Frame da inviare.
+        private volatile Socket socket;  // Socket corrente (null tra due tentativi).
+
+        PeerLink(InetSocketAddress address) {  // Costruttore del collegamento.
+            this.address = address;  // Imposta l'indirizzo.
+        }
+
+        void run() {  // Si connette, invia i frame in coda e si riconnette con attesa crescente.
+            long backoff = 100;  // Millisecondi prima del prossimo tentativo.
+            List<byte[]> batch = new ArrayList<>();  // Frame non confermati dal flush: reinviati dopo la riconnessione, il pari scarta i duplicati.
+            boolean connected = false;  // True se l'ultimo tentativo è riuscito (evita di ripetere gli errori nel log).
+            while (running) {  // Fino alla chiusura.
+                try (Socket current = new Socket()) {
+                    socket = current;  // Da chiudere alla fermata.
+                    current.connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT);  // Risolve e si connette.
+                    current.setTcpNoDelay(true);  // Inoltra subito i messaggi brevi.
+                    current.setSoTimeout(HELLO_TIMEOUT);  // Un pari che non invia la sfida non blocca il collegamento.
+                    ChatProtocol.Frame challenge = ChatProtocol.readFrame(new DataInputStream(new BufferedInputStream(current.getInputStream())));  // Sfida del pari.
+                    if (challenge.type != TYPE_CHALLENGE) throw new IOException("not a cluster peer");  // Servizio sbagliato sulla porta.
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(current.getOutputStream()));  // Scritture raggruppate.
+                    ByteArrayOutputStream hello = new ByteArrayOutputStream();  // Payload del saluto.
+                    DataOutputStream fields = new DataOutputStream(hello);
+                    fields.writeUTF(origin);  // Origine di questo nodo.
+                    if (!SECRET.isEmpty()) fields.write(answer(challenge.payload, origin));  // Risposta alla sfida.
+                    ChatProtocol.writeFrame(out, TYPE_HELLO, 0, hello.toByteArray());  // Si presenta.
+                    out.flush();
+                    listener.onStatus("Cluster link to " + address.getHostString() + ":" + address.getPort() + " up");  // Visualizza il collegamento.
+                    connected = true;
+                    backoff = 100;  // Riparte dall'attesa minima.
+                    while (running) {  // Invia finché il collegamento regge.
+                        if (batch.isEmpty()) {  // Gruppo precedente consegnato al socket.
+                            byte[] frame = queue.take();  // Attende il prossimo frame.
+                            if (frame == null) return;  // Coda chiusa: fermata.
+                            batch.add(frame);
+                            while (batch.size() < MAX_BATCH && (frame = queue.poll()) != null) batch.add(frame);  // Raggruppa i frame già in coda.
+                        }
+                        for (byte[] frame : batch) out.write(frame);  // Accoda nel buffer.
+                        out.flush();  // Una scrittura per gruppo.
+                        batch.clear();  // Solo ora il gruppo è nel socket.
+                    }
+                } catch (IOException e) {  // Pari irraggiungibile o collegamento caduto.
+                    String link = "Cluster link to " + address.getHostString() + ":" + address.getPort();  // Collegamento, per il log.
+                    if (connected && running) listener.onStatus(link + " down: " + e.getMessage() + "; retrying");  // Caduto: si riconnette subito.
+                    else if (running && backoff * 2 >= MAX_BACKOFF && backoff < MAX_BACKOFF) listener.onStatus(link + " unreachable: " + e.getMessage() + "; retrying every " + MAX_BACKOFF / 1000 + "s");  // Una sola riga quando l'attesa raggiunge il massimo.
+                    connected = false;
+                } catch (InterruptedException e) {  // Fermata.
+                    return;
+                } finally {
+                    socket = null;  // Nessun socket corrente.
+                }
+                try {
+                    Thread.sleep(backoff);  // Attende prima di riprovare.
+                } catch (InterruptedException e) {  // Fermata.
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);  // Attesa crescente.
+            }
+        }
+
+        void close() {  // Chiude il collegamento e sblocca il thread.
+            queue.close();  // Sblocca take() e scarta i frame in attesa.
+            Socket current = socket;  // Socket corrente.
+            if (current != null) closeQuietly(current);  // Sblocca le scritture.
+        }
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.IOException;  // Importa l'eccezione per gli errori di input/output.
+import java.nio.ByteBuffer;  // Importa i buffer di byte.
+import java.nio.charset.StandardCharsets;  // Importa le codifiche standard.
+import java.util.Arrays;  // Importa le utilità per gli array.
+import java.util.Locale;  // Importa la classe per la formattazione indipendente dalla lingua.
+import java.util.concurrent.atomic.LongAdder;  // Importa un contatore ad alta concorrenza.
+import java.util.zip.DataFormatException;  // Importa l'eccezione per i dati compressi corrotti.
+import java.util.zip.Deflater;  // Importa il compressore deflate.
+import java.util.zip.Inflater;  // Importa il decompressore deflate.
+
+// Compressione deflate dei messaggi lunghi, negoziata con la funzionalità "deflate" del saluto.
+// Ogni messaggio compresso è un blocco deflate autonomo (senza intestazione zlib): il server lo comprime una sola volta
+// per broadcast e lo condivide con tutti i destinatari che l'hanno negoziato; ogni connessione riusa il proprio Inflater.
+final class Compression {  // Compressione, decompressione e contatori di rapporto e costo.
+    static final int THRESHOLD = Integer.getInteger("chat.compress.threshold", 512);  // Byte sotto cui i messaggi viaggiano non compressi (0 o meno disabilita la compressione).
+    static final boolean ENABLED = THRESHOLD > 0;  // True se il server accetta la funzionalità "deflate".
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));  // Un compressore per thread, riutilizzato.
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[8192]);  // Buffer di decompressione per thread.
+    private static final LongAdder DEFLATED = new LongAdder();  // Messaggi compressi.
+    private static final LongAdder DEFLATE_SKIPPED = new LongAdder();  // Messaggi sopra soglia che la compressione non riduceva.
+    private static final LongAdder RAW_BYTES = new LongAdder();  // Byte originali dei messaggi compressi.
+    private static final LongAdder COMPRESSED_BYTES = new LongAdder();  // Byte compressi dei messaggi compressi.
+    private static final LongAdder DEFLATE_NANOS = new LongAdder();  // Tempo speso a comprimere (anche i tentativi scartati).
+    private static final LongAdder INFLATED = new LongAdder();  // Messaggi decompressi.
+    private static final LongAdder INFLATE_NANOS = new LongAdder();  // Tempo speso a decomprimere.
+
+    private Compression() {  // Classe di sole utilità statiche.
+    }
+
+    static boolean worthTrying(String text) {  // Controlla se un messaggio è abbastanza lungo da tentare la compressione.
+        return ENABLED && text.length() >= THRESHOLD;  // In UTF-8 i byte sono almeno quanti i caratteri.
+    }
+
+    static boolean deflate(byte[] input, ByteBuffer target) {  // Comprime input nello spazio rimasto in target; false se il risultato non sarebbe più corto.
+        long start = System.nanoTime();  // Inizio della misura del costo.
+        Deflater deflater = DEFLATER.get();  // Compressore del thread.
+        deflater.reset();  // Ogni messaggio è un blocco autonomo.
+        deflater.setInput(input);  // Dati da comprimere.
+        deflater.finish();  // Nessun altro dato in arrivo.
+        int limit = target.limit();  // Limite originale del buffer.
+        target.limit(Math.min(limit, target.position() + input.length - 1));  // Il risultato deve essere strettamente più corto.
+        int before = target.position();  // Posizione iniziale.
+        while (!deflater.finished() && target.hasRemaining()) deflater.deflate(target);  // Comprime nello spazio disponibile.
+        boolean smaller = deflater.finished();  // Se non ha finito, lo spazio non bastava.
+        target.limit(limit);  // Ripristina il limite.
+        DEFLATE_NANOS.add(System.nanoTime() - start);  // Aggiorna il costo.
+        if (!smaller) {  // Dati già compressi o casuali.
+            DEFLATE_SKIPPED.increment();  // Conta il tentativo scartato.
+            return false;
+        }
+        DEFLATED.increment();  // Conta il messaggio compresso.
+        RAW_BYTES.add(input.length);  // Aggiorna i byte originali.
+        COMPRESSED_BYTES.add(target.position() - before);  // Aggiorna i byte compressi.
+        return true;
+    }
+
+    static byte[] deflate(byte[] input) {  // Comprime un payload (lato client); null se sotto soglia o se non si riduce.
+        if (!ENABLED || input.length < THRESHOLD) return null;  // Messaggio breve: non vale la pena.
+        ByteBuffer target = ByteBuffer.allocate(input.length);  // Spazio massimo utile.
+        if (!deflate(input, target)) return null;  // Compressione inutile.
+        return Arrays.copyOf(target.array(), target.position());  // Payload compresso.
+    }
+
+    static String inflate(Inflater inflater, ByteBuffer payload) throws IOException {  // Decomprime un messaggio con il contesto della connessione.
+        long start = System.nanoTime();  // Inizio della misura del costo.
+        inflater.reset();  // Ogni messaggio è un blocco autonomo.
+        inflater.setInput(payload);  // Dati compressi.
+        byte[] output = SCRATCH.get();  // Buffer del thread.
+        int length = 0;  // Byte decompressi.
+        try {
+            while (!inflater.finished()) {  // Decomprime fino alla fine del blocco.
+                if (length == output.length) {  // Buffer pieno.
+                    if (length >= ChatProtocol.MAX_FRAME) throw new IOException("Inflated message too large");  // Protegge la memoria da dati ostili.
+                    output = Arrays.copyOf(output, Math.min(length * 2, ChatProtocol.MAX_FRAME));  // Ingrandisce il buffer.
+                    SCRATCH.set(output);  // Lo conserva per i messaggi successivi.
+                }
+                int count = inflater.inflate(output, length, output.length - length);  // Decomprime quanto possibile.
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) throw new IOException("Truncated compressed message");  // Blocco incompleto.
+                length += count;  // Aggiorna la lunghezza.
+            }
+        } catch (DataFormatException e) {  // Dati corrotti.
+            throw new IOException("Corrupt compressed message", e);
+        }
+        String text = new String(output, 0, length, StandardCharsets.UTF_8);  // Decodifica il messaggio.
+        INFLATE_NANOS.add(System.nanoTime() - start);  // Aggiorna il costo.
+        INFLATED.increment();  // Conta il messaggio decompresso.
+        return text;
+    }
+
+    static String summary() {  // Riassume rapporto di compressione e costo per il log.
+        long deflated = DEFLATED.sum();  // Messaggi compressi.
+        long raw = RAW_BYTES.sum();  // Byte originali.
+        long inflated = INFLATED.sum();  // Messaggi decompressi.
+        return String.format(Locale.ROOT, "compressed %d messages, ratio %.1f%%, skipped %d, deflate %.1f us/msg, inflated %d messages, inflate %.1f us/msg",
+                deflated, raw == 0 ? 100.0 : 100.0 * COMPRESSED_BYTES.sum() / raw, DEFLATE_SKIPPED.sum(),
+                DEFLATE_NANOS.sum() / 1e3 / Math.max(1, deflated + DEFLATE_SKIPPED.sum()),
+                inflated, INFLATE_NANOS.sum() / 1e3 / Math.max(1, inflated));  // Riepilogo.
+    }
+}
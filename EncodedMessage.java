@@ -0,0 +1,159 @@
+import java.nio.ByteBuffer;  // Importa i buffer di byte.
+import java.nio.CharBuffer;  // Importa i buffer di caratteri.
+import java.nio.charset.Charset;  // Importa la classe per la codifica dei caratteri.
+import java.nio.charset.CharsetEncoder;  // Importa il codificatore di caratteri riutilizzabile.
+import java.nio.charset.CodingErrorAction;  // Importa le azioni per i caratteri non codificabili.
+import java.nio.charset.StandardCharsets;  // Importa le codifiche standard.
+import java.util.Queue;  // Importa l'interfaccia delle code.
+import java.util.concurrent.ConcurrentLinkedQueue;  // Importa una coda thread-safe non bloccante.
+import java.util.concurrent.atomic.AtomicInteger;  // Importa un intero atomico.
+
+final class EncodedMessage {  // Messaggio codificato una sola volta e condiviso, in sola lettura, da tutti i destinatari di un broadcast.
+    private static final Charset LINE_CHARSET = Charset.defaultCharset();  // Stessa codifica usata da PrintWriter e BufferedReader nel ClientGUI.
+    private static final String LINE_SEPARATOR = System.lineSeparator();  // Terminatore di riga, come PrintWriter.println.
+    private static final boolean DIRECT = Boolean.getBoolean("chat.buffer.direct");  // Usa buffer diretti, scritti sul socket senza copia intermedia.
+    private static final int MIN_POOLED = 256;  // Capacità della classe di dimensione più piccola.
+    private static final int MAX_POOLED = 64 * 1024;  // Oltre questa capacità i buffer non vengono riciclati.
+    private static final int POOL_DEPTH = Integer.getInteger("chat.buffer.pool", 256);  // Buffer conservati per classe di dimensione (0 disabilita il pool).
+    @SuppressWarnings({"unchecked", "rawtypes"})  // Gli array generici non si possono creare: la coda grezza è sempre una coda di buffer.
+    private static final Queue<ByteBuffer>[] POOL = new Queue[Integer.numberOfTrailingZeros(MAX_POOLED / MIN_POOLED) + 1];  // Un pool per classe di dimensione (potenze di due).
+    private static final AtomicInteger[] POOL_SIZES = new AtomicInteger[POOL.length];  // Numero di buffer presenti in ciascun pool.
+    private static final ThreadLocal<CharsetEncoder> LINE_ENCODER = ThreadLocal.withInitial(() -> LINE_CHARSET.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE));  // Un codificatore per thread, riutilizzato da tutti i messaggi.
+    private static final ThreadLocal<CharsetEncoder> FRAME_ENCODER = ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE));  // Codificatore UTF-8 per il payload dei frame.
+
+    static {
+        for (int i = 0; i < POOL.length; i++) {  // Inizializza i pool.
+            POOL[i] = new ConcurrentLinkedQueue<>();  // Pool della classe i.
+            POOL_SIZES[i] = new AtomicInteger();  // Contatore della classe i.
+        }
+    }
+
+    private final ByteBuffer buffer;  // Contenuto codificato, pronto da scrivere (position 0, limit = lunghezza).
+    private final AtomicInteger references = new AtomicInteger(1);  // Destinatari che non hanno ancora finito di scrivere, più il creatore.
+    private final boolean pooled;  // True se il buffer va restituito al pool dopo l'ultimo rilascio.
+
+    private EncodedMessage(ByteBuffer buffer) {  // Costruttore privato: usare le fabbriche statiche.
+        this(buffer, true);  // Buffer preso dal pool.
+    }
+
+    private EncodedMessage(ByteBuffer buffer, boolean pooled) {  // Costruttore privato: usare le fabbriche statiche.
+        this.buffer = buffer;  // Imposta il contenuto.
+        this.pooled = pooled;  // Imposta la provenienza del buffer.
+    }
+
+    static EncodedMessage wrap(ByteBuffer bytes) {  // Avvolge byte già codificati (per esempio una fetta del giornale) senza copiarli; il buffer non torna mai nel pool.
+        return new EncodedMessage(bytes, false);  // Il creatore possiede il primo riferimento.
+    }
+
+    static EncodedMessage line(String text) {  // Codifica un messaggio come riga del protocollo testuale.
+        CharsetEncoder encoder = LINE_ENCODER.get();  // Recupera il codificatore del thread.
+        int estimate = (int) Math.ceil((text.length() + LINE_SEPARATOR.length()) * (double) encoder.maxBytesPerChar());  // Dimensione massima possibile.
+        ByteBuffer target = acquire(estimate);  // Prende un buffer dal pool.
+        encoder.reset();  // Prepara il codificatore.
+        encoder.encode(CharBuffer.wrap(text), target, false);  // Codifica il testo (la stima garantisce che ci stia).
+        encoder.encode(CharBuffer.wrap(LINE_SEPARATOR), target, true);  // Codifica il terminatore di riga.
+        encoder.flush(target);  // Completa la codifica.
+        target.flip();  // Prepara il buffer alla lettura.
+        return new EncodedMessage(target);  // Il creatore possiede il primo riferimento.
+    }
+
+    static EncodedMessage frame(byte type, long seq, String text) {  // Codifica un messaggio come frame del protocollo binario.
+        CharsetEncoder encoder = FRAME_ENCODER.get();  // Recupera il codificatore del thread.
+        int estimate = ChatProtocol.HEADER_SIZE + (int) Math.ceil(text.length() * (double) encoder.maxBytesPerChar());  // Dimensione massima possibile.
+        ByteBuffer target = acquire(estimate);  // Prende un buffer dal pool.
+        target.position(ChatProtocol.HEADER_SIZE);  // Lascia spazio all'intestazione.
+        encoder.reset();  // Prepara il codificatore.
+        encoder.encode(CharBuffer.wrap(text), target, true);  // Codifica il payload (la stima garantisce che ci stia).
+        encoder.flush(target);  // Completa la codifica.
+        return finishFrame(target, type, seq);  // Scrive l'intestazione.
+    }
+
+    static EncodedMessage deflatedFrame(byte type, long seq, String text) {  // Codifica un messaggio come frame compresso; null se la compressione non lo accorcia.
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);  // Payload non compresso.
+        ByteBuffer target = acquire(ChatProtocol.HEADER_SIZE + raw.length);  // Il risultato utile è sempre più corto dell'originale.
+        target.position(ChatProtocol.HEADER_SIZE);  // Lascia spazio all'intestazione.
+        if (!Compression.deflate(raw, target)) {  // Compressione inutile.
+            recycle(target);  // Restituisce il buffer al pool.
+            return null;
+        }
+        return finishFrame(target, type, seq);  // Scrive l'intestazione.
+    }
+
+    static EncodedMessage sealedFrames(ByteBuffer frames, SessionCipher cipher) {  // Cifra uno o più frame consecutivi per una sola connessione, in un nuovo buffer del pool.
+        int count = 0;  // Frame contenuti.
+        for (int at = frames.position(); at < frames.limit(); at += 4 + frames.getInt(at)) count++;  // Conta i frame seguendo le lunghezze.
+        ByteBuffer target = acquire(frames.remaining() + count * SessionCipher.TAG_SIZE);  // Un tag in più per frame.
+        ByteBuffer payload = frames.duplicate();  // Vista sul payload del frame corrente.
+        for (int at = frames.position(); at < frames.limit(); ) {  // Un frame alla volta.
+            int length = frames.getInt(at);  // Byte che seguono la lunghezza.
+            byte type = frames.get(at + 4);  // Tipo del frame.
+            long seq = frames.getLong(at + 5);  // Numero di sequenza.
+            target.putInt(length + SessionCipher.TAG_SIZE).put(type).putLong(seq);  // Intestazione in chiaro, con la nuova lunghezza.
+            payload.limit(at + 4 + length).position(at + ChatProtocol.HEADER_SIZE);  // Limita la vista al payload.
+            cipher.seal(type, seq, payload, target);  // Payload cifrato e tag.
+            at += 4 + length;  // Frame successivo.
+        }
+        target.flip();  // Prepara il buffer alla lettura.
+        return new EncodedMessage(target);  // Il creatore possiede il primo riferimento.
+    }
+
+    private static EncodedMessage finishFrame(ByteBuffer target, byte type, long seq) {  // Completa un frame il cui payload termina alla posizione corrente.
+        target.flip();  // Prepara il buffer alla lettura.
+        target.putInt(0, target.limit() - 4);  // Lunghezza dei byte che seguono.
+        target.put(4, type);  // Tipo del frame.
+        target.putLong(5, seq);  // Numero di sequenza.
+        return new EncodedMessage(target);  // Il creatore possiede il primo riferimento.
+    }
+
+    EncodedMessage retain() {  // Aggiunge un riferimento per un nuovo destinatario.
+        references.incrementAndGet();  // Incrementa il conteggio dei riferimenti.
+        return this;
+    }
+
+    void release() {  // Rilascia un riferimento; l'ultimo restituisce il buffer al pool.
+        if (references.decrementAndGet() == 0 && pooled) recycle(buffer);  // Nessun destinatario lo usa più.
+    }
+
+    ByteBuffer view() {  // Restituisce una vista in sola lettura con posizione e limite indipendenti.
+        return buffer.asReadOnlyBuffer();  // Condivide i byte senza copiarli.
+    }
+
+    int length() {  // Restituisce la lunghezza del messaggio codificato.
+        return buffer.limit();  // Numero di byte da scrivere.
+    }
+
+    private static ByteBuffer acquire(int size) {  // Prende un buffer di almeno size byte dal pool, o ne alloca uno nuovo.
+        int index = poolIndex(size);  // Classe di dimensione corrispondente.
+        if (index >= 0) {  // Dimensione gestita dal pool.
+            ByteBuffer pooled = POOL[index].poll();  // Prova a riutilizzare un buffer.
+            if (pooled != null) {
+                POOL_SIZES[index].decrementAndGet();  // Aggiorna il contatore del pool.
+                pooled.clear();  // Prepara il buffer alla scrittura.
+                return pooled;
+            }
+            size = MIN_POOLED << index;  // Alloca l'intera classe, così potrà essere riciclato.
+        }
+        return DIRECT ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);  // Alloca un nuovo buffer.
+    }
+
+    private static void recycle(ByteBuffer buffer) {  // Restituisce un buffer al pool, se ha una capacità gestita e c'è spazio.
+        int capacity = buffer.capacity();  // Capacità del buffer.
+        int index = poolIndex(capacity);  // Classe di dimensione corrispondente.
+        if (index < 0 || capacity != MIN_POOLED << index || buffer.isDirect() != DIRECT) return;  // Buffer non riciclabile.
+        if (POOL_SIZES[index].incrementAndGet() > POOL_DEPTH) {  // Pool già pieno.
+            POOL_SIZES[index].decrementAndGet();  // Annulla l'incremento.
+            return;
+        }
+        POOL[index].offer(buffer);  // Rende il buffer disponibile.
+    }
+
+    private static int poolIndex(int size) {  // Calcola la classe di dimensione per size byte, o -1 se troppo grande.
+        if (size > MAX_POOLED) return -1;  // Fuori dal pool.
+        int rounded = Math.max(MIN_POOLED, Integer.highestOneBit(size - 1) << 1);  // Arrotonda alla potenza di due successiva.
+        return Integer.numberOfTrailingZeros(rounded / MIN_POOLED);  // Indice della classe.
+    }
+}
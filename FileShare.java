@@ -0,0 +1,420 @@
+import java.io.EOFException;  // Importa l'eccezione per la fine inattesa del flusso.
+import java.io.IOException;  // Importa l'eccezione per gli errori di input/output.
+import java.net.InetSocketAddress;  // Importa gli indirizzi di ascolto e del server.
+import java.nio.ByteBuffer;  // Importa i buffer di byte.
+import java.nio.channels.FileChannel;  // Importa il canale dei file, con le copie nel kernel.
+import java.nio.channels.ServerSocketChannel;  // Importa il canale di ascolto.
+import java.nio.channels.SocketChannel;  // Importa il canale dei trasferimenti.
+import java.nio.charset.StandardCharsets;  // Importa le codifiche standard.
+import java.nio.file.DirectoryStream;  // Importa la visita delle directory.
+import java.nio.file.Files;  // Importa le utilità per i file.
+import java.nio.file.Path;  // Importa i percorsi.
+import java.nio.file.Paths;  // Importa la costruzione dei percorsi.
+import java.nio.file.StandardCopyOption;  // Importa le opzioni di spostamento.
+import java.nio.file.StandardOpenOption;  // Importa le opzioni di apertura.
+import java.security.SecureRandom;  // Importa il generatore casuale degli identificativi.
+import java.util.Iterator;  // Importa gli iteratori.
+import java.util.LinkedHashMap;  // Importa la mappa ordinata per inserimento.
+import java.util.Map;  // Importa l'interfaccia delle mappe.
+import java.util.Set;  // Importa l'interfaccia degli insiemi.
+import java.util.concurrent.ConcurrentHashMap;  // Importa la mappa concorrente.
+import java.util.concurrent.ExecutorService;  // Importa l'interfaccia per gli esecutori di compiti.
+import java.util.concurrent.Executors;  // Importa le fabbriche di esecutori.
+import java.util.concurrent.Semaphore;  // Importa il semaforo dei trasferimenti contemporanei.
+import java.util.function.Consumer;  // Importa l'interfaccia funzionale per i consumatori.
+
+// Condivisione di file accanto alla chat, su una porta separata (chat.files.port, annunciata nella risposta al saluto come
+// "files=<porta>"): i byte dei file non passano mai dalle code, dai motori né dalla cifratura dei messaggi.
+// Ogni connessione trasferisce un solo file, con un'intestazione testuale in UTF-8 terminata da '\n':
+//   caricamento:   "PUT <gettone> <byte> <nome>"  ->  "GO", poi il contenuto  ->  "OK <id>"; oppure subito "ERR <motivo>"
+//   scaricamento:  "GET <id>"                      ->  "OK <byte> <nome>" seguito dal contenuto, oppure "ERR <motivo>"
+// Solo una sessione di chat aperta può caricare: il gettone arriva nella risposta al saluto ("filetoken=<gettone>") e
+// scade con la sessione. I file occupano al più chat.files.quota byte in tutto, compresi i caricamenti in corso; un
+// trasferimento che non avanza per chat.files.timeout secondi, intestazione compresa, viene chiuso e libera il suo posto.
+// Il server scrive il caricamento una sola volta nella directory di appoggio (transferFrom) e lo invia a ogni destinatario
+// con transferTo, che su Linux diventa sendfile: il contenuto va dalla cache dei file al socket senza passare dallo heap.
+// Il mittente annuncia il file nella propria stanza con "/share <id>"; il server inoltra l'avviso NOTICE, che viaggia senza
+// cifratura dei messaggi. I file vivono solo in questo processo: la directory viene svuotata all'avvio e gli avvisi
+// non vengono inoltrati ai pari del cluster.
+final class FileShare {  // Trasferimenti di file del server, e utilità del client.
+    static final int PORT = Integer.getInteger("chat.files.port", ChatProtocol.PORT + 1);  // Porta dei trasferimenti (0 per disabilitare).
+    static final String DIRECTORY = System.getProperty("chat.files.dir", "chat-files");  // Directory di appoggio (vuota per disabilitare).
+    static final long MAX_SIZE = Long.getLong("chat.files.max", 256L * 1024 * 1024);  // Byte massimi di un file.
+    static final int MAX_FILES = Integer.getInteger("chat.files.keep", 100);  // File conservati, oltre i quali si elimina il più vecchio.
+    static final int MAX_TRANSFERS = Integer.getInteger("chat.files.transfers", 16);  // Trasferimenti contemporanei, oltre i quali le connessioni sono rifiutate.
+    static final long QUOTA = Long.getLong("chat.files.quota", 1024L * 1024 * 1024);  // Byte massimi di tutti i file, oltre i quali si eliminano i più vecchi.
+    static final long TIMEOUT_SECONDS = Math.max(1, Long.getLong("chat.files.timeout", 30));  // Secondi senza progressi dopo cui un trasferimento viene chiuso.
+    static final String NOTICE = "\u0001FILE";  // Prefisso dell'avviso di un file condiviso: "\u0001FILE <id> <byte> <nome>".
+
+    private static final int MAX_HEADER = 1024;  // Byte massimi di un'intestazione.
+    private static final long CHUNK = 1024L * 1024;  // Byte massimi per chiamata di transferTo e transferFrom: ogni blocco conta come progresso.
+
+    private final Path directory;  // Directory di appoggio.
+    private final ServerSocketChannel server;  // Canale di ascolto.
+    private final Consumer<String> status;  // Destinatario degli eventi, per il log.
+    private final ExecutorService transfers;  // Thread dei trasferimenti.
+    private final Semaphore slots = new Semaphore(Math.max(1, MAX_TRANSFERS));  // Trasferimenti ancora ammessi.
+    private final Set<SocketChannel> open = ConcurrentHashMap.newKeySet();  // Trasferimenti in corso, chiusi alla fermata.
+    private final Map<String, Entry> files = new LinkedHashMap<>();  // File condivisi per identificativo, dal più vecchio (protetto da files).
+    private final SecureRandom random = new SecureRandom();  // Identificativi non indovinabili: solo chi vede l'avviso scarica il file.
+    private final Set<String> tokens = ConcurrentHashMap.newKeySet();  // Gettoni delle sessioni aperte, richiesti per caricare.
+    private final TimerWheel timers = new TimerWheel("files-timer");  // Controlli dei trasferimenti fermi.
+    private long reserved;  // Byte dei file registrati e dei caricamenti in corso (protetto da files).
+
+    private FileShare(Path directory, ServerSocketChannel server, Consumer<String> status) {  // Costruttore privato: usare open.
+        this.directory = directory;  // Imposta la directory.
+        this.server = server;  // Imposta il canale di ascolto.
+        this.status = status;  // Imposta il destinatario degli eventi.
+        this.transfers = Executors.newCachedThreadPool(runnable -> {  // Un thread demone per trasferimento, riutilizzato.
+            Thread thread = new Thread(runnable, "files-transfer");  // Thread con nome riconoscibile.
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread acceptor = new Thread(this::acceptLoop, "files-accept");  // Accetta i trasferimenti.
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    static FileShare open(Consumer<String> status) throws IOException {  // Apre la porta dei trasferimenti; null se disabilitata.
+        if (PORT <= 0 || DIRECTORY.isEmpty()) return null;  // Condivisione disabilitata.
+        Path directory = Files.createDirectories(Paths.get(DIRECTORY));  // Crea la directory, se manca.
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, "*.{file,part}")) {  // File di un'esecuzione precedente, non più annunciabili.
+            for (Path file : stale) Files.deleteIfExists(file);
+        }
+        ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(PORT), ClientSession.ACCEPT_BACKLOG);  // Canale di ascolto bloccante.
+        return new FileShare(directory, server, status);
+    }
+
+    int port() {  // Restituisce la porta dei trasferimenti.
+        return server.socket().getLocalPort();
+    }
+
+    String describe() {  // Descrive la configurazione per il log.
+        return "port " + port() + ", " + directory.toAbsolutePath() + ", max " + MAX_SIZE + " bytes per file, " + QUOTA + " bytes in total";
+    }
+
+    String notice(String id) {  // Restituisce l'avviso del file, o null se l'identificativo è sconosciuto.
+        Entry entry;
+        synchronized (files) {
+            entry = files.get(id);  // File condiviso.
+        }
+        return entry != null ? notice(id, entry.size, entry.name) : null;
+    }
+
+    String issueToken() {  // Rilascia il gettone dei caricamenti per una nuova sessione di chat.
+        String token = newId();  // Non indovinabile.
+        tokens.add(token);  // Valido fino a revokeToken.
+        return token;
+    }
+
+    void revokeToken(String token) {  // Invalida il gettone di una sessione chiusa; i caricamenti già iniziati terminano.
+        tokens.remove(token);
+    }
+
+    void close() {  // Chiude la porta e i trasferimenti in corso, ed elimina i file.
+        try {
+            server.close();  // Sblocca accept().
+        } catch (IOException ignored) {  // Ignora gli errori di chiusura.
+        }
+        for (SocketChannel channel : open) closeQuietly(channel);  // Interrompe i trasferimenti.
+        transfers.shutdown();  // I thread terminano con i loro socket.
+        timers.close();  // Ferma i controlli.
+        tokens.clear();  // Nessun nuovo caricamento.
+        synchronized (files) {
+            for (Entry entry : files.values()) deleteQuietly(entry.path);  // Nessun file sopravvive al server.
+            files.clear();
+            reserved = 0;  // Spazio libero.
+        }
+    }
+
+    private void acceptLoop() {  // Accetta i trasferimenti finché la porta è aperta.
+        while (server.isOpen()) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();  // Nuovo trasferimento.
+            } catch (IOException e) {  // Porta chiusa.
+                return;
+            }
+            if (!slots.tryAcquire()) {  // Troppi trasferimenti: rifiuto immediato, senza thread.
+                try {
+                    writeLine(channel, "ERR busy");  // Il client può riprovare.
+                } catch (IOException ignored) {  // Il client ha già chiuso.
+                }
+                closeQuietly(channel);
+                continue;
+            }
+            open.add(channel);  // Da chiudere alla fermata.
+            Watchdog watchdog = new Watchdog(channel);  // Chiude il trasferimento se si ferma.
+            timers.schedule(watchdog, TIMEOUT_SECONDS * 1_000_000_000L);  // Anche l'intestazione deve arrivare in tempo.
+            transfers.execute(() -> {
+                try {
+                    serve(channel, watchdog);  // Un file.
+                } catch (IOException e) {  // Client disconnesso, fermo o disco pieno.
+                    status.accept("File transfer failed: " + (watchdog.expired ? "no progress for " + TIMEOUT_SECONDS + "s" : e.getMessage()));  // Visualizza l'errore nel log.
+                } finally {
+                    timers.cancel(watchdog);  // Trasferimento finito.
+                    open.remove(channel);
+                    closeQuietly(channel);  // Una connessione per trasferimento.
+                    slots.release();  // Libera il posto.
+                }
+            });
+        }
+    }
+
+    private void serve(SocketChannel channel, Watchdog watchdog) throws IOException {  // Legge l'intestazione ed esegue il trasferimento richiesto.
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER);  // Intestazione ed eventuali primi byte del contenuto.
+        String header = readLine(channel, buffer);  // Comando.
+        watchdog.progress();  // Intestazione arrivata.
+        String[] parts = header.split(" ", 4);  // Comando, argomenti e nome.
+        if (parts[0].equals("PUT") && parts.length == 4) {
+            long size;
+            try {
+                size = Long.parseLong(parts[2]);  // Byte annunciati.
+            } catch (NumberFormatException e) {  // Dimensione non numerica.
+                size = -1;
+            }
+            String name = cleanName(parts[3]);  // Nome senza percorsi né caratteri di controllo.
+            if (!tokens.contains(parts[1])) writeLine(channel, "ERR not authorized");  // Nessuna sessione di chat aperta con questo gettone.
+            else if (size < 0 || size > Math.min(MAX_SIZE, QUOTA)) writeLine(channel, "ERR file larger than " + Math.min(MAX_SIZE, QUOTA) + " bytes");  // Fuori dai limiti.
+            else if (name.isEmpty()) writeLine(channel, "ERR invalid name");  // Nome vuoto.
+            else if (!reserve(size)) writeLine(channel, "ERR storage full");  // Caricamenti in corso oltre la quota.
+            else receive(channel, buffer, size, name, watchdog);  // Caricamento.
+        } else if (parts[0].equals("GET") && parts.length == 2) {
+            transmit(channel, parts[1], watchdog);  // Scaricamento.
+        } else {
+            writeLine(channel, "ERR invalid request");  // Comando sconosciuto.
+        }
+    }
+
+    private void receive(SocketChannel channel, ByteBuffer buffer, long size, String name, Watchdog watchdog) throws IOException {  // Scrive il contenuto, già riservato nella quota, nella directory di appoggio e lo registra.
+        String id = newId();  // Identificativo del file.
+        Path part = directory.resolve(id + ".part");  // File in scrittura.
+        Path path = directory.resolve(id + ".file");  // File completo.
+        try {
+            try (FileChannel file = FileChannel.open(part, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                writeLine(channel, "GO");  // Intestazione accettata: il client invia il contenuto solo ora, e un rifiuto arriva prima del contenuto.
+                long position = 0;  // Byte scritti.
+                if (buffer.remaining() > size) buffer.limit(buffer.position() + (int) size);  // Ignora i byte oltre la dimensione annunciata.
+                while (buffer.hasRemaining()) position += file.write(buffer, position);  // Byte arrivati con l'intestazione.
+                while (position < size) {  // Il resto va dal socket al file senza passare dallo heap.
+                    long count = file.transferFrom(channel, position, Math.min(CHUNK, size - position));  // Byte copiati.
+                    if (count == 0) throw new EOFException("Upload truncated at " + position + " of " + size + " bytes");  // Socket bloccante: zero solo a fine flusso.
+                    position += count;
+                    watchdog.progress();  // Blocco ricevuto.
+                }
+            }
+            Files.move(part, path, StandardCopyOption.ATOMIC_MOVE);  // Visibile solo se completo.
+        } catch (IOException e) {  // Caricamento incompleto o file non rinominabile.
+            deleteQuietly(part);  // Nessun file parziale.
+            release(size);  // Libera la quota.
+            throw e;
+        }
+        register(id, new Entry(name, size, path));  // Da qui può essere annunciato.
+        ServerMetrics.FILES_IN.increment();  // Conta il file.
+        ServerMetrics.FILE_BYTES_IN.add(size);  // E i suoi byte.
+        writeLine(channel, "OK " + id);  // Il client annuncia il file con "/share <id>".
+        status.accept("File " + id + " stored: " + name + " (" + size + " bytes)");  // Visualizza il caricamento nel log.
+    }
+
+    private void transmit(SocketChannel channel, String id, Watchdog watchdog) throws IOException {  // Invia un file con transferTo.
+        Entry entry;
+        synchronized (files) {
+            entry = files.get(id);  // File richiesto.
+        }
+        FileChannel file;
+        try {
+            file = entry != null ? FileChannel.open(entry.path, StandardOpenOption.READ) : null;  // Il file resta leggibile anche se eliminato durante l'invio.
+        } catch (IOException e) {  // Eliminato tra la ricerca e l'apertura.
+            file = null;
+        }
+        if (file == null) {
+            writeLine(channel, "ERR unknown file");  // Identificativo scaduto o inventato.
+            return;
+        }
+        try (FileChannel source = file) {
+            writeLine(channel, "OK " + entry.size + " " + entry.name);  // Intestazione.
+            long position = 0;  // Byte inviati.
+            while (position < entry.size) {  // sendfile: dalla cache dei file al socket, senza copie nello heap.
+                long count = source.transferTo(position, Math.min(CHUNK, entry.size - position), channel);  // Byte inviati.
+                if (count == 0) throw new EOFException("File " + id + " truncated at " + position + " of " + entry.size + " bytes");  // Socket bloccante: zero solo a fine file.
+                position += count;
+                watchdog.progress();  // Blocco inviato.
+            }
+        }
+        ServerMetrics.FILE_BYTES_OUT.add(entry.size);  // Conta i byte inviati.
+    }
+
+    private void register(String id, Entry entry) {  // Registra un file, i cui byte sono già riservati, eliminando i più vecchi oltre il limite.
+        synchronized (files) {
+            files.put(id, entry);  // Il più recente.
+            Iterator<Entry> oldest = files.values().iterator();  // Dal più vecchio.
+            while (files.size() > Math.max(1, MAX_FILES)) evict(oldest);  // Oltre il limite.
+        }
+    }
+
+    private boolean reserve(long size) {  // Riserva i byte di un caricamento nella quota, eliminando i file più vecchi; false se i caricamenti in corso la occupano.
+        synchronized (files) {
+            Iterator<Entry> oldest = files.values().iterator();  // Dal più vecchio.
+            while (reserved + size > QUOTA && oldest.hasNext()) evict(oldest);  // Fa posto.
+            if (reserved + size > QUOTA) return false;  // Restano solo caricamenti in corso.
+            reserved += size;  // Spazio del nuovo file.
+            return true;
+        }
+    }
+
+    private void release(long size) {  // Restituisce alla quota i byte di un caricamento fallito.
+        synchronized (files) {
+            reserved -= size;
+        }
+    }
+
+    private void evict(Iterator<Entry> oldest) {  // Elimina il file indicato dall'iteratore (con il lock di files).
+        Entry entry = oldest.next();  // File più vecchio.
+        deleteQuietly(entry.path);  // Gli scaricamenti in corso finiscono comunque.
+        oldest.remove();
+        reserved -= entry.size;  // Libera la quota.
+    }
+
+    private String newId() {  // Restituisce un nuovo identificativo di 16 cifre esadecimali.
+        return String.format("%016x", random.nextLong());
+    }
+
+    static String notice(String id, long size, String name) {  // Costruisce l'avviso di un file condiviso.
+        return NOTICE + " " + id + " " + size + " " + name;
+    }
+
+    static String[] parseNotice(String text) {  // Restituisce identificativo, byte e nome di un avviso, o null se il testo non è un avviso.
+        if (!text.startsWith(NOTICE + " ")) return null;  // Messaggio di chat.
+        String[] parts = text.substring(NOTICE.length() + 1).split(" ", 3);  // Identificativo, byte e nome.
+        return parts.length == 3 ? parts : null;
+    }
+
+    static String upload(InetSocketAddress address, String token, Path path) throws IOException {  // Carica un file sul server con il gettone della sessione (client); restituisce l'identificativo da annunciare.
+        try (SocketChannel channel = SocketChannel.open(address);
+             FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = file.size();  // Byte da inviare.
+            writeLine(channel, "PUT " + token + " " + size + " " + cleanName(path.getFileName().toString()));  // Intestazione.
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER);  // Risposte del server.
+            String reply = readLine(channel, buffer);  // Accettazione o rifiuto dell'intestazione.
+            if (reply.equals("GO")) {  // Il server attende il contenuto.
+                long position = 0;  // Byte inviati.
+                while (position < size) {  // Anche il client invia senza passare dallo heap.
+                    long count = file.transferTo(position, Math.min(CHUNK, size - position), channel);  // Byte inviati.
+                    if (count == 0) throw new EOFException(path + " truncated at " + position + " of " + size + " bytes");  // File accorciato durante l'invio.
+                    position += count;
+                }
+                reply = readLine(channel, buffer);  // Esito del caricamento.
+            }
+            if (!reply.startsWith("OK ")) throw new IOException(reply.startsWith("ERR ") ? reply.substring(4) : "Invalid reply " + reply);  // Rifiutato.
+            return reply.substring(3);
+        }
+    }
+
+    static long download(InetSocketAddress address, String id, Path target) throws IOException {  // Scarica un file dal server (client); restituisce i byte scritti.
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            writeLine(channel, "GET " + id);  // Richiesta.
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER);  // Intestazione ed eventuali primi byte del contenuto.
+            String reply = readLine(channel, buffer);  // Risposta del server.
+            if (!reply.startsWith("OK ")) throw new IOException(reply.startsWith("ERR ") ? reply.substring(4) : "Invalid reply " + reply);  // File sconosciuto.
+            long size;
+            try {
+                size = Long.parseLong(reply.split(" ", 3)[1]);  // Byte in arrivo.
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {  // Risposta corrotta.
+                throw new IOException("Invalid reply " + reply, e);
+            }
+            try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long position = 0;  // Byte scritti.
+                if (buffer.remaining() > size) buffer.limit(buffer.position() + (int) size);  // Ignora eventuali byte in più.
+                while (buffer.hasRemaining()) position += file.write(buffer, position);  // Byte arrivati con l'intestazione.
+                while (position < size) {  // Il resto va dal socket al file.
+                    long count = file.transferFrom(channel, position, Math.min(CHUNK, size - position));  // Byte copiati.
+                    if (count == 0) throw new EOFException("Download truncated at " + position + " of " + size + " bytes");  // Il server ha chiuso.
+                    position += count;
+                }
+                return position;
+            }
+        }
+    }
+
+    private static String readLine(SocketChannel channel, ByteBuffer buffer) throws IOException {  // Legge un'intestazione; all'uscita il buffer contiene i byte successivi, pronti da leggere.
+        buffer.clear();  // Buffer vuoto.
+        int scanned = 0;  // Byte già esaminati.
+        while (true) {
+            for (; scanned < buffer.position(); scanned++) {  // Cerca la fine della riga tra i byte nuovi.
+                if (buffer.get(scanned) != '\n') continue;
+                String line = new String(buffer.array(), 0, scanned, StandardCharsets.UTF_8);  // Intestazione.
+                buffer.limit(buffer.position()).position(scanned + 1);  // Restano i byte del contenuto.
+                return line;
+            }
+            if (!buffer.hasRemaining()) throw new IOException("Header longer than " + MAX_HEADER + " bytes");  // Intestazione corrotta.
+            if (channel.read(buffer) < 0) throw new EOFException("Connection closed before the header");  // Connessione chiusa.
+        }
+    }
+
+    private static void writeLine(SocketChannel channel, String line) throws IOException {  // Scrive un'intestazione completa.
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));  // Riga in UTF-8.
+        while (buffer.hasRemaining()) channel.write(buffer);  // Canale bloccante: scrive tutto.
+    }
+
+    private static String cleanName(String name) {  // Restituisce il nome senza directory, caratteri di controllo né lunghezze eccessive.
+        name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);  // Solo l'ultimo elemento del percorso.
+        StringBuilder clean = new StringBuilder(name.length());  // Nome ripulito.
+        for (int i = 0; i < name.length() && clean.length() < 255; i++) {  // Al più 255 caratteri.
+            char c = name.charAt(i);  // Carattere corrente.
+            clean.append(Character.isISOControl(c) ? '_' : c);  // Nessun a capo nelle intestazioni.
+        }
+        return clean.toString().trim();
+    }
+
+    private static void closeQuietly(SocketChannel channel) {  // Chiude un canale ignorando gli errori.
+        try {
+            channel.close();
+        } catch (IOException ignored) {  // Ignora gli errori di chiusura.
+        }
+    }
+
+    private static void deleteQuietly(Path path) {  // Elimina un file ignorando gli errori.
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {  // Ignora gli errori di eliminazione.
+        }
+    }
+
+    private final class Watchdog extends TimerWheel.Timeout {  // Chiude un trasferimento che non avanza: un canale bloccante non ha timeout di lettura.
+        final SocketChannel channel;  // Canale del trasferimento.
+        volatile long lastProgress = System.nanoTime();  // Istante dell'ultimo progresso.
+        volatile boolean expired;  // True se il trasferimento è stato chiuso per inattività.
+
+        Watchdog(SocketChannel channel) {  // Costruttore del controllo.
+            this.channel = channel;  // Imposta il canale.
+        }
+
+        void progress() {  // Segna un progresso; la ruota non viene toccata.
+            lastProgress = System.nanoTime();
+        }
+
+        @Override
+        protected void expire() {  // Chiude il canale se fermo, altrimenti ricontrolla alla nuova scadenza.
+            long idle = System.nanoTime() - lastProgress;  // Tempo senza progressi.
+            long limit = TIMEOUT_SECONDS * 1_000_000_000L;  // Limite.
+            if (idle < limit) {  // Ha fatto progressi dall'ultimo controllo.
+                timers.schedule(this, limit - idle);
+                return;
+            }
+            expired = true;  // Per il log.
+            closeQuietly(channel);  // Sblocca la lettura o la scrittura in corso.
+        }
+    }
+
+    private static final class Entry {  // File condiviso.
+        final String name;  // Nome originale.
+        final long size;  // Byte.
+        final Path path;  // File nella directory di appoggio.
+
+        Entry(String name, long size, Path path) {  // Costruttore del file.
+            this.name = name;  // Imposta il nome.
+            this.size = size;  // Imposta la dimensione.
+            this.path = path;  // Imposta il percorso.
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.concurrent.atomic.AtomicLong;  // Importa un long atomico.
+import java.util.concurrent.atomic.AtomicLongArray;  // Importa un array di long atomici.
+
+final class LatencyHistogram {  // Istogramma log-lineare senza lock: ogni registrazione costa un incremento atomico, con un errore relativo di circa il 6%.
+    private static final int SUB_BUCKET_BITS = 4;  // 16 sotto-intervalli per ogni potenza di due.
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;  // Numero di sotto-intervalli.
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;  // Copre tutti i valori long positivi.
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);  // Conteggi per intervallo.
+    private final AtomicLong total = new AtomicLong();  // Numero di valori registrati.
+    private final AtomicLong sum = new AtomicLong();  // Somma dei valori registrati.
+    private final AtomicLong max = new AtomicLong();  // Valore massimo registrato.
+
+    void record(long value) {  // Registra un valore (per esempio una latenza in nanosecondi).
+        if (value < 0) value = 0;  // I valori negativi (orologi non monotoni) contano come zero.
+        counts.incrementAndGet(index(value));  // Incrementa l'intervallo del valore.
+        total.incrementAndGet();  // Aggiorna il numero di valori.
+        sum.addAndGet(value);  // Aggiorna la somma.
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {  // Aggiorna il massimo senza lock.
+            Thread.onSpinWait();  // Attende brevemente prima di riprovare.
+        }
+    }
+
+    long count() {  // Restituisce il numero di valori registrati.
+        return total.get();
+    }
+
+    long max() {  // Restituisce il valore massimo registrato.
+        return max.get();
+    }
+
+    double mean() {  // Restituisce la media dei valori registrati.
+        long count = total.get();  // Numero di valori.
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    long percentile(double percentile) {  // Restituisce il valore sotto cui cade la percentuale indicata di registrazioni (limite superiore dell'intervallo).
+        long count = total.get();  // Numero di valori.
+        if (count == 0) return 0;  // Istogramma vuoto.
+        long rank = (long) Math.ceil(percentile / 100.0 * count);  // Posizione del percentile.
+        long seen = 0;  // Valori già attraversati.
+        for (int i = 0; i < BUCKETS; i++) {  // Scorre gli intervalli in ordine crescente.
+            seen += counts.get(i);  // Accumula i conteggi.
+            if (seen >= Math.max(1, rank)) return Math.min(upperBound(i), max.get());  // Intervallo che contiene il percentile.
+        }
+        return max.get();  // Registrazioni concorrenti: restituisce il massimo.
+    }
+
+    void reset() {  // Azzera l'istogramma (le registrazioni concorrenti possono andare perse o sopravvivere).
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);  // Azzera i conteggi.
+        total.set(0);  // Azzera il numero di valori.
+        sum.set(0);  // Azzera la somma.
+        max.set(0);  // Azzera il massimo.
+    }
+
+    private static int index(long value) {  // Calcola l'intervallo di un valore.
+        if (value < 2 * SUB_BUCKETS) return (int) value;  // Valori piccoli: un intervallo per valore.
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;  // Bit da scartare per restare in 16 sotto-intervalli.
+        return shift * SUB_BUCKETS + (int) (value >>> shift);  // Indice log-lineare (value >>> shift è tra 16 e 31).
+    }
+
+    private static long upperBound(int index) {  // Restituisce il valore massimo contenuto in un intervallo.
+        if (index < 2 * SUB_BUCKETS) return index;  // Intervalli esatti.
+        int shift = index / SUB_BUCKETS - 1;  // Bit scartati per questo intervallo.
+        long lower = (long) (index - shift * SUB_BUCKETS) << shift;  // Limite inferiore.
+        return lower + (1L << shift) - 1;  // Limite superiore.
+    }
+}
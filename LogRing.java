@@ -0,0 +1,49 @@
+import java.util.function.Consumer;  // Importa l'interfaccia funzionale per i consumatori.
+
+// Buffer circolare limitato di righe di log: i thread di rete scrivono senza mai attendere l'interfaccia,
+// che legge a intervalli regolari tutte le righe accumulate in un solo passaggio. Quando il lettore resta indietro
+// le righe più vecchie vengono sovrascritte e contate; la memoria occupata non dipende dal traffico.
+final class LogRing {  // Righe di log in attesa di essere visualizzate.
+    static final int CAPACITY = Integer.getInteger("chat.ui.buffer", 1000);  // Righe trattenute tra due letture.
+    static final int REFRESH_MILLIS = Integer.getInteger("chat.ui.refresh", 100);  // Millisecondi tra due letture.
+
+    private final String[] lines;  // Righe, indicizzate per numero modulo la capacità.
+    private long written;  // Righe scritte in totale.
+    private long read;  // Righe lette (o sovrascritte) in totale.
+    private long skipped;  // Righe sovrascritte prima della lettura, non ancora segnalate.
+
+    LogRing() {  // Costruttore con la capacità configurata.
+        this(CAPACITY);
+    }
+
+    LogRing(int capacity) {  // Costruttore con la capacità indicata.
+        this.lines = new String[Math.max(1, capacity)];  // Almeno una riga.
+    }
+
+    synchronized void append(String line) {  // Aggiunge una riga, sovrascrivendo la più vecchia se il buffer è pieno.
+        lines[(int) (written++ % lines.length)] = line;  // Scrive nella posizione successiva.
+        if (written - read > lines.length) {  // Il lettore è rimasto indietro.
+            read++;  // La riga più vecchia è persa.
+            skipped++;  // Da segnalare alla prossima lettura.
+        }
+    }
+
+    int drainTo(StringBuilder out) {  // Accoda al builder le righe in attesa, una per riga; restituisce quante sono state lette.
+        return drainTo(line -> out.append(line).append('\n'));  // Ogni riga termina con un a capo.
+    }
+
+    synchronized int drainTo(Consumer<String> sink) {  // Passa al consumatore le righe in attesa, dalla più vecchia; restituisce quante sono state lette.
+        int count = 0;  // Righe lette.
+        if (skipped > 0) {  // Segnala le righe perse.
+            sink.accept("... " + skipped + " lines skipped");
+            skipped = 0;
+        }
+        while (read < written) {  // Fino all'ultima riga scritta.
+            int index = (int) (read++ % lines.length);  // Posizione della riga.
+            sink.accept(lines[index]);  // Consegna la riga.
+            lines[index] = null;  // Libera la stringa.
+            count++;
+        }
+        return count;
+    }
+}
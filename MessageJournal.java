@@ -0,0 +1,305 @@
+import java.io.DataInputStream;  // Importa il flusso per leggere tipi primitivi.
+import java.io.DataOutputStream;  // Importa il flusso per scrivere tipi primitivi.
+import java.io.IOException;  // Importa l'eccezione per gli errori di input/output.
+import java.nio.ByteBuffer;  // Importa i buffer di byte.
+import java.nio.MappedByteBuffer;  // Importa i buffer mappati in memoria.
+import java.nio.channels.FileChannel;  // Importa il canale dei file.
+import java.nio.charset.StandardCharsets;  // Importa le codifiche standard.
+import java.nio.file.Files;  // Importa le utilità per i file.
+import java.nio.file.Path;  // Importa i percorsi dei file.
+import java.nio.file.StandardOpenOption;  // Importa le opzioni di apertura dei file.
+import java.util.ArrayDeque;  // Importa la coda a doppia estremità.
+import java.util.ArrayList;  // Importa la lista dinamica.
+import java.util.Arrays;  // Importa le utilità per gli array.
+import java.util.Deque;  // Importa l'interfaccia delle code a doppia estremità.
+import java.util.List;  // Importa l'interfaccia delle liste.
+import java.util.function.ObjLongConsumer;  // Importa il consumatore di un oggetto e di un long.
+import java.util.stream.Stream;  // Importa gli stream dei file della directory.
+
+// Giornale append-only dei messaggi inoltrati, diviso in segmenti mappati in memoria.
+// Ogni record è il frame TYPE_MESSAGE del messaggio, byte per byte come viaggia sul filo: la ripetizione verso un client
+// che si riconnette accoda direttamente fette in sola lettura dei segmenti, senza copiarle nello heap.
+// File per segmento, nella directory chat.journal.dir:
+//   <primo numero di sequenza>.log  record contigui; una lunghezza zero segna la fine dei dati scritti
+//   <primo numero di sequenza>.idx  indice sparso (scritto alla chiusura del segmento): ultimo seq, fine, coppie (seq, posizione)
+final class MessageJournal {  // Assegna i numeri di sequenza, registra ogni broadcast, ne ripete il seguito dopo un numero dato e ne restituisce il testo per la ricerca.
+    private static final int INDEX_INTERVAL = 4096;  // Byte di record tra due voci dell'indice sparso.
+    private static final int REPLAY_CHUNK = 256 * 1024;  // Byte per messaggio accodato durante la ripetizione (sempre record interi).
+
+    private final Path directory;  // Directory dei segmenti.
+    private final int segmentSize;  // Dimensione di ogni segmento mappato.
+    private final long replayLimit;  // Byte massimi ripetuti a un client (i più recenti).
+    private final List<Segment> segments = new ArrayList<>();  // Segmenti in ordine di sequenza; l'ultimo è quello attivo.
+    private long lastSeq;  // Ultimo numero di sequenza assegnato.
+    private boolean failed;  // True dopo un errore di scrittura: i messaggi continuano senza persistenza.
+
+    private MessageJournal(Path directory, int segmentSize, long replayLimit) {  // Costruttore privato: usare open.
+        this.directory = directory;  // Imposta la directory.
+        this.segmentSize = Math.max(segmentSize, ChatProtocol.MAX_FRAME + 4);  // Ogni segmento contiene almeno un record massimo: append rifiuta quelli più lunghi.
+        this.replayLimit = replayLimit;  // Imposta il limite di ripetizione.
+    }
+
+    static MessageJournal open() throws IOException {  // Apre il giornale configurato dalle proprietà di sistema, o null se disabilitato.
+        String directory = System.getProperty("chat.journal.dir", "chat-journal");  // Directory dei segmenti (vuota per disabilitare).
+        if (directory.isEmpty()) return null;  // Giornale disabilitato.
+        MessageJournal journal = new MessageJournal(Path.of(directory),
+                Integer.getInteger("chat.journal.segment", 64 * 1024 * 1024),
+                Long.getLong("chat.journal.replay.max", 8 * 1024 * 1024));  // Dimensioni configurabili.
+        journal.recover();  // Ricostruisce lo stato dai file esistenti.
+        return journal;
+    }
+
+    synchronized long head() {  // Restituisce l'ultimo numero di sequenza assegnato.
+        return lastSeq;
+    }
+
+    Path directory() {  // Restituisce la directory dei segmenti.
+        return directory;
+    }
+
+    synchronized ChatMessage append(String text) throws IOException {  // Assegna il prossimo numero di sequenza e registra il messaggio; lancia un'eccezione, senza consumare il numero, se il messaggio supera MAX_PAYLOAD.
+        ChatMessage message = new ChatMessage(lastSeq + 1, text);  // Messaggio con il nuovo numero di sequenza.
+        if (!message.fitsFrame()) {  // Stesso limite della scansione in recover: un record più lungo verrebbe preso per la fine dei dati.
+            message.release();  // Il messaggio non verrà inoltrato.
+            throw new IOException("Message exceeds " + ChatProtocol.MAX_PAYLOAD + " bytes");
+        }
+        lastSeq = message.seq;  // Aggiorna l'ultimo numero assegnato.
+        if (failed) return message;  // Persistenza sospesa dopo un errore.
+        try {
+            ByteBuffer frame = message.frame().view();  // Stessa codifica usata per i client a frame: codificata una sola volta.
+            Segment active = segments.get(segments.size() - 1);  // Segmento attivo.
+            if (frame.remaining() > segmentSize - active.end) active = roll();  // Segmento pieno: ne apre uno nuovo.
+            int position = active.end;  // Inizio del record.
+            ByteBuffer target = active.buffer.duplicate();  // Vista indipendente sul segmento.
+            target.position(position + 4);  // La lunghezza si scrive per ultima: un record a metà resta invisibile.
+            frame.position(4);  // Tipo, sequenza e payload.
+            target.put(frame);  // Copia il frame nella memoria mappata.
+            active.buffer.putInt(position, target.position() - position - 4);  // Pubblica il record.
+            active.record(message.seq, position, target.position());  // Aggiorna fine, ultimo seq e indice sparso.
+        } catch (IOException e) {  // Disco pieno o directory non scrivibile.
+            failed = true;  // Continua senza persistenza.
+            e.printStackTrace();  // Stampa le informazioni di eccezione.
+        }
+        return message;
+    }
+
+    synchronized List<EncodedMessage> replay(long since) {  // Restituisce i record con sequenza maggiore di since, come fette dei segmenti (al più replayLimit byte, i più recenti).
+        Deque<EncodedMessage> chunks = new ArrayDeque<>();  // Fette da accodare, in ordine.
+        long total = 0;  // Byte nelle fette.
+        for (Segment segment : segments) {  // Scorre i segmenti in ordine.
+            if (segment.lastSeq <= since || segment.end == 0) continue;  // Segmento già visto dal client.
+            ByteBuffer buffer;
+            try {
+                buffer = segment.map();  // Mappa il segmento, se non lo è già.
+            } catch (IOException e) {  // Segmento illeggibile.
+                e.printStackTrace();  // Stampa le informazioni di eccezione.
+                continue;
+            }
+            int position = segment.find(buffer, since + 1);  // Primo record da ripetere.
+            while (position < segment.end) {  // Divide il resto del segmento in fette di record interi.
+                int chunkEnd = position;  // Fine della fetta.
+                do chunkEnd += 4 + buffer.getInt(chunkEnd);  // Aggiunge il record successivo.
+                while (chunkEnd < segment.end && chunkEnd - position < REPLAY_CHUNK);  // Fino alla dimensione della fetta.
+                ByteBuffer slice = buffer.duplicate();  // Vista sulla fetta.
+                slice.limit(chunkEnd).position(position);  // Limita la vista ai record.
+                chunks.addLast(EncodedMessage.wrap(slice.slice()));  // Fetta non riciclabile, condivisa con il segmento.
+                total += chunkEnd - position;  // Aggiorna il totale.
+                while (total > replayLimit && chunks.size() > 1) total -= chunks.removeFirst().length();  // Conserva solo i record più recenti.
+                position = chunkEnd;  // Passa alla fetta successiva.
+            }
+        }
+        return new ArrayList<>(chunks);
+    }
+
+    synchronized String read(long seq) {  // Restituisce il testo del messaggio con il numero di sequenza dato, o null se non è nel giornale.
+        for (int i = segments.size() - 1; i >= 0; i--) {  // Dal segmento più recente.
+            Segment segment = segments.get(i);  // Segmento candidato.
+            if (seq < segment.base) continue;  // Messaggio più vecchio.
+            if (seq > segment.lastSeq) return null;  // Messaggio mai registrato.
+            ByteBuffer buffer;
+            try {
+                buffer = segment.map();  // Mappa il segmento, se non lo è già.
+            } catch (IOException e) {  // Segmento illeggibile.
+                e.printStackTrace();  // Stampa le informazioni di eccezione.
+                return null;
+            }
+            int position = segment.find(buffer, seq);  // Indice sparso e al più INDEX_INTERVAL byte di scansione.
+            if (position >= segment.end || buffer.getLong(position + 5) != seq) return null;  // Record mancante.
+            return decode(buffer, position);
+        }
+        return null;
+    }
+
+    synchronized void forEach(ObjLongConsumer<String> visitor) {  // Passa al visitatore il testo e il numero di sequenza di ogni messaggio registrato, in ordine.
+        for (Segment segment : segments) {  // Segmenti in ordine di sequenza.
+            if (segment.end == 0) continue;  // Segmento vuoto.
+            ByteBuffer buffer;
+            try {
+                buffer = segment.map();  // Mappa il segmento, se non lo è già.
+            } catch (IOException e) {  // Segmento illeggibile.
+                e.printStackTrace();  // Stampa le informazioni di eccezione.
+                continue;
+            }
+            for (int position = 0; position < segment.end; position += 4 + buffer.getInt(position)) {  // Record contigui.
+                visitor.accept(decode(buffer, position), buffer.getLong(position + 5));  // Testo e numero di sequenza.
+            }
+        }
+    }
+
+    private static String decode(ByteBuffer buffer, int position) {  // Decodifica il testo del record alla posizione data.
+        ByteBuffer payload = buffer.duplicate();  // Vista indipendente sul segmento.
+        payload.limit(position + 4 + buffer.getInt(position)).position(position + ChatProtocol.HEADER_SIZE);  // Solo il payload.
+        return StandardCharsets.UTF_8.decode(payload).toString();
+    }
+
+    synchronized void close() {  // Scrive l'indice del segmento attivo e forza i dati su disco.
+        if (segments.isEmpty() || failed) return;  // Niente da salvare.
+        Segment active = segments.get(segments.size() - 1);  // Segmento attivo.
+        try {
+            active.buffer.force();  // Forza i record su disco.
+            active.writeIndex();  // Salva l'indice sparso.
+        } catch (IOException e) {  // Errore di scrittura.
+            e.printStackTrace();  // Stampa le informazioni di eccezione.
+        }
+    }
+
+    private void recover() throws IOException {  // Ricostruisce i segmenti dai file esistenti e apre il segmento attivo.
+        Files.createDirectories(directory);  // Crea la directory se necessario.
+        List<Long> bases = new ArrayList<>();  // Primi numeri di sequenza dei segmenti.
+        try (Stream<Path> files = Files.list(directory)) {  // Elenca i file della directory.
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.matches("\\d{20}\\.log"))
+                    .forEach(name -> bases.add(Long.parseLong(name.substring(0, 20))));  // Segmenti riconosciuti.
+        }
+        bases.sort(null);  // In ordine di sequenza.
+        for (int i = 0; i < bases.size(); i++) {  // Carica i segmenti.
+            Segment segment = new Segment(bases.get(i));  // Segmento da caricare.
+            boolean active = i == bases.size() - 1;  // L'ultimo resta scrivibile.
+            if (active || !segment.readIndex()) segment.scan(active);  // L'indice manca o il segmento è ancora aperto: scansiona i record.
+            segments.add(segment);  // Aggiunge il segmento.
+            lastSeq = Math.max(lastSeq, segment.lastSeq);  // Aggiorna l'ultimo numero di sequenza.
+        }
+        if (segments.isEmpty()) {  // Primo avvio.
+            Segment segment = new Segment(1);  // Primo segmento.
+            segment.buffer = segment.mapWritable();  // Crea il file mappato.
+            segments.add(segment);  // Aggiunge il segmento.
+        }
+    }
+
+    private Segment roll() throws IOException {  // Chiude il segmento attivo e ne apre uno nuovo.
+        Segment full = segments.get(segments.size() - 1);  // Segmento pieno.
+        full.buffer.force();  // Forza i record su disco.
+        full.writeIndex();  // Salva l'indice sparso.
+        Segment next = new Segment(lastSeq);  // Il prossimo record ha il numero appena assegnato.
+        next.buffer = next.mapWritable();  // Crea il file mappato.
+        segments.add(next);  // Diventa il segmento attivo.
+        return next;
+    }
+
+    private final class Segment {  // Un file di record contigui con il suo indice sparso.
+        final long base;  // Numero di sequenza del primo record.
+        MappedByteBuffer buffer;  // Mappatura del file (creata al primo uso per i segmenti chiusi).
+        int end;  // Byte di record scritti.
+        long lastSeq;  // Numero di sequenza dell'ultimo record (base - 1 se vuoto).
+        long[] indexSeqs = new long[16];  // Numeri di sequenza delle voci dell'indice.
+        int[] indexPositions = new int[16];  // Posizioni delle voci dell'indice.
+        int indexSize;  // Voci dell'indice.
+
+        Segment(long base) {  // Costruttore del segmento.
+            this.base = base;  // Imposta il primo numero di sequenza.
+            this.lastSeq = base - 1;  // Segmento vuoto.
+        }
+
+        Path file(String extension) {  // Restituisce il percorso di un file del segmento.
+            return directory.resolve(String.format("%020d.%s", base, extension));  // Nome ordinabile.
+        }
+
+        MappedByteBuffer mapWritable() throws IOException {  // Mappa il file in lettura e scrittura, estendendolo alla dimensione del segmento.
+            try (FileChannel channel = FileChannel.open(file("log"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, channel.size()));  // La mappatura resta valida dopo la chiusura del canale.
+            }
+        }
+
+        MappedByteBuffer map() throws IOException {  // Restituisce la mappatura del segmento, mappandolo in sola lettura se necessario.
+            if (buffer == null) {  // Segmento chiuso non ancora letto.
+                try (FileChannel channel = FileChannel.open(file("log"), StandardOpenOption.READ)) {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());  // Mappa l'intero file.
+                }
+            }
+            return buffer;
+        }
+
+        void record(long seq, int position, int newEnd) {  // Registra un record appena scritto.
+            if (indexSize == 0 || position - indexPositions[indexSize - 1] >= INDEX_INTERVAL) addIndex(seq, position);  // Voce sparsa.
+            end = newEnd;  // Aggiorna la fine.
+            lastSeq = seq;  // Aggiorna l'ultimo numero di sequenza.
+        }
+
+        void addIndex(long seq, int position) {  // Aggiunge una voce all'indice sparso.
+            if (indexSize == indexSeqs.length) {  // Indice pieno.
+                indexSeqs = Arrays.copyOf(indexSeqs, indexSize * 2);  // Raddoppia la capacità.
+                indexPositions = Arrays.copyOf(indexPositions, indexSize * 2);
+            }
+            indexSeqs[indexSize] = seq;  // Numero di sequenza.
+            indexPositions[indexSize++] = position;  // Posizione del record.
+        }
+
+        int find(ByteBuffer buffer, long seq) {  // Restituisce la posizione del primo record con sequenza almeno seq.
+            if (seq <= base) return 0;  // Dall'inizio del segmento.
+            int low = 0, high = indexSize - 1, position = 0;  // Ricerca binaria della voce precedente.
+            while (low <= high) {
+                int middle = (low + high) >>> 1;  // Voce centrale.
+                if (indexSeqs[middle] <= seq) {  // La voce precede il record cercato.
+                    position = indexPositions[middle];  // Candidata.
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            while (position < end && buffer.getLong(position + 5) < seq) position += 4 + buffer.getInt(position);  // Scorre al più INDEX_INTERVAL byte.
+            return position;
+        }
+
+        void scan(boolean writable) throws IOException {  // Ricostruisce fine, ultimo seq e indice leggendo i record.
+            buffer = writable ? mapWritable() : map();  // Mappa il segmento.
+            int position = 0;  // Posizione corrente.
+            long expected = base;  // I numeri di sequenza sono contigui.
+            while (position + ChatProtocol.HEADER_SIZE <= buffer.capacity()) {  // Fino alla fine del file.
+                int length = buffer.getInt(position);  // Lunghezza del record.
+                if (length < 9 || length > ChatProtocol.MAX_FRAME || position + 4 + length > buffer.capacity()) break;  // Fine dei dati o record troncato.
+                if (buffer.getLong(position + 5) != expected) break;  // Dati residui di un record non pubblicato.
+                record(expected++, position, position + 4 + length);  // Registra il record.
+                position += 4 + length;  // Passa al record successivo.
+            }
+        }
+
+        void writeIndex() throws IOException {  // Salva l'indice sparso accanto al segmento.
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file("idx")))) {
+                out.writeLong(lastSeq);  // Ultimo numero di sequenza.
+                out.writeInt(end);  // Fine dei record.
+                out.writeInt(indexSize);  // Numero di voci.
+                for (int i = 0; i < indexSize; i++) {  // Voci dell'indice.
+                    out.writeLong(indexSeqs[i]);  // Numero di sequenza.
+                    out.writeInt(indexPositions[i]);  // Posizione.
+                }
+            }
+        }
+
+        boolean readIndex() {  // Carica l'indice sparso salvato; false se manca o è illeggibile.
+            Path file = file("idx");  // File dell'indice.
+            if (!Files.exists(file)) return false;  // Indice mancante.
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+                lastSeq = in.readLong();  // Ultimo numero di sequenza.
+                end = in.readInt();  // Fine dei record.
+                int size = in.readInt();  // Numero di voci.
+                for (int i = 0; i < size; i++) addIndex(in.readLong(), in.readInt());  // Voci dell'indice.
+                return true;
+            } catch (IOException e) {  // Indice corrotto: si ricostruisce con una scansione.
+                lastSeq = base - 1;  // Azzera lo stato.
+                end = 0;
+                indexSize = 0;
+                return false;
+            }
+        }
+    }
+}
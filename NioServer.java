@@ -0,0 +1,305 @@
+import java.io.IOException;  // Importa l'eccezione per gli errori di input/output.
+import java.net.InetSocketAddress;  // Importa la classe per l'indirizzo di ascolto del server.
+import java.net.StandardSocketOptions;  // Importa le opzioni standard dei socket.
+import java.nio.ByteBuffer;  // Importa i buffer di byte usati per leggere e scrivere sui canali.
+import java.nio.channels.ClosedChannelException;  // Importa l'eccezione per i canali già chiusi.
+import java.nio.channels.SelectionKey;  // Importa le chiavi di selezione per gli eventi dei canali.
+import java.nio.channels.Selector;  // Importa il selettore per il multiplexing degli eventi.
+import java.nio.channels.ServerSocketChannel;  // Importa il canale del server per accettare connessioni.
+import java.nio.channels.SocketChannel;  // Importa il canale del socket dei client.
+import java.util.ArrayList;  // Importa la lista dinamica.
+import java.util.Iterator;  // Importa l'iteratore per rimuovere durante la visita.
+import java.util.List;  // Importa l'interfaccia delle liste.
+import java.util.Queue;  // Importa l'interfaccia delle code.
+import java.util.concurrent.ConcurrentLinkedQueue;  // Importa una coda thread-safe non bloccante.
+import java.util.concurrent.atomic.AtomicBoolean;  // Importa un booleano atomico.
+
+public class NioServer {  // Motore del server non bloccante basato su Selector, con un event loop per core.
+    private static final int READ_BUFFER_SIZE = 8192;  // Dimensione del buffer di lettura per connessione.
+
+    private final int port;  // Porta di ascolto del server.
+    private final ClientSession.Listener listener;  // Destinatario degli eventi delle connessioni.
+    private final EventLoop[] loops;  // Event loop che possiedono le connessioni.
+    private ServerSocketChannel serverChannel;  // Canale del server per accettare le connessioni.
+    private volatile boolean running;  // Stato del server, true se in esecuzione.
+
+    NioServer(int port, int workers, ClientSession.Listener listener) {  // Costruttore del motore NIO.
+        this.port = port;  // Imposta la porta di ascolto.
+        this.listener = listener;  // Imposta il destinatario degli eventi.
+        this.loops = new EventLoop[Math.max(1, workers)];  // Crea almeno un event loop.
+    }
+
+    void start() throws IOException {  // Metodo per avviare il server.
+        serverChannel = ServerSocketChannel.open();  // Apre il canale del server.
+        serverChannel.bind(new InetSocketAddress(port), ClientSession.ACCEPT_BACKLOG);  // Associa il canale alla porta, con la coda di accept configurata.
+        running = true;  // Imposta lo stato del server su in esecuzione.
+        for (int i = 0; i < loops.length; i++) {  // Avvia un event loop per ogni worker.
+            loops[i] = new EventLoop("nio-loop-" + i);  // Crea l'event loop con il suo selettore.
+            loops[i].start();  // Avvia il thread dell'event loop.
+        }
+        Thread acceptor = new Thread(this::acceptLoop, "nio-acceptor");  // Crea il thread che accetta le connessioni.
+        acceptor.start();  // Avvia il thread di accettazione.
+    }
+
+    void stop() {  // Metodo per fermare il server e chiudere tutte le connessioni.
+        running = false;  // Imposta lo stato del server su non in esecuzione.
+        try {
+            if (serverChannel != null) serverChannel.close();  // Chiude il canale del server, sbloccando accept().
+        } catch (IOException ignored) {  // Ignora gli errori di chiusura.
+        }
+        for (EventLoop loop : loops) {  // Ferma tutti gli event loop.
+            if (loop != null) loop.selector.wakeup();  // Risveglia il selettore così che il loop possa terminare.
+        }
+    }
+
+    private void acceptLoop() {  // Ciclo di accettazione delle connessioni in arrivo.
+        int next = 0;  // Indice del prossimo event loop in round-robin.
+        try {
+            while (running) {  // Continua finché il server è in esecuzione.
+                SocketChannel channel = serverChannel.accept();  // Accetta una connessione in entrata (bloccante).
+                if (!ClientSession.reserveSlot()) {  // Server pieno: rifiuto immediato, senza sessione né event loop.
+                    reject(channel);  // Chiude con un reset.
+                    continue;
+                }
+                try {
+                    channel.configureBlocking(false);  // Passa il canale in modalità non bloccante.
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);  // Disabilita Nagle per i messaggi di chat brevi.
+                    channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);  // Il kernel rileva anche i client senza heartbeat scomparsi.
+                } catch (IOException e) {  // Client già sparito (ad esempio un reset immediato): scarta solo questo canale.
+                    ClientSession.releaseSlot();  // La sessione non è mai nata.
+                    closeQuietly(channel);  // Chiude il canale.
+                    continue;
+                }
+                EventLoop loop = loops[next++ % loops.length];  // Sceglie l'event loop in round-robin.
+                loop.execute(() -> loop.register(channel));  // Registra il canale sul thread dell'event loop.
+            }
+        } catch (IOException e) {  // Il canale del server è stato chiuso o è fallito.
+            running = false;  // Segna il server come fermo.
+        }
+    }
+
+    private final class EventLoop extends Thread {  // Thread che gestisce un insieme fisso di connessioni.
+        private final Selector selector;  // Selettore per gli eventi delle connessioni possedute.
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();  // Compiti da eseguire sul thread del loop.
+        private final List<Connection> paused = new ArrayList<>();  // Connessioni con la lettura sospesa per i limiti di traffico (solo thread del loop).
+
+        EventLoop(String name) throws IOException {  // Costruttore dell'event loop.
+            super(name);  // Imposta il nome del thread.
+            selector = Selector.open();  // Apre il selettore.
+        }
+
+        void execute(Runnable task) {  // Esegue un compito sul thread dell'event loop.
+            tasks.add(task);  // Accoda il compito.
+            selector.wakeup();  // Risveglia il selettore per eseguirlo subito.
+        }
+
+        void register(SocketChannel channel) {  // Registra un nuovo canale su questo event loop.
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);  // Si registra per gli eventi di lettura.
+                Connection connection = new Connection(this, channel, key);  // Crea la connessione.
+                key.attach(connection);  // Associa la connessione alla chiave.
+                try {
+                    listener.onOpen(connection);  // Notifica la nuova connessione.
+                } catch (RuntimeException e) {  // Errore imprevisto all'apertura: chiude solo questa connessione.
+                    e.printStackTrace();  // Stampa le informazioni di eccezione.
+                    connection.closeNow();  // Libera canale e posto.
+                }
+            } catch (ClosedChannelException e) {  // Il canale è stato chiuso prima della registrazione.
+                ClientSession.releaseSlot();  // La sessione non è mai nata.
+                closeQuietly(channel);  // Chiude il canale.
+            }
+        }
+
+        void pause(Connection connection) {  // Sospende la lettura di una connessione fino al suo resumeAt.
+            paused.add(connection);  // Riprenderà in resumePaused.
+        }
+
+        private long selectTimeout() {  // Millisecondi di attesa del selettore: fino alla prossima ripresa (0 = nessun limite).
+            if (paused.isEmpty()) return 0;  // Nessuna connessione sospesa.
+            long earliest = Long.MAX_VALUE;  // Prossima ripresa.
+            for (Connection connection : paused) earliest = Math.min(earliest, connection.resumeAt);
+            return Math.max(1, (earliest - System.nanoTime() + 999_999) / 1_000_000);  // Almeno un millisecondo.
+        }
+
+        private void resumePaused() {  // Riprende la lettura delle connessioni la cui pausa è scaduta.
+            if (paused.isEmpty()) return;  // Nessuna connessione sospesa.
+            long now = System.nanoTime();  // Istante corrente.
+            for (Iterator<Connection> it = paused.iterator(); it.hasNext(); ) {  // Poche connessioni: visita lineare.
+                Connection connection = it.next();  // Connessione sospesa.
+                if (connection.resumeAt > now) continue;  // Pausa non ancora scaduta.
+                it.remove();  // Non più sospesa.
+                connection.resume();  // Torna ad ascoltare le letture.
+            }
+        }
+
+        @Override
+        public void run() {  // Ciclo principale dell'event loop.
+            try {
+                while (running) {  // Continua finché il server è in esecuzione.
+                    selector.select(selectTimeout());  // Attende eventi, un risveglio o la prossima ripresa.
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {  // Esegue i compiti accodati.
+                        try {
+                            task.run();  // Registrazione, flush o chiusura di una connessione.
+                        } catch (RuntimeException e) {  // Un compito difettoso non ferma il loop e le sue connessioni.
+                            e.printStackTrace();  // Stampa le informazioni di eccezione.
+                        }
+                    }
+                    resumePaused();  // Riprende le letture sospese scadute.
+                    for (SelectionKey key : selector.selectedKeys()) {  // Gestisce le chiavi pronte.
+                        Connection connection = (Connection) key.attachment();  // Recupera la connessione associata.
+                        if (!key.isValid()) continue;  // Salta le chiavi già cancellate.
+                        try {
+                            if (key.isReadable()) connection.read();  // Legge i dati disponibili.
+                            if (key.isValid() && key.isWritable()) connection.flush();  // Scrive i dati in sospeso.
+                        } catch (RuntimeException e) {  // Errore imprevisto nella logica di una sessione: chiude solo quella.
+                            e.printStackTrace();  // Stampa le informazioni di eccezione.
+                            connection.closeNow();  // Le altre connessioni del loop restano attive.
+                        }
+                    }
+                    selector.selectedKeys().clear();  // Svuota l'insieme delle chiavi gestite.
+                }
+            } catch (IOException e) {  // Errore del selettore.
+                running = false;  // Segna il server come fermo.
+            } finally {
+                for (SelectionKey key : selector.keys()) {  // Chiude tutte le connessioni rimaste.
+                    Object attachment = key.attachment();  // Recupera la connessione associata.
+                    if (attachment instanceof Connection) ((Connection) attachment).closeNow();  // Chiude la connessione.
+                }
+                try {
+                    selector.close();  // Chiude il selettore.
+                } catch (IOException ignored) {  // Ignora gli errori di chiusura.
+                }
+            }
+        }
+    }
+
+    final class Connection extends ClientSession {  // Connessione client posseduta da un singolo event loop.
+        private final EventLoop loop;  // Event loop proprietario della connessione.
+        private final SocketChannel channel;  // Canale del client.
+        private final SelectionKey selectionKey;  // Chiave di selezione del canale.
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);  // Buffer di lettura.
+        private final EncodedMessage[] batch = new EncodedMessage[MAX_BATCH];  // Messaggi del gruppo in corso di scrittura (solo thread del loop).
+        private final ByteBuffer[] views = new ByteBuffer[MAX_BATCH];  // Viste dei messaggi del gruppo, con la posizione raggiunta.
+        private int batchStart;  // Primo messaggio del gruppo non ancora scritto per intero.
+        private int batchEnd;  // Numero di messaggi nel gruppo.
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();  // Evita di accodare più flush del necessario.
+        private boolean closed;  // True se la connessione è stata chiusa (solo thread del loop).
+        private boolean paused;  // True se la lettura è sospesa per i limiti di traffico (solo thread del loop).
+        private long resumeAt;  // Istante di ripresa della lettura sospesa.
+
+        Connection(EventLoop loop, SocketChannel channel, SelectionKey selectionKey) {  // Costruttore della connessione.
+            super(NioServer.this.listener);  // Gli eventi della sessione vanno al destinatario del server.
+            this.loop = loop;  // Imposta l'event loop proprietario.
+            this.channel = channel;  // Imposta il canale.
+            this.selectionKey = selectionKey;  // Imposta la chiave di selezione.
+        }
+
+        private void read() {  // Legge i dati disponibili e consegna righe e frame completi.
+            long delay = readDelayNanos();  // Pausa richiesta dai limiti di traffico.
+            if (delay > 0) {  // Il client ha superato i limiti: il kernel lo rallenta tramite TCP.
+                paused = true;  // Le scritture non devono riattivare la lettura.
+                resumeAt = System.nanoTime() + delay;  // Istante di ripresa.
+                selectionKey.interestOps(interestOps(selectionKey.interestOps() & SelectionKey.OP_WRITE));  // Smette di ascoltare le letture.
+                loop.pause(this);  // Il loop riprenderà la lettura alla scadenza.
+                return;
+            }
+            try {
+                int read = channel.read(readBuffer);  // Legge dal canale senza bloccare.
+                if (read < 0) {  // Il client ha chiuso la connessione.
+                    closeNow();  // Chiude la connessione.
+                    return;
+                }
+                bytesRead(read);  // Conta i byte e li addebita al limite.
+                readBuffer.flip();  // Prepara il buffer alla lettura.
+                decoder.feed(readBuffer);  // Decodifica i messaggi completi.
+                readBuffer.clear();  // Prepara il buffer alla prossima lettura.
+            } catch (IOException e) {  // Errore di lettura o protocollo corrotto: la connessione non è più utilizzabile.
+                closeNow();  // Chiude la connessione.
+            }
+        }
+
+        private void resume() {  // Riprende la lettura dopo una pausa (solo thread del loop).
+            paused = false;  // Lettura di nuovo consentita.
+            if (!closed) selectionKey.interestOps(interestOps(selectionKey.interestOps() & SelectionKey.OP_WRITE));  // Torna ad ascoltare le letture.
+        }
+
+        private int interestOps(int writeOps) {  // Combina l'interesse di scrittura con quello di lettura, escluso durante le pause.
+            return paused ? writeOps : writeOps | SelectionKey.OP_READ;
+        }
+
+        @Override
+        protected void messageQueued() {  // Pianifica la scrittura sull'event loop.
+            if (flushScheduled.compareAndSet(false, true)) loop.execute(this::flush);  // Pianifica un flush se non ce n'è già uno.
+        }
+
+        private void flush() {  // Scrive i messaggi in sospeso, a gruppi, finché il socket li accetta.
+            flushScheduled.set(false);  // Permette di pianificare un nuovo flush per i messaggi successivi.
+            if (closed) return;  // Niente da fare su una connessione chiusa.
+            try {
+                while (batchStart < batchEnd || fillBatch()) {  // Scrive i gruppi nell'ordine di arrivo.
+                    ServerMetrics.BYTES_OUT.add(channel.write(views, batchStart, batchEnd - batchStart));  // Una scrittura raggruppata per l'intero gruppo.
+                    while (batchStart < batchEnd && !views[batchStart].hasRemaining()) {  // Rilascia i messaggi scritti per intero.
+                        batch[batchStart].release();  // Rilascia il riferimento.
+                        batch[batchStart] = null;  // Dimentica il messaggio.
+                        views[batchStart++] = null;  // Dimentica la vista.
+                    }
+                    if (batchStart < batchEnd) {  // Il buffer di invio del socket è pieno.
+                        selectionKey.interestOps(interestOps(SelectionKey.OP_WRITE));  // Attende che il socket torni scrivibile.
+                        return;
+                    }
+                }
+                selectionKey.interestOps(interestOps(0));  // Niente da scrivere: ascolta solo le letture (se non in pausa).
+            } catch (IOException e) {  // Errore di scrittura: la connessione non è più utilizzabile.
+                closeNow();  // Chiude la connessione.
+            }
+        }
+
+        private boolean fillBatch() {  // Raccoglie i messaggi già in coda in un nuovo gruppo; false se la coda è vuota.
+            batchStart = 0;  // Il gruppo precedente è stato scritto per intero.
+            batchEnd = 0;
+            EncodedMessage message;
+            while (batchEnd < MAX_BATCH && (message = outbound.poll()) != null) {  // Al più MAX_BATCH messaggi per scrittura.
+                batch[batchEnd] = message;  // Aggiunge il messaggio al gruppo.
+                views[batchEnd++] = message.view();  // Vista indipendente sul buffer condiviso.
+            }
+            return batchEnd > 0;
+        }
+
+        @Override
+        public void close() {  // Chiude la connessione dal thread dell'event loop.
+            loop.execute(this::closeNow);  // Pianifica la chiusura sul thread proprietario.
+        }
+
+        private void closeNow() {  // Chiude la connessione (solo thread del loop).
+            if (closed) return;  // Evita chiusure multiple.
+            closed = true;  // Segna la connessione come chiusa.
+            selectionKey.cancel();  // Cancella la registrazione dal selettore.
+            closeQuietly(channel);  // Chiude il canale.
+            for (int i = batchStart; i < batchEnd; i++) {  // Scarta il gruppo parzialmente scritto.
+                batch[i].release();  // Rilascia il riferimento.
+                batch[i] = null;  // Dimentica il messaggio.
+                views[i] = null;  // Dimentica la vista.
+            }
+            batchStart = 0;  // Il gruppo ora è vuoto.
+            batchEnd = 0;
+            readerFinished();  // Il thread del loop è anche il thread di lettura.
+            closed();  // Scarta i messaggi non inviati e notifica la chiusura.
+        }
+    }
+
+    static void reject(SocketChannel channel) {  // Rifiuta una connessione al costo minimo: reset immediato, nessun TIME_WAIT sul server.
+        try {
+            channel.setOption(StandardSocketOptions.SO_LINGER, 0);  // La chiusura invia un RST.
+        } catch (IOException ignored) {  // Il canale è già chiuso.
+        }
+        closeQuietly(channel);  // Chiude il canale.
+    }
+
+    private static void closeQuietly(SocketChannel channel) {  // Chiude un canale ignorando gli errori.
+        try {
+            channel.close();  // Chiude il canale.
+        } catch (IOException ignored) {  // Ignora gli errori di chiusura.
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import java.util.ArrayDeque;  // Importa la coda a doppia estremità usata come buffer circolare.
+import java.util.Locale;  // Importa la classe per la conversione indipendente dalla lingua.
+import java.util.concurrent.atomic.LongAdder;  // Importa un contatore ad alta concorrenza.
+import java.util.concurrent.locks.Condition;  // Importa le condizioni di attesa associate ai lock.
+import java.util.concurrent.locks.ReentrantLock;  // Importa il lock rientrante.
+import java.util.function.Consumer;  // Importa l'interfaccia funzionale per i consumatori.
+
+class OutboundQueue<T> {  // Coda di uscita limitata di una connessione: chi fa broadcast accoda senza mai bloccarsi sul socket.
+    enum OverflowPolicy {  // Comportamento quando la coda è piena.
+        DROP_OLDEST,  // Scarta il messaggio più vecchio per far posto al nuovo.
+        DROP_NEWEST,  // Scarta il messaggio appena arrivato.
+        DISCONNECT;  // Disconnette il client troppo lento.
+
+        static OverflowPolicy parse(String value) {  // Converte un valore di configurazione come "drop-oldest".
+            return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));  // Accetta sia "drop-oldest" sia "DROP_OLDEST".
+        }
+    }
+
+    static final int CAPACITY = Integer.getInteger("chat.outbound.capacity", 1024);  // Capacità predefinita per connessione.
+    static final OverflowPolicy POLICY = OverflowPolicy.parse(System.getProperty("chat.outbound.policy", "drop-oldest"));  // Politica predefinita.
+
+    static final LongAdder DROPPED_OLDEST = new LongAdder();  // Messaggi scartati in testa su tutte le connessioni.
+    static final LongAdder DROPPED_NEWEST = new LongAdder();  // Messaggi scartati in coda su tutte le connessioni.
+    static final LongAdder DISCONNECTS = new LongAdder();  // Client disconnessi perché troppo lenti.
+
+    private final ArrayDeque<T> items;  // Messaggi in attesa di essere scritti.
+    private final int capacity;  // Numero massimo di messaggi in attesa.
+    private OverflowPolicy policy;  // Politica di overflow (protetta dal lock).
+    private final Consumer<? super T> onDrop;  // Chiamato per ogni messaggio scartato, per liberarne le risorse.
+    private final ReentrantLock lock = new ReentrantLock();  // Protegge la coda.
+    private final Condition notEmpty = lock.newCondition();  // Segnala al writer l'arrivo di nuovi messaggi.
+    private long dropped;  // Messaggi scartati da questa coda.
+    private boolean closed;  // True dopo la chiusura della connessione.
+
+    OutboundQueue(Consumer<? super T> onDrop) {  // Costruttore con la configurazione predefinita.
+        this(CAPACITY, POLICY, onDrop);  // Usa capacità e politica configurate con le proprietà di sistema.
+    }
+
+    OutboundQueue(int capacity, OverflowPolicy policy, Consumer<? super T> onDrop) {  // Costruttore della coda.
+        this.items = new ArrayDeque<>(Math.min(capacity, 64));  // Parte piccola: la maggior parte delle code resta quasi vuota.
+        this.capacity = capacity;  // Imposta la capacità.
+        this.policy = policy;  // Imposta la politica di overflow.
+        this.onDrop = onDrop;  // Imposta il callback di scarto.
+    }
+
+    boolean offer(T item) {  // Accoda un messaggio; restituisce false se la connessione va chiusa.
+        T victim = null;  // Messaggio eventualmente scartato.
+        lock.lock();  // Acquisisce il lock della coda.
+        try {
+            if (closed) {  // La connessione è già chiusa.
+                victim = item;  // Il messaggio non verrà mai inviato.
+                return false;
+            }
+            if (items.size() >= capacity) {  // La coda è piena: applica la politica.
+                switch (policy) {
+                    case DROP_OLDEST:
+                        victim = items.pollFirst();  // Scarta il messaggio più vecchio.
+                        DROPPED_OLDEST.increment();  // Aggiorna il contatore globale.
+                        break;
+                    case DROP_NEWEST:
+                        victim = item;  // Scarta il nuovo messaggio.
+                        dropped++;  // Aggiorna il contatore della coda.
+                        DROPPED_NEWEST.increment();  // Aggiorna il contatore globale.
+                        return true;
+                    default:
+                        victim = item;  // Il client è troppo lento: il messaggio non verrà inviato.
+                        DISCONNECTS.increment();  // Aggiorna il contatore globale.
+                        return false;
+                }
+                dropped++;  // Aggiorna il contatore della coda.
+            }
+            items.addLast(item);  // Accoda il messaggio.
+            notEmpty.signal();  // Risveglia il writer in attesa.
+            return true;
+        } finally {
+            lock.unlock();  // Rilascia il lock della coda.
+            if (victim != null && onDrop != null) onDrop.accept(victim);  // Libera il messaggio scartato fuori dal lock.
+        }
+    }
+
+    void disconnectOnOverflow() {  // Passa alla politica DISCONNECT: per i messaggi che non si possono scartare singolarmente, come i frame cifrati con un nonce implicito.
+        lock.lock();  // Acquisisce il lock della coda.
+        try {
+            policy = OverflowPolicy.DISCONNECT;  // Da qui una coda piena chiude la connessione.
+        } finally {
+            lock.unlock();  // Rilascia il lock della coda.
+        }
+    }
+
+    T poll() {  // Estrae il prossimo messaggio senza attendere, o null se la coda è vuota.
+        lock.lock();  // Acquisisce il lock della coda.
+        try {
+            return items.pollFirst();  // Estrae il messaggio in testa.
+        } finally {
+            lock.unlock();  // Rilascia il lock della coda.
+        }
+    }
+
+    T take() throws InterruptedException {  // Attende ed estrae il prossimo messaggio, o null se la coda è stata chiusa.
+        lock.lock();  // Acquisisce il lock della coda.
+        try {
+            while (items.isEmpty() && !closed) notEmpty.await();  // Attende nuovi messaggi o la chiusura.
+            return items.pollFirst();  // Estrae il messaggio in testa (null se chiusa e vuota).
+        } finally {
+            lock.unlock();  // Rilascia il lock della coda.
+        }
+    }
+
+    int size() {  // Restituisce il numero di messaggi in attesa.
+        lock.lock();  // Acquisisce il lock della coda.
+        try {
+            return items.size();  // Dimensione attuale.
+        } finally {
+            lock.unlock();  // Rilascia il lock della coda.
+        }
+    }
+
+    long dropped() {  // Restituisce il numero di messaggi scartati da questa coda.
+        lock.lock();  // Acquisisce il lock della coda.
+        try {
+            return dropped;  // Contatore della coda.
+        } finally {
+            lock.unlock();  // Rilascia il lock della coda.
+        }
+    }
+
+    void close() {  // Chiude la coda, scarta i messaggi rimasti e risveglia il writer.
+        ArrayDeque<T> remaining;  // Messaggi non inviati.
+        lock.lock();  // Acquisisce il lock della coda.
+        try {
+            if (closed) return;  // Già chiusa.
+            closed = true;  // Segna la coda come chiusa.
+            remaining = new ArrayDeque<>(items);  // Copia i messaggi rimasti.
+            items.clear();  // Svuota la coda.
+            notEmpty.signalAll();  // Risveglia il writer, che vedrà la chiusura.
+        } finally {
+            lock.unlock();  // Rilascia il lock della coda.
+        }
+        if (onDrop != null) remaining.forEach(onDrop);  // Libera i messaggi non inviati fuori dal lock.
+    }
+
+    static String dropSummary() {  // Riepilogo dei contatori globali per il log del server.
+        return "dropped oldest=" + DROPPED_OLDEST.sum() + ", dropped newest=" + DROPPED_NEWEST.sum() + ", slow consumers disconnected=" + DISCONNECTS.sum();  // Testo del riepilogo.
+    }
+}
@@ -0,0 +1,90 @@
+import java.io.IOException;  // Importa l'eccezione per gli errori di input/output.
+import java.nio.ByteBuffer;  // Importa i buffer di byte.
+import java.nio.charset.Charset;  // Importa la classe per la codifica dei caratteri.
+import java.util.Arrays;  // Importa le utilità per gli array.
+
+final class ProtocolDecoder {  // Decodificatore incrementale condiviso dai motori del server: riceve byte grezzi e produce righe o frame.
+    interface Handler {  // Destinatario dei messaggi decodificati.
+        void onLine(String line) throws IOException;  // Riga completa (modalità a righe).
+
+        void onFrame(byte type, long seq, ByteBuffer payload) throws IOException;  // Frame completo; il payload è valido solo durante la chiamata.
+    }
+
+    private final Charset lineCharset;  // Codifica delle righe.
+    private final Handler handler;  // Destinatario dei messaggi.
+    private byte[] pending = new byte[256];  // Byte della riga o del frame incompleto.
+    private int pendingLength;  // Numero di byte incompleti.
+    private boolean framed;  // True dopo la negoziazione dei frame.
+
+    ProtocolDecoder(Charset lineCharset, Handler handler) {  // Costruttore del decodificatore.
+        this.lineCharset = lineCharset;  // Imposta la codifica delle righe.
+        this.handler = handler;  // Imposta il destinatario.
+    }
+
+    void switchToFrames() {  // Passa alla modalità a frame; i byte successivi al saluto sono già frame.
+        framed = true;  // Cambia modalità.
+    }
+
+    void feed(ByteBuffer in) throws IOException {  // Decodifica tutti i byte disponibili nel buffer.
+        while (in.hasRemaining()) {  // Finché ci sono byte.
+            if (framed) feedFrames(in);  // Modalità a frame.
+            else feedLines(in);  // Modalità a righe (può passare ai frame dopo il saluto).
+        }
+    }
+
+    private void feedLines(ByteBuffer in) throws IOException {  // Decodifica righe finché il buffer si esaurisce o cambia modalità.
+        while (in.hasRemaining() && !framed) {  // Scorre i byte ricevuti.
+            byte b = in.get();  // Legge il prossimo byte.
+            if (b == '\n') {  // Fine riga: consegna la riga completa.
+                int length = pendingLength > 0 && pending[pendingLength - 1] == '\r' ? pendingLength - 1 : pendingLength;  // Ignora il ritorno a capo di Windows.
+                String line = new String(pending, 0, length, lineCharset);  // Decodifica la riga.
+                pendingLength = 0;  // Azzera l'accumulatore.
+                handler.onLine(line);  // Notifica la riga (il saluto può attivare i frame).
+            } else {
+                if (pendingLength == ChatProtocol.MAX_FRAME) throw new IOException("Line too long");  // Protegge la memoria da righe senza fine.
+                ensureCapacity(pendingLength + 1);  // Ingrandisce l'accumulatore se necessario.
+                pending[pendingLength++] = b;  // Aggiunge il byte alla riga corrente.
+            }
+        }
+    }
+
+    private void feedFrames(ByteBuffer in) throws IOException {  // Decodifica frame finché il buffer si esaurisce.
+        while (in.hasRemaining()) {
+            if (pendingLength == 0 && in.remaining() >= 4) {  // Percorso veloce: frame interi direttamente dal buffer, senza copie.
+                int length = checkLength(in.getInt(in.position()));  // Lunghezza del frame.
+                if (in.remaining() >= 4 + length) {  // Il frame è completo.
+                    int start = in.position() + 4;  // Inizio di tipo e sequenza.
+                    byte type = in.get(start);  // Tipo del frame.
+                    long seq = in.getLong(start + 1);  // Numero di sequenza.
+                    ByteBuffer payload = in.duplicate();  // Vista sul payload.
+                    payload.limit(start + length).position(start + 9);  // Limita la vista al payload.
+                    in.position(start + length);  // Consuma il frame.
+                    handler.onFrame(type, seq, payload);  // Consegna il frame.
+                    continue;
+                }
+            }
+            int needed = pendingLength < 4 ? 4 : 4 + checkLength(ByteBuffer.wrap(pending, 0, 4).getInt());  // Byte necessari per il passo successivo.
+            ensureCapacity(needed);  // Ingrandisce l'accumulatore se necessario.
+            int count = Math.min(needed - pendingLength, in.remaining());  // Byte da copiare.
+            in.get(pending, pendingLength, count);  // Accumula i byte del frame incompleto.
+            pendingLength += count;  // Aggiorna il conteggio.
+            if (pendingLength == needed && needed > 4) {  // Frame completo nell'accumulatore.
+                ByteBuffer frame = ByteBuffer.wrap(pending, 0, pendingLength);  // Vista sul frame.
+                byte type = frame.get(4);  // Tipo del frame.
+                long seq = frame.getLong(5);  // Numero di sequenza.
+                frame.position(ChatProtocol.HEADER_SIZE);  // Vista limitata al payload.
+                pendingLength = 0;  // Azzera l'accumulatore prima della consegna.
+                handler.onFrame(type, seq, frame);  // Consegna il frame.
+            }
+        }
+    }
+
+    private int checkLength(int length) throws IOException {  // Verifica la lunghezza dichiarata di un frame.
+        if (length < 9 || length > ChatProtocol.MAX_FRAME) throw new IOException("Invalid frame length " + length);  // Frame corrotto o ostile.
+        return length;
+    }
+
+    private void ensureCapacity(int capacity) {  // Ingrandisce l'accumulatore.
+        if (capacity > pending.length) pending = Arrays.copyOf(pending, Math.max(capacity, pending.length * 2));  // Almeno raddoppia.
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.Collections;  // Importa le utilità per le collezioni.
+import java.util.Locale;  // Importa la classe per la conversione indipendente dalla lingua.
+import java.util.Set;  // Importa l'interfaccia degli insiemi.
+import java.util.concurrent.ConcurrentHashMap;  // Importa la mappa concorrente.
+
+// Stanze di chat: indice concorrente stanza -> membri e connessione -> stanza.
+// Ogni connessione è in una sola stanza alla volta, la LOBBY all'apertura. Entrare, uscire e chiudere toccano solo
+// l'insieme della stanza interessata, senza copiare liste; un messaggio visita solo i membri della propria stanza.
+// Le stanze vuote vengono rimosse e ricreate al primo ingresso.
+final class RoomRegistry {  // Registro delle stanze condiviso dai motori del server.
+    static final String LOBBY = "lobby";  // Stanza iniziale di ogni connessione.
+    static final int MAX_NAME = 32;  // Lunghezza massima del nome di una stanza.
+
+    private final ConcurrentHashMap<String, Set<ChatConnection>> members = new ConcurrentHashMap<>();  // Membri di ogni stanza non vuota.
+    private final ConcurrentHashMap<ChatConnection, String> rooms = new ConcurrentHashMap<>();  // Stanza di ogni connessione aperta.
+
+    static String normalize(String name) {  // Restituisce il nome canonico di una stanza, o null se non valido.
+        String room = name.trim().toLowerCase(Locale.ROOT);  // I nomi non distinguono le maiuscole.
+        if (room.isEmpty() || room.length() > MAX_NAME) return null;  // Nome vuoto o troppo lungo.
+        for (int i = 0; i < room.length(); i++) {  // Solo lettere, cifre, trattini e trattini bassi.
+            char c = room.charAt(i);  // Carattere corrente.
+            if (!Character.isLetterOrDigit(c) && c != '-' && c != '_') return null;  // Carattere non ammesso.
+        }
+        return room;
+    }
+
+    void open(ChatConnection connection) {  // Registra una nuova connessione nella LOBBY.
+        synchronized (connection) {  // Serializza i cambi di stanza della stessa connessione.
+            if (rooms.putIfAbsent(connection, LOBBY) == null) add(LOBBY, connection);  // Solo la prima volta.
+        }
+    }
+
+    String join(ChatConnection connection, String room) {  // Sposta la connessione nella stanza; restituisce la stanza precedente, o null se la connessione è chiusa.
+        synchronized (connection) {  // Una chiusura concorrente non può lasciare la connessione in un insieme.
+            String previous = rooms.replace(connection, room);  // Solo se la connessione è ancora aperta.
+            if (previous == null || previous.equals(room)) return previous;  // Chiusa, o già nella stanza.
+            add(room, connection);  // Entra nella nuova stanza prima di lasciare la vecchia: nessun messaggio perso.
+            remove(previous, connection);  // Lascia la stanza precedente.
+            return previous;
+        }
+    }
+
+    String close(ChatConnection connection) {  // Rimuove la connessione dal registro; restituisce l'ultima stanza, o null se già rimossa.
+        synchronized (connection) {  // Serializza con un cambio di stanza in corso.
+            String previous = rooms.remove(connection);  // Dimentica la connessione.
+            if (previous != null) remove(previous, connection);  // Lascia la stanza.
+            return previous;
+        }
+    }
+
+    String roomOf(ChatConnection connection) {  // Restituisce la stanza della connessione, o null se chiusa.
+        return rooms.get(connection);
+    }
+
+    Set<ChatConnection> members(String room) {  // Restituisce una vista concorrente dei membri della stanza.
+        Set<ChatConnection> set = members.get(room);  // Membri, se la stanza esiste.
+        return set != null ? set : Collections.emptySet();  // Stanza vuota.
+    }
+
+    Set<ChatConnection> connections() {  // Restituisce una vista concorrente in sola lettura di tutte le connessioni aperte.
+        return Collections.unmodifiableSet(rooms.keySet());  // Nessuna copia.
+    }
+
+    int size() {  // Restituisce il numero di connessioni aperte.
+        return rooms.size();
+    }
+
+    int roomCount() {  // Restituisce il numero di stanze non vuote.
+        return members.size();
+    }
+
+    private void add(String room, ChatConnection connection) {  // Aggiunge la connessione all'insieme della stanza, creandolo se serve.
+        members.compute(room, (name, set) -> {  // Atomico rispetto alla rimozione della stanza vuota.
+            if (set == null) set = ConcurrentHashMap.newKeySet();  // Nuova stanza.
+            set.add(connection);  // Nuovo membro.
+            return set;
+        });
+    }
+
+    private void remove(String room, ChatConnection connection) {  // Toglie la connessione dall'insieme della stanza, eliminando la stanza se resta vuota.
+        members.computeIfPresent(room, (name, set) -> {
+            set.remove(connection);  // Membro uscito.
+            return set.isEmpty() ? null : set;  // Le stanze vuote non occupano memoria.
+        });
+    }
+}
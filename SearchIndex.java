@@ -0,0 +1,184 @@
+import java.util.ArrayList;  // Importa la lista dinamica.
+import java.util.Arrays;  // Importa le utilità per gli array.
+import java.util.HashMap;  // Importa la mappa dei termini.
+import java.util.List;  // Importa l'interfaccia delle liste.
+import java.util.Locale;  // Importa la classe per la conversione indipendente dalla lingua.
+
+// Indice invertito dei messaggi registrati nel giornale: termine -> numeri di sequenza dei messaggi che lo contengono.
+// Il testo dei messaggi resta solo nel giornale: l'indice trattiene i termini e, per ciascuno, una lista compatta di numeri
+// di sequenza crescenti, codificati come differenze in varint (1-2 byte per occorrenza) a blocchi di BLOCK voci; il primo
+// numero di ogni blocco è conservato anche in chiaro, così una ricerca salta ai blocchi che servono senza decodificare il resto.
+// Una query restituisce i messaggi più recenti che contengono tutti i termini: scorre all'indietro la lista più corta
+// e verifica gli altri termini blocco per blocco, fermandosi dopo il numero di risultati richiesto.
+// I termini sono sequenze di lettere e cifre in minuscolo, come vengono registrate (dopo la cifratura del server, se attiva).
+final class SearchIndex {  // Indice di ricerca del server.
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("chat.search", "true"));  // Indicizza i messaggi registrati nel giornale.
+    static final int MAX_RESULTS = Integer.getInteger("chat.search.results", 20);  // Messaggi restituiti per ricerca, i più recenti.
+    static final String RESULT = "\u0001FOUND";  // Prefisso di un risultato: "\u0001FOUND <seq> <testo>"; seq 0 indica nessun risultato e porta la query.
+
+    private static final int MIN_TERM = 2;  // Caratteri minimi di un termine: le lettere isolate non vengono indicizzate.
+    private static final int MAX_TERM = 32;  // Caratteri massimi di un termine: i più lunghi vengono troncati.
+    private static final int BLOCK = 128;  // Numeri di sequenza per blocco di una lista.
+
+    private final HashMap<String, Postings> terms = new HashMap<>();  // Lista di ogni termine.
+    private long messages;  // Messaggi indicizzati.
+    private long postings;  // Occorrenze registrate.
+
+    synchronized void add(long seq, String text) {  // Indicizza un messaggio; i numeri di sequenza devono arrivare in ordine crescente.
+        for (String term : terms(text)) {  // Termini del messaggio.
+            if (terms.computeIfAbsent(term, t -> new Postings()).add(seq)) postings++;  // Una voce per termine e messaggio.
+        }
+        messages++;  // Messaggio indicizzato.
+    }
+
+    synchronized long[] search(String query, int limit) {  // Restituisce, dal più vecchio, i numeri di sequenza degli ultimi limit messaggi con tutti i termini della query.
+        List<String> words = terms(query);  // Termini cercati.
+        if (words.isEmpty() || limit <= 0) return new long[0];  // Nessun termine indicizzabile.
+        Cursor[] cursors = new Cursor[words.size()];  // Un cursore per termine.
+        for (int i = 0; i < cursors.length; i++) {
+            Postings list = terms.get(words.get(i));  // Lista del termine.
+            if (list == null) return new long[0];  // Termine mai visto: nessun messaggio li contiene tutti.
+            cursors[i] = new Cursor(list);
+        }
+        Arrays.sort(cursors, (a, b) -> Integer.compare(a.list.count, b.list.count));  // La lista più corta guida la ricerca.
+        Postings rarest = cursors[0].list;  // Lista scorsa all'indietro.
+        long[] block = new long[BLOCK];  // Blocco decodificato della lista più corta.
+        long[] found = new long[limit];  // Risultati, dal più recente.
+        int count = 0;  // Risultati trovati.
+        for (int b = rarest.blocks - 1; b >= 0 && count < limit; b--) {  // Dal blocco più recente.
+            for (int i = rarest.decode(b, block) - 1; i >= 0 && count < limit; i--) {  // Dal messaggio più recente del blocco.
+                long seq = block[i];  // Candidato.
+                boolean all = true;  // True se tutti gli altri termini lo contengono.
+                for (int c = 1; c < cursors.length && all; c++) all = cursors[c].contains(seq);
+                if (all) found[count++] = seq;  // Risultato.
+            }
+        }
+        long[] result = new long[count];  // Risultati, dal più vecchio.
+        for (int i = 0; i < count; i++) result[i] = found[count - 1 - i];
+        return result;
+    }
+
+    synchronized String describe() {  // Descrive l'indice per il log.
+        long bytes = 0;  // Byte delle liste.
+        for (Postings list : terms.values()) bytes += list.length + list.blocks * 12L;  // Varint e salti.
+        return messages + " messages, " + terms.size() + " terms, " + postings + " postings in " + bytes / 1024 + " KiB";
+    }
+
+    static List<String> terms(String text) {  // Restituisce i termini distinti di un testo, nell'ordine in cui compaiono.
+        List<String> result = new ArrayList<>();  // Termini trovati.
+        StringBuilder term = new StringBuilder(MAX_TERM);  // Termine in costruzione.
+        for (int i = 0; i <= text.length(); i++) {  // Un passaggio in più chiude l'ultimo termine.
+            char c = i < text.length() ? text.charAt(i) : ' ';  // Carattere corrente.
+            if (Character.isLetterOrDigit(c)) {  // Parte di un termine.
+                if (term.length() < MAX_TERM) term.append(c);  // I termini lunghi vengono troncati.
+                continue;
+            }
+            if (term.length() >= MIN_TERM) {  // Fine di un termine abbastanza lungo.
+                String word = term.toString().toLowerCase(Locale.ROOT);  // Le ricerche non distinguono le maiuscole.
+                if (!result.contains(word)) result.add(word);  // Pochi termini per messaggio: la ricerca lineare basta.
+            }
+            term.setLength(0);  // Prossimo termine.
+        }
+        return result;
+    }
+
+    static String result(long seq, String text) {  // Costruisce un risultato da inviare al client che ha cercato.
+        return RESULT + " " + seq + " " + text;
+    }
+
+    static String[] parseResult(String text) {  // Restituisce numero di sequenza e testo di un risultato, o null se il testo non è un risultato.
+        if (!text.startsWith(RESULT + " ")) return null;  // Messaggio di chat.
+        String[] parts = text.substring(RESULT.length() + 1).split(" ", 2);  // Numero di sequenza e testo.
+        return parts.length == 2 ? parts : null;
+    }
+
+    private static final class Postings {  // Numeri di sequenza crescenti di un termine, a blocchi di differenze in varint.
+        byte[] data = new byte[4];  // Differenze codificate in varint (la prima voce di ogni blocco non è codificata).
+        int length;  // Byte usati in data.
+        long[] firsts = new long[1];  // Primo numero di sequenza di ogni blocco.
+        int[] offsets = new int[1];  // Posizione in data delle differenze di ogni blocco.
+        int blocks;  // Blocchi.
+        int count;  // Numeri di sequenza registrati.
+        long last;  // Ultimo numero di sequenza registrato.
+
+        boolean add(long seq) {  // Registra un numero di sequenza maggiore dei precedenti; false se già presente.
+            if (count > 0 && seq <= last) return false;  // Stesso messaggio, o fuori ordine.
+            if (count % BLOCK == 0) {  // Nuovo blocco: il primo numero va in chiaro.
+                if (blocks == firsts.length) {  // Ingrandisce i salti.
+                    firsts = Arrays.copyOf(firsts, blocks * 2);
+                    offsets = Arrays.copyOf(offsets, blocks * 2);
+                }
+                firsts[blocks] = seq;  // Primo numero del blocco.
+                offsets[blocks++] = length;  // Le differenze seguono da qui.
+            } else {
+                long delta = seq - last;  // Differenza dal precedente, sempre positiva.
+                if (length + 10 > data.length) data = Arrays.copyOf(data, Math.max(length + 10, data.length + (data.length >> 1)));  // Spazio per un varint massimo.
+                while (delta >= 0x80) {  // Sette bit per byte, il bit alto segnala che il numero continua.
+                    data[length++] = (byte) (delta | 0x80);
+                    delta >>>= 7;
+                }
+                data[length++] = (byte) delta;  // Ultimo byte.
+            }
+            last = seq;  // Ultimo numero.
+            count++;
+            return true;
+        }
+
+        int decode(int block, long[] out) {  // Decodifica un blocco in out; restituisce i numeri decodificati.
+            int position = offsets[block];  // Inizio delle differenze.
+            int end = block + 1 < blocks ? offsets[block + 1] : length;  // Fine delle differenze.
+            long seq = firsts[block];  // Primo numero, in chiaro.
+            out[0] = seq;
+            int count = 1;
+            while (position < end) {  // Una differenza per voce.
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];  // Prossimi sette bit.
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);  // Bit alto: il numero continua.
+                seq += delta;
+                out[count++] = seq;
+            }
+            return count;
+        }
+
+        int blockOf(long seq) {  // Restituisce l'ultimo blocco che inizia non oltre seq, o -1.
+            int low = 0, high = blocks - 1, found = -1;  // Ricerca binaria sui primi numeri.
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (firsts[middle] <= seq) {
+                    found = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return found;
+        }
+    }
+
+    private static final class Cursor {  // Lista di un termine con l'ultimo blocco decodificato, per verifiche ripetute nello stesso blocco.
+        final Postings list;  // Lista del termine.
+        final long[] block = new long[BLOCK];  // Blocco decodificato.
+        int decoded = -1;  // Indice del blocco decodificato (-1 nessuno).
+        int size;  // Numeri nel blocco decodificato.
+
+        Cursor(Postings list) {  // Costruttore del cursore.
+            this.list = list;
+        }
+
+        boolean contains(long seq) {  // Controlla se il termine compare nel messaggio.
+            if (seq > list.last) return false;  // Oltre l'ultimo.
+            int b = list.blockOf(seq);  // Blocco che lo conterrebbe.
+            if (b < 0) return false;  // Prima del primo.
+            if (b != decoded) {  // I candidati arrivano in ordine decrescente: spesso lo stesso blocco.
+                size = list.decode(b, block);
+                decoded = b;
+            }
+            return Arrays.binarySearch(block, 0, size, seq) >= 0;  // Numeri crescenti.
+        }
+    }
+}
@@ -0,0 +1,251 @@
+import java.io.IOException;  // Importa l'eccezione per gli errori di input/output.
+import java.io.Writer;  // Importa l'interfaccia di scrittura dei caratteri.
+import java.lang.management.ManagementFactory;  // Importa la fabbrica dei bean di gestione.
+import java.nio.charset.StandardCharsets;  // Importa le codifiche standard.
+import java.nio.file.Files;  // Importa le utilità per i file.
+import java.nio.file.Path;  // Importa i percorsi dei file.
+import java.nio.file.Paths;  // Importa la fabbrica dei percorsi.
+import java.nio.file.StandardCopyOption;  // Importa le opzioni di spostamento dei file.
+import java.time.Instant;  // Importa l'istante corrente per l'intestazione del file.
+import java.util.Arrays;  // Importa le utilità per gli array.
+import java.util.LinkedHashMap;  // Importa la mappa che conserva l'ordine di inserimento.
+import java.util.Map;  // Importa l'interfaccia delle mappe.
+import java.util.concurrent.Executors;  // Importa le fabbriche di esecutori.
+import java.util.concurrent.ScheduledExecutorService;  // Importa l'esecutore di compiti periodici.
+import java.util.concurrent.TimeUnit;  // Importa le unità di tempo.
+import java.util.concurrent.atomic.LongAdder;  // Importa un contatore ad alta concorrenza.
+import javax.management.Attribute;  // Importa gli attributi JMX.
+import javax.management.AttributeList;  // Importa le liste di attributi JMX.
+import javax.management.AttributeNotFoundException;  // Importa l'eccezione per gli attributi sconosciuti.
+import javax.management.DynamicMBean;  // Importa l'interfaccia dei bean con attributi calcolati a runtime.
+import javax.management.JMException;  // Importa l'eccezione generica di JMX.
+import javax.management.MBeanAttributeInfo;  // Importa la descrizione di un attributo.
+import javax.management.MBeanInfo;  // Importa la descrizione di un bean.
+import javax.management.MBeanOperationInfo;  // Importa la descrizione di un'operazione.
+import javax.management.MBeanServer;  // Importa il server dei bean della piattaforma.
+import javax.management.ObjectName;  // Importa i nomi dei bean.
+import javax.management.ReflectionException;  // Importa l'eccezione per le operazioni sconosciute.
+
+// Metriche del server: i percorsi caldi registrano su contatori statici senza lock (LongAdder e LatencyHistogram),
+// un campionatore periodico calcola i tassi al secondo e scrive un file di testo "nome=valore"; gli stessi valori sono
+// attributi in sola lettura del bean JMX chat:type=ServerMetrics (jconsole, VisualVM).
+// Gli istogrammi coprono l'intervallo dall'ultimo campionamento; i contatori sono totali dall'avvio del processo.
+final class ServerMetrics {  // Raccolta, esposizione JMX e scrittura periodica delle metriche del server.
+    static final long INTERVAL = Long.getLong("chat.metrics.interval", 10);  // Secondi tra due campionamenti (0 o meno disabilita tassi e file).
+    static final String FILE = System.getProperty("chat.metrics.file", "chat-metrics.txt");  // File di testo aggiornato a ogni campionamento (vuoto per disabilitare).
+    static final String OBJECT_NAME = "chat:type=ServerMetrics";  // Nome del bean JMX.
+
+    static final LongAdder ACCEPTED = new LongAdder();  // Connessioni accettate.
+    static final LongAdder CLOSED = new LongAdder();  // Connessioni chiuse.
+    static final LongAdder REJECTED = new LongAdder();  // Connessioni rifiutate perché il server era pieno.
+    static final LongAdder THROTTLED = new LongAdder();  // Pause di lettura imposte ai client oltre i limiti.
+    static final LongAdder LIMITED = new LongAdder();  // Messaggi scartati perché oltre il limite della connessione.
+    static final LongAdder RELAYED_OUT = new LongAdder();  // Messaggi inoltrati ai pari del cluster.
+    static final LongAdder RELAYED_IN = new LongAdder();  // Messaggi ricevuti dai pari del cluster.
+    static final LongAdder RELAY_DUPLICATES = new LongAdder();  // Messaggi dei pari scartati perché già consegnati.
+    static final LongAdder PINGS = new LongAdder();  // Ping inviati ai client silenziosi.
+    static final LongAdder IDLE_CLOSED = new LongAdder();  // Connessioni chiuse perché silenziose oltre il limite.
+    static final LongAdder FILES_IN = new LongAdder();  // File caricati dai client.
+    static final LongAdder FILE_BYTES_IN = new LongAdder();  // Byte dei file caricati.
+    static final LongAdder FILE_BYTES_OUT = new LongAdder();  // Byte dei file inviati con transferTo.
+    static final LongAdder MESSAGES_IN = new LongAdder();  // Messaggi ricevuti dai client.
+    static final LongAdder BYTES_IN = new LongAdder();  // Byte letti dai socket.
+    static final LongAdder MESSAGES_OUT = new LongAdder();  // Messaggi accodati verso i client.
+    static final LongAdder BYTES_OUT = new LongAdder();  // Byte scritti sui socket.
+    static final LatencyHistogram CRYPTO = new LatencyHistogram();  // Nanosecondi per trasformazione di cifratura.
+    static final LatencyHistogram FAN_OUT = new LatencyHistogram();  // Nanosecondi per accodare un messaggio a tutti i destinatari.
+    static final LatencyHistogram SEARCH = new LatencyHistogram();  // Nanosecondi per ricerca, lettura dei testi compresa.
+
+    private static final String[] RATES = {"connectionsAccepted", "connectionsClosed", "messagesIn", "bytesIn", "messagesOut", "bytesOut"};  // Contatori con tasso al secondo.
+
+    private final RoomRegistry rooms;  // Connessioni aperte, per gli indicatori di coda.
+    private final TimerWheel timers;  // Ruota dei controlli di inattività (null se disabilitati).
+    private final Map<String, Double> rates = new LinkedHashMap<>();  // Tassi al secondo dell'ultimo intervallo.
+    private final long[] previous = new long[RATES.length];  // Totali al campionamento precedente.
+    private long previousNanos = System.nanoTime();  // Istante del campionamento precedente.
+    private ScheduledExecutorService sampler;  // Thread del campionatore (null se disabilitato o fermo).
+    private ObjectName objectName;  // Nome del bean registrato (null se non registrato).
+
+    ServerMetrics(RoomRegistry rooms, TimerWheel timers) {  // Costruttore delle metriche.
+        this.rooms = rooms;  // Imposta il registro delle connessioni.
+        this.timers = timers;  // Imposta la ruota.
+        long[] totals = totals();  // Totali correnti: i tassi partono da qui.
+        System.arraycopy(totals, 0, previous, 0, totals.length);  // Base del primo intervallo.
+        for (String name : RATES) rates.put(name + "PerSecond", 0.0);  // Nessun intervallo completato.
+    }
+
+    void start() {  // Registra il bean JMX e avvia il campionatore.
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();  // Server dei bean della piattaforma.
+            ObjectName name = new ObjectName(OBJECT_NAME);  // Nome del bean.
+            if (server.isRegistered(name)) server.unregisterMBean(name);  // Un server precedente nello stesso processo.
+            server.registerMBean(new Bean(), name);  // Espone le metriche.
+            objectName = name;  // Da deregistrare alla fermata.
+        } catch (JMException e) {  // JMX non disponibile: restano tassi e file.
+            e.printStackTrace();  // Stampa le informazioni di eccezione.
+        }
+        if (INTERVAL <= 0) return;  // Campionamento disabilitato.
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {  // Un thread demone: non impedisce l'uscita.
+            Thread thread = new Thread(runnable, "chat-metrics");  // Thread con nome riconoscibile.
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, INTERVAL, INTERVAL, TimeUnit.SECONDS);  // Campiona a intervalli regolari.
+    }
+
+    void stop() {  // Ferma il campionatore, scrive l'ultimo campione e deregistra il bean.
+        if (sampler != null) {  // Campionatore attivo.
+            sampler.shutdownNow();  // Ferma i campionamenti futuri.
+            sampler = null;  // Dimentica il campionatore.
+            sample();  // Ultimo campione, con l'intervallo parziale.
+        }
+        if (objectName != null) {  // Bean registrato.
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);  // Rimuove il bean.
+            } catch (JMException e) {  // Già rimosso.
+                e.printStackTrace();  // Stampa le informazioni di eccezione.
+            }
+            objectName = null;  // Dimentica il nome.
+        }
+    }
+
+    synchronized Map<String, Object> snapshot() {  // Restituisce i valori correnti, in ordine stabile.
+        Map<String, Object> values = new LinkedHashMap<>();  // Valori per nome.
+        long[] totals = totals();  // Contatori totali.
+        values.put("connectionsOpen", (long) rooms.size());  // Connessioni aperte.
+        for (int i = 0; i < RATES.length; i++) values.put(RATES[i], totals[i]);  // Totali dall'avvio.
+        values.putAll(rates);  // Tassi dell'ultimo intervallo.
+        values.put("connectionsRejected", REJECTED.sum());  // Rifiuti per server pieno.
+        values.put("readPauses", THROTTLED.sum());  // Pause per limite di traffico.
+        values.put("messagesLimited", LIMITED.sum());  // Messaggi scartati per limite.
+        values.put("relayedOut", RELAYED_OUT.sum());  // Inoltri ai pari.
+        values.put("relayedIn", RELAYED_IN.sum());  // Messaggi dai pari.
+        values.put("relayDuplicates", RELAY_DUPLICATES.sum());  // Duplicati scartati.
+        values.put("pingsSent", PINGS.sum());  // Ping ai client silenziosi.
+        values.put("idleClosed", IDLE_CLOSED.sum());  // Connessioni silenziose chiuse.
+        values.put("timersScheduled", (long) (timers != null ? timers.size() : 0));  // Scadenze nella ruota.
+        values.put("filesIn", FILES_IN.sum());  // File caricati.
+        values.put("fileBytesIn", FILE_BYTES_IN.sum());  // Byte caricati.
+        values.put("fileBytesOut", FILE_BYTES_OUT.sum());  // Byte scaricati.
+        values.put("rooms", (long) rooms.roomCount());  // Stanze non vuote.
+        int[] depths = queueDepths();  // Profondità delle code di uscita.
+        Arrays.sort(depths);  // In ordine crescente per i percentili.
+        long queued = 0;  // Messaggi in attesa su tutte le connessioni.
+        for (int depth : depths) queued += depth;  // Somma le profondità.
+        values.put("queueDepthTotal", queued);  // Totale.
+        values.put("queueDepthP99", depths.length == 0 ? 0L : (long) depths[Math.min(depths.length - 1, (int) Math.ceil(depths.length * 0.99) - 1)]);  // 99° percentile per client.
+        values.put("queueDepthMax", depths.length == 0 ? 0L : (long) depths[depths.length - 1]);  // Client più in ritardo.
+        values.put("droppedOldest", OutboundQueue.DROPPED_OLDEST.sum());  // Scarti in testa.
+        values.put("droppedNewest", OutboundQueue.DROPPED_NEWEST.sum());  // Scarti in coda.
+        values.put("slowDisconnects", OutboundQueue.DISCONNECTS.sum());  // Client lenti disconnessi.
+        histogram(values, "crypto", CRYPTO);  // Costo della cifratura.
+        histogram(values, "fanOut", FAN_OUT);  // Costo del broadcast.
+        histogram(values, "search", SEARCH);  // Costo delle ricerche.
+        return values;
+    }
+
+    String summary() {  // Riassume le metriche principali per il log.
+        Map<String, Object> values = snapshot();  // Valori correnti.
+        return "connections " + values.get("connectionsOpen") + ", in " + values.get("messagesIn") + " msgs, out " + values.get("messagesOut")
+                + " msgs, fan-out p99 " + values.get("fanOutP99Micros") + " us";  // Testo del riepilogo.
+    }
+
+    private synchronized void sample() {  // Calcola i tassi dell'intervallo, scrive il file e azzera gli istogrammi.
+        long now = System.nanoTime();  // Istante del campionamento.
+        double seconds = Math.max(1e-3, (now - previousNanos) / 1e9);  // Durata dell'intervallo.
+        long[] totals = totals();  // Totali correnti.
+        for (int i = 0; i < RATES.length; i++) {  // Tassi al secondo.
+            rates.put(RATES[i] + "PerSecond", Math.round((totals[i] - previous[i]) / seconds * 10) / 10.0);  // Una cifra decimale.
+            previous[i] = totals[i];  // Base del prossimo intervallo.
+        }
+        previousNanos = now;  // Inizio del prossimo intervallo.
+        if (!FILE.isEmpty()) write(snapshot());  // Aggiorna il file.
+        CRYPTO.reset();  // Il prossimo intervallo parte da zero.
+        FAN_OUT.reset();
+        SEARCH.reset();
+    }
+
+    private void write(Map<String, Object> values) {  // Scrive il campione nel file, sostituendolo in modo atomico.
+        Path file = Paths.get(FILE).toAbsolutePath();  // File di destinazione.
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");  // File temporaneo nella stessa directory.
+        try (Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            out.write("# chat server metrics " + Instant.now() + ", interval " + INTERVAL + "s\n");  // Intestazione.
+            for (Map.Entry<String, Object> entry : values.entrySet()) out.write(entry.getKey() + "=" + entry.getValue() + "\n");  // Un valore per riga.
+        } catch (IOException e) {  // Directory non scrivibile.
+            e.printStackTrace();  // Stampa le informazioni di eccezione.
+            return;
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);  // Chi legge vede sempre un file completo.
+        } catch (IOException e) {  // Spostamento atomico non supportato.
+            e.printStackTrace();  // Stampa le informazioni di eccezione.
+        }
+    }
+
+    private static long[] totals() {  // Restituisce i contatori con tasso, nell'ordine di RATES.
+        return new long[]{ACCEPTED.sum(), CLOSED.sum(), MESSAGES_IN.sum(), BYTES_IN.sum(), MESSAGES_OUT.sum(), BYTES_OUT.sum()};
+    }
+
+    private int[] queueDepths() {  // Restituisce la profondità della coda di uscita di ogni connessione aperta.
+        int[] depths = new int[rooms.size()];  // Stima iniziale.
+        int count = 0;  // Connessioni visitate.
+        for (ChatConnection connection : rooms.connections()) {  // Vista concorrente: le connessioni possono cambiare durante la visita.
+            if (!(connection instanceof ClientSession)) continue;  // Solo le sessioni hanno una coda.
+            if (count == depths.length) depths = Arrays.copyOf(depths, count * 2 + 1);  // Ingrandisce l'array.
+            depths[count++] = ((ClientSession) connection).queueDepth();  // Messaggi in attesa.
+        }
+        return Arrays.copyOf(depths, count);
+    }
+
+    private static void histogram(Map<String, Object> values, String name, LatencyHistogram histogram) {  // Aggiunge conteggio e percentili (in microsecondi) di un istogramma.
+        values.put(name + "Count", histogram.count());  // Registrazioni nell'intervallo.
+        values.put(name + "P50Micros", histogram.percentile(50) / 1000);  // Mediana.
+        values.put(name + "P99Micros", histogram.percentile(99) / 1000);  // 99° percentile.
+        values.put(name + "MaxMicros", histogram.max() / 1000);  // Massimo.
+    }
+
+    private final class Bean implements DynamicMBean {  // Bean JMX con un attributo in sola lettura per ogni valore di snapshot.
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {  // Restituisce un valore corrente.
+            Object value = snapshot().get(attribute);  // Valore per nome.
+            if (value == null) throw new AttributeNotFoundException(attribute);  // Nome sconosciuto.
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {  // Tutti gli attributi sono in sola lettura.
+            throw new AttributeNotFoundException("Read-only attribute " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {  // Restituisce più valori dallo stesso snapshot.
+            Map<String, Object> values = snapshot();  // Valori coerenti tra loro.
+            AttributeList list = new AttributeList();  // Valori trovati.
+            for (String name : attributes) {  // Aggiunge i nomi conosciuti.
+                if (values.containsKey(name)) list.add(new Attribute(name, values.get(name)));
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {  // Nessun attributo scrivibile.
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {  // Nessuna operazione.
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {  // Descrive gli attributi a partire dallo snapshot.
+            Map<String, Object> values = snapshot();  // Nomi e tipi dei valori.
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];  // Descrizioni degli attributi.
+            int i = 0;
+            for (Map.Entry<String, Object> entry : values.entrySet()) {  // Un attributo per valore.
+                attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(), true, false, false);
+            }
+            return new MBeanInfo(ServerMetrics.class.getName(), "Chat server metrics", attributes, null, new MBeanOperationInfo[0], null);
+        }
+    }
+}
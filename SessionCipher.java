@@ -0,0 +1,148 @@
+import java.io.IOException;  // Importa l'eccezione per gli errori di input/output.
+import java.nio.ByteBuffer;  // Importa i buffer di byte.
+import java.nio.charset.StandardCharsets;  // Importa le codifiche standard.
+import java.security.GeneralSecurityException;  // Importa l'eccezione generica degli algoritmi crittografici.
+import java.security.KeyFactory;  // Importa la fabbrica delle chiavi pubbliche.
+import java.security.KeyPair;  // Importa la coppia di chiavi effimere.
+import java.security.KeyPairGenerator;  // Importa il generatore di coppie di chiavi.
+import java.security.PublicKey;  // Importa l'interfaccia delle chiavi pubbliche.
+import java.security.spec.X509EncodedKeySpec;  // Importa la codifica standard delle chiavi pubbliche.
+import java.util.Base64;  // Importa la codifica Base64.
+import javax.crypto.AEADBadTagException;  // Importa l'eccezione per i messaggi non autentici.
+import javax.crypto.Cipher;  // Importa il cifrario.
+import javax.crypto.KeyAgreement;  // Importa l'accordo di chiave.
+import javax.crypto.Mac;  // Importa il codice di autenticazione per la derivazione delle chiavi.
+import javax.crypto.spec.GCMParameterSpec;  // Importa i parametri di GCM.
+import javax.crypto.spec.SecretKeySpec;  // Importa le chiavi simmetriche.
+
+// Cifratura di sessione del protocollo a frame: il saluto e la risposta portano ciascuno una chiave pubblica X25519 effimera
+// ("secure=<chiave>"), da cui entrambe le parti derivano con HKDF-SHA256 una chiave AES-256 per direzione. Da quel punto
+// il payload di ogni frame è cifrato con AES-GCM; tipo e numero di sequenza restano in chiaro ma sono autenticati.
+// Il nonce è un contatore implicito per direzione (i frame viaggiano su TCP, in ordine): nessun byte in più oltre ai 16
+// del tag, e una chiave nuova a ogni connessione. Ogni direzione usa un solo oggetto Cipher per tutta la connessione,
+// reinizializzato con il nuovo nonce a ogni frame; AES e GHASH usano le istruzioni AES-NI tramite gli intrinseci della JVM.
+// Una SessionCipher non è thread-safe per direzione: seal dal solo writer (o sotto il lock di invio), open dal solo lettore.
+final class SessionCipher {  // Contesti AES-GCM di una connessione.
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("chat.secure", "true"));  // Propone o accetta la cifratura di sessione.
+    static final int TAG_SIZE = 16;  // Byte del tag di autenticazione aggiunti a ogni payload.
+
+    private static final String AGREEMENT = "X25519";  // Accordo di chiave.
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";  // Cifrario autenticato.
+    private static final byte[] CLIENT_TO_SERVER = "chat/2 client to server".getBytes(StandardCharsets.US_ASCII);  // Etichetta della chiave del client.
+    private static final byte[] SERVER_TO_CLIENT = "chat/2 server to client".getBytes(StandardCharsets.US_ASCII);  // Etichetta della chiave del server.
+
+    private final Direction sending;  // Direzione in uscita.
+    private final Direction receiving;  // Direzione in entrata.
+    private ByteBuffer plain = ByteBuffer.allocate(256);  // Payload decifrato dell'ultimo frame (solo lettore).
+
+    private SessionCipher(byte[] sendKey, byte[] receiveKey) throws GeneralSecurityException {  // Costruttore privato: usare Handshake.complete.
+        this.sending = new Direction(sendKey, Cipher.ENCRYPT_MODE);  // Contesto di cifratura.
+        this.receiving = new Direction(receiveKey, Cipher.DECRYPT_MODE);  // Contesto di decifratura.
+    }
+
+    static final class Handshake {  // Coppia di chiavi effimere di una parte, in attesa della chiave pubblica dell'altra.
+        private final KeyPair pair;  // Chiavi effimere.
+
+        Handshake() throws GeneralSecurityException {  // Genera le chiavi; lancia un'eccezione se la piattaforma non supporta X25519.
+            this.pair = KeyPairGenerator.getInstance(AGREEMENT).generateKeyPair();  // Nuova coppia per ogni connessione.
+        }
+
+        String publicKey() {  // Restituisce la chiave pubblica in Base64 URL senza riempimento: nessuno spazio né '=' nel saluto.
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(pair.getPublic().getEncoded());
+        }
+
+        SessionCipher complete(String peerKey, boolean client) throws GeneralSecurityException {  // Deriva le chiavi di sessione dalla chiave pubblica dell'altra parte.
+            byte[] peer;  // Chiave pubblica dell'altra parte.
+            try {
+                peer = Base64.getUrlDecoder().decode(peerKey);  // Decodifica il Base64.
+            } catch (IllegalArgumentException e) {  // Base64 non valido.
+                throw new GeneralSecurityException("Invalid public key encoding", e);
+            }
+            PublicKey peerPublic = KeyFactory.getInstance(AGREEMENT).generatePublic(new X509EncodedKeySpec(peer));  // Chiave dell'altra parte.
+            KeyAgreement agreement = KeyAgreement.getInstance(AGREEMENT);  // Accordo X25519.
+            agreement.init(pair.getPrivate());  // Chiave privata locale.
+            agreement.doPhase(peerPublic, true);  // Unica fase.
+            byte[] secret = agreement.generateSecret();  // Segreto condiviso (lancia un'eccezione per i punti di ordine basso).
+            byte[] own = pair.getPublic().getEncoded();  // Chiave pubblica locale.
+            Mac hmac = Mac.getInstance("HmacSHA256");  // HKDF-SHA256.
+            hmac.init(new SecretKeySpec(client ? concat(own, peer) : concat(peer, own), "HmacSHA256"));  // Sale: le due chiavi pubbliche, prima quella del client.
+            byte[] prk = hmac.doFinal(secret);  // Estrazione.
+            hmac.init(new SecretKeySpec(prk, "HmacSHA256"));  // Espansione.
+            byte[] toServer = expand(hmac, CLIENT_TO_SERVER);  // Chiave del client.
+            byte[] toClient = expand(hmac, SERVER_TO_CLIENT);  // Chiave del server.
+            return client ? new SessionCipher(toServer, toClient) : new SessionCipher(toClient, toServer);  // Ognuno cifra con la propria e decifra con l'altra.
+        }
+
+        private static byte[] expand(Mac hmac, byte[] label) {  // Primo blocco dell'espansione HKDF: 32 byte, una chiave AES-256.
+            hmac.update(label);  // Informazione di contesto.
+            hmac.update((byte) 1);  // Contatore del blocco.
+            return hmac.doFinal();
+        }
+
+        private static byte[] concat(byte[] first, byte[] second) {  // Concatena due array.
+            byte[] result = new byte[first.length + second.length];  // Array risultato.
+            System.arraycopy(first, 0, result, 0, first.length);
+            System.arraycopy(second, 0, result, first.length, second.length);
+            return result;
+        }
+    }
+
+    void seal(byte type, long seq, ByteBuffer payload, ByteBuffer out) {  // Cifra il payload in out (TAG_SIZE byte in più), autenticando tipo e numero di sequenza.
+        try {
+            sending.next(type, seq).doFinal(payload, out);  // Un frame, un nonce.
+        } catch (GeneralSecurityException e) {  // Impossibile con chiave e nonce validi.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    byte[] seal(byte type, long seq, byte[] payload) {  // Cifra un payload in un nuovo array (client).
+        ByteBuffer out = ByteBuffer.allocate(payload.length + TAG_SIZE);  // Payload cifrato e tag.
+        seal(type, seq, ByteBuffer.wrap(payload), out);
+        return out.array();
+    }
+
+    ByteBuffer open(byte type, long seq, ByteBuffer payload) throws IOException {  // Decifra e autentica un payload; la vista restituita è valida fino alla prossima chiamata.
+        int length = payload.remaining() - TAG_SIZE;  // Byte in chiaro.
+        if (length < 0) throw new IOException("Sealed frame too short");  // Manca il tag.
+        if (plain.capacity() < length) plain = ByteBuffer.allocate(Math.max(length, plain.capacity() * 2));  // Ingrandisce il buffer riutilizzato.
+        plain.clear();  // Prepara il buffer.
+        try {
+            receiving.next(type, seq).doFinal(payload, plain);  // Verifica il tag e decifra.
+        } catch (AEADBadTagException e) {  // Frame alterato, riordinato o cifrato con un'altra chiave.
+            throw new IOException("Frame authentication failed", e);
+        } catch (GeneralSecurityException e) {  // Impossibile con chiave e nonce validi.
+            throw new IllegalStateException(e);
+        }
+        plain.flip();  // Prepara il buffer alla lettura.
+        return plain;
+    }
+
+    void skip() {  // Consuma il nonce di un frame in entrata scartato senza decifrarlo.
+        receiving.counter++;  // Il mittente l'ha comunque usato.
+    }
+
+    private static final class Direction {  // Contesto di una direzione: chiave, cifrario riutilizzato e contatore dei nonce.
+        final SecretKeySpec key;  // Chiave AES-256.
+        final Cipher cipher;  // Cifrario riutilizzato per tutti i frame.
+        final int mode;  // Cifratura o decifratura.
+        final byte[] nonce = new byte[12];  // Nonce GCM: 4 byte a zero e il contatore a 64 bit.
+        final byte[] header = new byte[9];  // Dati autenticati: tipo e numero di sequenza.
+        long counter;  // Frame elaborati in questa direzione.
+
+        Direction(byte[] key, int mode) throws GeneralSecurityException {  // Costruttore del contesto.
+            this.key = new SecretKeySpec(key, "AES");  // Chiave AES.
+            this.cipher = Cipher.getInstance(TRANSFORMATION);  // Creato una sola volta per connessione.
+            this.mode = mode;  // Imposta la direzione.
+        }
+
+        Cipher next(byte type, long seq) throws GeneralSecurityException {  // Prepara il cifrario per il prossimo frame.
+            long value = counter++;  // Nonce del frame.
+            for (int i = 0; i < 8; i++) nonce[4 + i] = (byte) (value >>> (56 - 8 * i));  // Contatore big-endian.
+            header[0] = type;  // Tipo.
+            for (int i = 0; i < 8; i++) header[1 + i] = (byte) (seq >>> (56 - 8 * i));  // Numero di sequenza big-endian.
+            cipher.init(mode, key, new GCMParameterSpec(TAG_SIZE * 8, nonce));  // Nuovo nonce, stesso contesto.
+            cipher.updateAAD(header);  // Autentica l'intestazione.
+            return cipher;
+        }
+    }
+}
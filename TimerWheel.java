@@ -0,0 +1,106 @@
+import java.util.ArrayList;  // Importa la lista dinamica.
+import java.util.List;  // Importa l'interfaccia delle liste.
+import java.util.concurrent.locks.LockSupport;  // Importa le primitive di sospensione dei thread.
+
+// Ruota temporizzata a hash (Varghese e Lauck): un array circolare di SLOTS liste doppiamente collegate, visitate una per
+// tick da un solo thread. Programmare o annullare una scadenza costa O(1) qualunque sia il numero di scadenze; ogni tick
+// visita solo la propria lista, e le scadenze oltre un giro intero contano i giri rimanenti.
+// La precisione è di un tick: adatta a timeout di secondi su decine di migliaia di connessioni, non a ritardi di millisecondi.
+// Le scadenze vengono eseguite sul thread della ruota, fuori dal lock: devono essere brevi e possono riprogrammarsi.
+final class TimerWheel {  // Ruota temporizzata condivisa.
+    static final long TICK_MILLIS = Math.max(1, Long.getLong("chat.timer.tick", 100));  // Millisecondi per tick.
+    private static final int SLOTS = 512;  // Liste della ruota (potenza di due): un giro copre SLOTS tick.
+
+    abstract static class Timeout {  // Scadenza programmabile più volte, nodo di una lista della ruota.
+        private Timeout previous;  // Nodo precedente nella lista (protetto dalla ruota).
+        private Timeout next;  // Nodo successivo nella lista (protetto dalla ruota).
+        private int slot = -1;  // Lista che contiene il nodo (-1 se non programmato).
+        private long rounds;  // Giri completi da attendere prima della scadenza.
+
+        protected abstract void expire();  // Eseguito sul thread della ruota alla scadenza.
+    }
+
+    private final Timeout[] heads = new Timeout[SLOTS];  // Primo nodo di ogni lista.
+    private final long tickNanos = TICK_MILLIS * 1_000_000L;  // Nanosecondi per tick.
+    private final long startNanos = System.nanoTime();  // Istante del tick zero.
+    private final Thread thread;  // Thread che fa avanzare la ruota.
+    private long tick;  // Ultimo tick elaborato (protetto da this).
+    private int scheduled;  // Scadenze programmate (protetto da this).
+    private volatile boolean running = true;  // False dopo la chiusura.
+
+    TimerWheel(String name) {  // Crea la ruota e avvia il suo thread.
+        thread = new Thread(this::run, name);  // Thread con nome riconoscibile.
+        thread.setDaemon(true);  // Non impedisce l'uscita.
+        thread.start();
+    }
+
+    synchronized void schedule(Timeout timeout, long delayNanos) {  // Programma (o riprogramma) la scadenza dopo almeno delayNanos.
+        if (timeout.slot >= 0) unlink(timeout);  // Annulla la programmazione precedente.
+        long deadline = System.nanoTime() - startNanos + Math.max(0, delayNanos);  // Scadenza dal tick zero.
+        long ticks = Math.max(1, (deadline + tickNanos - 1) / tickNanos - tick);  // Primo tick che inizia dopo la scadenza: mai in anticipo.
+        int slot = (int) ((tick + ticks) & (SLOTS - 1));  // Lista del tick di scadenza.
+        timeout.rounds = (ticks - 1) / SLOTS;  // Giri in cui la lista viene visitata prima del tick giusto.
+        timeout.slot = slot;  // In testa alla lista.
+        timeout.previous = null;
+        timeout.next = heads[slot];
+        if (heads[slot] != null) heads[slot].previous = timeout;
+        heads[slot] = timeout;
+        scheduled++;
+    }
+
+    synchronized boolean cancel(Timeout timeout) {  // Annulla la scadenza; false se non era programmata.
+        if (timeout.slot < 0) return false;  // Già scaduta o mai programmata.
+        unlink(timeout);
+        return true;
+    }
+
+    synchronized int size() {  // Restituisce le scadenze programmate.
+        return scheduled;
+    }
+
+    void close() {  // Ferma il thread; le scadenze programmate non vengono più eseguite.
+        running = false;
+        LockSupport.unpark(thread);  // Interrompe l'attesa del prossimo tick.
+    }
+
+    private void unlink(Timeout timeout) {  // Toglie il nodo dalla sua lista (con il lock).
+        if (timeout.previous != null) timeout.previous.next = timeout.next;
+        else heads[timeout.slot] = timeout.next;  // Era in testa.
+        if (timeout.next != null) timeout.next.previous = timeout.previous;
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.slot = -1;  // Non programmato.
+        scheduled--;
+    }
+
+    private void run() {  // Ciclo del thread: elabora i tick scaduti, recuperando quelli persi, poi attende il successivo.
+        List<Timeout> expired = new ArrayList<>();  // Scadenze da eseguire fuori dal lock.
+        while (running) {
+            long target = (System.nanoTime() - startNanos) / tickNanos;  // Ultimo tick già iniziato.
+            synchronized (this) {
+                while (tick < target) advance(expired);  // Un tick alla volta, in ordine.
+            }
+            for (Timeout timeout : expired) {
+                try {
+                    timeout.expire();  // Può riprogrammarsi.
+                } catch (RuntimeException e) {  // Una scadenza difettosa non ferma la ruota.
+                    e.printStackTrace();  // Stampa le informazioni di eccezione.
+                }
+            }
+            expired.clear();
+            LockSupport.parkNanos(startNanos + (target + 1) * tickNanos - System.nanoTime());  // Fino al prossimo tick.
+        }
+    }
+
+    private void advance(List<Timeout> expired) {  // Passa al tick successivo e raccoglie le scadenze della sua lista (con il lock).
+        int slot = (int) (++tick & (SLOTS - 1));  // Lista del nuovo tick.
+        for (Timeout timeout = heads[slot]; timeout != null; ) {
+            Timeout next = timeout.next;  // Il nodo può essere tolto.
+            if (timeout.rounds-- <= 0) {  // Scaduto in questo giro.
+                unlink(timeout);
+                expired.add(timeout);
+            }
+            timeout = next;
+        }
+    }
+}
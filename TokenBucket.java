@@ -0,0 +1,35 @@
+final class TokenBucket {  // Secchio di gettoni per i limiti di traffico di una connessione (solo thread di lettura).
+    private final double perNano;  // Gettoni aggiunti per nanosecondo.
+    private final double capacity;  // Gettoni massimi accumulabili (raffica consentita).
+    private double tokens;  // Gettoni disponibili (negativi se in debito).
+    private long last;  // Istante dell'ultimo rifornimento.
+
+    TokenBucket(long perSecond, long burstSeconds) {  // Costruttore del secchio, inizialmente pieno.
+        this.perNano = perSecond / 1e9;  // Velocità di rifornimento.
+        this.capacity = (double) perSecond * Math.max(1, burstSeconds);  // Almeno un secondo di raffica.
+        this.tokens = capacity;  // Parte pieno.
+        this.last = System.nanoTime();  // Inizio del rifornimento.
+    }
+
+    boolean tryConsume(long amount, long now) {  // Consuma i gettoni solo se sono tutti disponibili.
+        refill(now);  // Aggiunge i gettoni maturati.
+        if (tokens < amount) return false;  // Limite superato.
+        tokens -= amount;  // Consuma.
+        return true;
+    }
+
+    void consume(long amount, long now) {  // Consuma i gettoni anche andando in debito (per i byte già letti).
+        refill(now);  // Aggiunge i gettoni maturati.
+        tokens -= amount;  // Consuma.
+    }
+
+    long delayNanos(long now) {  // Restituisce i nanosecondi da attendere prima che sia disponibile almeno un gettone (0 se lo è già).
+        refill(now);  // Aggiunge i gettoni maturati.
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / perNano);  // Tempo per ripagare il debito e maturare un gettone.
+    }
+
+    private void refill(long now) {  // Aggiunge i gettoni maturati dall'ultimo rifornimento.
+        tokens = Math.min(capacity, tokens + (now - last) * perNano);  // Mai oltre la capacità.
+        last = now;  // Aggiorna l'istante.
+    }
+}
@@ -0,0 +1,260 @@
+import java.lang.management.GarbageCollectorMXBean;  // Importa i bean di gestione del garbage collector.
+import java.lang.management.ManagementFactory;  // Importa la fabbrica dei bean di gestione.
+import java.util.ArrayList;  // Importa la lista dinamica.
+import java.util.List;  // Importa l'interfaccia delle liste.
+import java.util.concurrent.CopyOnWriteArrayList;  // Importa la lista copiata a ogni modifica, per il confronto con le stanze.
+import java.util.Locale;  // Importa la classe per la formattazione indipendente dalla lingua.
+import java.util.function.LongSupplier;  // Importa l'interfaccia funzionale che restituisce un long.
+import java.util.regex.Pattern;  // Importa le espressioni regolari per filtrare i benchmark.
+
+// Microbenchmark dei percorsi caldi (cifratura, broadcast e ricerca), senza dipendenze esterne.
+// Compilazione ed esecuzione dalla radice del progetto:
+//   javac -encoding UTF-8 -d out *.java bench/*.java
+//   java -cp out ChatBenchmark [-f regex] [-wi 5] [-i 5] [-t 1000]
+public class ChatBenchmark {  // Esegue ogni benchmark con iterazioni di riscaldamento e di misura, riportando ops/s e byte allocati per operazione.
+    private static final int[] MESSAGE_SIZES = {16, 256, 4096};  // Lunghezze dei messaggi (caratteri).
+    private static final int[] FAN_OUT = {10, 100, 1000};  // Numero di destinatari simulati per il broadcast.
+    private static final int[] POPULATION = {1000, 10000};  // Connessioni aperte sul server simulato.
+    private static final int ROOM_SIZE = 20;  // Membri di ogni stanza nei benchmark delle stanze.
+    private static final int SEARCH_MESSAGES = 1_000_000;  // Messaggi indicizzati prima dei benchmark di ricerca.
+    private static volatile long blackhole;  // Impedisce al JIT di eliminare il lavoro misurato.
+
+    private static final class Benchmark {  // Un benchmark con il suo parametro.
+        final String name;  // Nome del benchmark.
+        final String param;  // Parametro (dimensione o numero di destinatari).
+        final LongSupplier operation;  // Operazione misurata; il risultato finisce nel blackhole.
+
+        Benchmark(String name, String param, LongSupplier operation) {  // Costruttore del benchmark.
+            this.name = name;  // Imposta il nome.
+            this.param = param;  // Imposta il parametro.
+            this.operation = operation;  // Imposta l'operazione.
+        }
+    }
+
+    private static final class SimulatedSink implements ChatConnection {  // Destinatario simulato: accoda come una ClientSession e svuota come il suo writer.
+        private final OutboundQueue<EncodedMessage> outbound = new OutboundQueue<>(EncodedMessage::release);  // Coda di uscita reale.
+        private final boolean framed;  // Formato negoziato dal client simulato.
+
+        SimulatedSink(boolean framed) {  // Costruttore del destinatario.
+            this.framed = framed;  // Imposta il formato.
+        }
+
+        @Override
+        public void send(ChatMessage message) {  // Accoda la codifica condivisa nel formato del client.
+            if (!outbound.offer((framed ? message.frame() : message.line()).retain())) throw new IllegalStateException("sink closed");  // Non deve mai accadere nel benchmark.
+        }
+
+        long drain() {  // Simula il writer: consuma le viste e rilascia i messaggi.
+            long bytes = 0;  // Byte "scritti".
+            EncodedMessage message;
+            while ((message = outbound.poll()) != null) {  // Svuota la coda.
+                bytes += message.view().remaining();  // Simula la scrittura della vista.
+                message.release();  // Rilascia il riferimento.
+            }
+            return bytes;
+        }
+
+        @Override
+        public void close() {  // Chiude la coda simulata.
+            outbound.close();  // Scarta i messaggi rimasti.
+        }
+    }
+
+    public static void main(String[] args) {  // Metodo principale del benchmark.
+        Pattern filter = Pattern.compile(".*");  // Filtro sui nomi dei benchmark.
+        int warmupIterations = 5;  // Iterazioni di riscaldamento.
+        int iterations = 5;  // Iterazioni di misura.
+        long iterationMillis = 1000;  // Durata di ogni iterazione.
+        for (int i = 0; i + 1 < args.length; i += 2) {  // Legge le opzioni a coppie.
+            switch (args[i]) {
+                case "-f": filter = Pattern.compile(args[i + 1]); break;  // Filtro sui nomi.
+                case "-wi": warmupIterations = Integer.parseInt(args[i + 1]); break;  // Iterazioni di riscaldamento.
+                case "-i": iterations = Integer.parseInt(args[i + 1]); break;  // Iterazioni di misura.
+                case "-t": iterationMillis = Long.parseLong(args[i + 1]); break;  // Durata delle iterazioni.
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "%-28s %8s %16s %12s %12s%n", "Benchmark", "Param", "ops/s", "error", "B/op");  // Intestazione della tabella.
+        for (Benchmark benchmark : benchmarks()) {  // Esegue i benchmark selezionati.
+            if (!filter.matcher(benchmark.name).find()) continue;  // Salta i benchmark esclusi dal filtro.
+            run(benchmark, warmupIterations, iterations, iterationMillis);  // Misura il benchmark.
+        }
+    }
+
+    private static List<Benchmark> benchmarks() {  // Costruisce l'elenco dei benchmark.
+        List<Benchmark> list = new ArrayList<>();  // Elenco dei benchmark.
+        for (int size : MESSAGE_SIZES) {  // Cifratura e decifratura per ogni dimensione.
+            String message = message(size);  // Messaggio di prova.
+            CipherEngine.Transformer caesarEncrypt = CipherEngine.transformer(CipherEngine.CAESAR_ENCRYPT, "7");  // Trasformatori precompilati.
+            CipherEngine.Transformer caesarDecrypt = CipherEngine.transformer(CipherEngine.CAESAR_DECRYPT, "7");
+            CipherEngine.Transformer vigenereEncrypt = CipherEngine.transformer(CipherEngine.VIGENERE_ENCRYPT, "lemon");
+            CipherEngine.Transformer vigenereDecrypt = CipherEngine.transformer(CipherEngine.VIGENERE_DECRYPT, "lemon");
+            String param = String.valueOf(size);  // Parametro: dimensione del messaggio.
+            list.add(new Benchmark("caesarEncrypt", param, () -> caesarEncrypt.apply(message).length()));
+            list.add(new Benchmark("caesarDecrypt", param, () -> caesarDecrypt.apply(message).length()));
+            list.add(new Benchmark("vigenereEncrypt", param, () -> vigenereEncrypt.apply(message).length()));
+            list.add(new Benchmark("vigenereDecrypt", param, () -> vigenereDecrypt.apply(message).length()));
+            char[] chars = message.toCharArray();  // Buffer riutilizzato per la trasformazione sul posto.
+            long[] seq = {0};  // Numero di sequenza dei frame.
+            list.add(new Benchmark("frame", param, () -> {  // Codifica a frame non compressa.
+                EncodedMessage frame = EncodedMessage.frame(ChatProtocol.TYPE_MESSAGE, ++seq[0], message);  // Codifica il messaggio.
+                int length = frame.length();  // Byte sul filo.
+                frame.release();  // Restituisce il buffer al pool.
+                return length;
+            }));
+            list.add(new Benchmark("deflatedFrame", param, () -> {  // Codifica compressa, come per un broadcast verso client con "deflate".
+                EncodedMessage frame = EncodedMessage.deflatedFrame(ChatProtocol.TYPE_MESSAGE_DEFLATE, ++seq[0], message);  // Null se non si riduce.
+                if (frame == null) return 0;
+                int length = frame.length();  // Byte sul filo.
+                frame.release();  // Restituisce il buffer al pool.
+                return length;
+            }));
+            list.add(new Benchmark("vigenereInPlace", param, () -> {  // Trasformazione senza allocazioni.
+                vigenereEncrypt.transform(chars, 0, chars.length);  // Cifra sul posto.
+                vigenereDecrypt.transform(chars, 0, chars.length);  // E ripristina il testo originale.
+                return chars[0];
+            }));
+        }
+
+        String line = message(256);  // Messaggio tipico per la scelta dell'opzione.
+        String[] keys = {"", "7", "7", "lemon", "lemon"};  // Chiave adatta a ciascuna opzione.
+        int[] next = {0};  // Indice dell'opzione corrente.
+        list.add(new Benchmark("applyCryptoDispatch", "256", () -> {  // Risoluzione dell'opzione dal menu e applicazione, come in applyCrypto.
+            int index = next[0]++ % CipherEngine.OPTIONS.length;  // Ruota tra le opzioni.
+            return CipherEngine.transformer(CipherEngine.OPTIONS[index], keys[index]).apply(line).length();
+        }));
+
+        for (int recipients : FAN_OUT) {  // Broadcast verso N destinatari simulati.
+            SimulatedSink[] sinks = new SimulatedSink[recipients];  // Destinatari simulati.
+            for (int i = 0; i < recipients; i++) sinks[i] = new SimulatedSink(i % 2 == 0);  // Crea i destinatari, metà a frame e metà a righe.
+            String param = String.valueOf(recipients);  // Parametro: numero di destinatari.
+            long[] seq = {0};  // Numero di sequenza dei messaggi.
+            list.add(new Benchmark("broadcastFanOut", param, () -> {  // Stesso percorso di handleClientMessage.
+                ChatMessage message = new ChatMessage(++seq[0], line);  // Codificato una sola volta per formato.
+                for (SimulatedSink sink : sinks) sink.send(message);  // Accoda per ogni destinatario.
+                message.release();  // Rilascia i riferimenti del mittente.
+                long bytes = 0;  // Byte consegnati.
+                for (SimulatedSink sink : sinks) bytes += sink.drain();  // Svuota le code come farebbero i writer.
+                return bytes;
+            }));
+        }
+
+        for (int population : POPULATION) {  // Stanze di ROOM_SIZE membri su tutta la popolazione.
+            RoomRegistry registry = new RoomRegistry();  // Registro delle stanze.
+            CopyOnWriteArrayList<ChatConnection> all = new CopyOnWriteArrayList<>();  // Lista globale, come prima delle stanze.
+            SimulatedSink[] sinks = new SimulatedSink[population];  // Destinatari simulati.
+            for (int i = 0; i < population; i++) {  // Distribuisce i destinatari nelle stanze.
+                sinks[i] = new SimulatedSink(true);  // Destinatario a frame.
+                registry.open(sinks[i]);  // Entra nella stanza iniziale.
+                registry.join(sinks[i], "room-" + i / ROOM_SIZE);  // E poi nella propria stanza.
+                all.add(sinks[i]);  // Lista globale.
+            }
+            String param = String.valueOf(population);  // Parametro: connessioni aperte.
+            int[] nextRoom = {0};  // Stanza corrente.
+            list.add(new Benchmark("roomFanOut", param, () -> {  // Stesso percorso di handleClientMessage con le stanze: costo proporzionale alla stanza.
+                String room = "room-" + nextRoom[0]++ % (population / ROOM_SIZE);  // Ruota tra le stanze.
+                ChatMessage message = new ChatMessage(ChatProtocol.UNSEQUENCED, line);  // Codificato una sola volta.
+                long bytes = 0;  // Byte consegnati.
+                for (ChatConnection member : registry.members(room)) member.send(message);  // Accoda ai membri.
+                message.release();  // Rilascia i riferimenti del mittente.
+                for (ChatConnection member : registry.members(room)) bytes += ((SimulatedSink) member).drain();  // Svuota le code dei membri.
+                return bytes;
+            }));
+            SimulatedSink churner = new SimulatedSink(true);  // Connessione che entra ed esce.
+            list.add(new Benchmark("roomChurn", param, () -> {  // Apertura, cambio di stanza e chiusura nel registro.
+                registry.open(churner);  // Entra nella stanza iniziale.
+                registry.join(churner, "room-0");  // Cambia stanza.
+                registry.close(churner);  // Esce.
+                return registry.size();
+            }));
+            list.add(new Benchmark("copyOnWriteChurn", param, () -> {  // Apertura e chiusura nella lista globale: copia l'intero array due volte.
+                all.add(churner);  // Entra.
+                all.remove(churner);  // Esce.
+                return all.size();
+            }));
+        }
+
+        SearchIndex growing = new SearchIndex();  // Indice che cresce durante il benchmark.
+        long[] added = {0};  // Ultimo numero di sequenza indicizzato.
+        list.add(new Benchmark("searchIndexAdd", "1", () -> {  // Indicizzazione di un messaggio, come in newMessage.
+            growing.add(++added[0], indexedMessage(added[0]));  // Un messaggio alla volta.
+            return added[0];
+        }));
+        SearchIndex[] full = {null};  // Indice di SEARCH_MESSAGES messaggi, costruito al primo uso (solo se il benchmark è selezionato).
+        String[] queries = {"user 123", "user 123 room 17", "msg 4242", "ciao tutti"};  // Termini rari, incrociati, unici e presenti ovunque.
+        for (String query : queries) {
+            list.add(new Benchmark("searchQuery", query.replace(' ', '+'), () -> {  // Ultimi MAX_RESULTS risultati, senza leggere i testi.
+                if (full[0] == null) {  // Primo uso: costruisce l'indice.
+                    SearchIndex index = new SearchIndex();
+                    for (long seq = 1; seq <= SEARCH_MESSAGES; seq++) index.add(seq, indexedMessage(seq));
+                    full[0] = index;
+                }
+                return full[0].search(query, SearchIndex.MAX_RESULTS).length;
+            }));
+        }
+        return list;
+    }
+
+    private static String indexedMessage(long seq) {  // Genera il messaggio indicizzato con il numero di sequenza dato: pochi termini comuni e alcuni rari.
+        return "msg " + seq % 10007 + " room " + seq % 101 + " user " + seq % 997 + " ciao a tutti";
+    }
+
+    private static void run(Benchmark benchmark, int warmupIterations, int iterations, long iterationMillis) {  // Misura un benchmark.
+        for (int i = 0; i < warmupIterations; i++) measure(benchmark.operation, iterationMillis);  // Riscaldamento del JIT.
+        double[] throughput = new double[iterations];  // Ops/s di ogni iterazione.
+        long operations = 0;  // Operazioni totali misurate.
+        long allocated = 0;  // Byte allocati totali.
+        long gcBefore = gcCount();  // Raccolte del GC prima della misura.
+        for (int i = 0; i < iterations; i++) {  // Iterazioni di misura.
+            long allocatedBefore = allocatedBytes();  // Byte allocati dal thread prima dell'iterazione.
+            long start = System.nanoTime();  // Inizio dell'iterazione.
+            long count = measure(benchmark.operation, iterationMillis);  // Esegue l'iterazione.
+            long elapsed = System.nanoTime() - start;  // Durata effettiva.
+            allocated += allocatedBytes() - allocatedBefore;  // Accumula le allocazioni.
+            operations += count;  // Accumula le operazioni.
+            throughput[i] = count * 1e9 / elapsed;  // Ops/s dell'iterazione.
+        }
+        double mean = 0;  // Media delle ops/s.
+        for (double value : throughput) mean += value / iterations;  // Calcola la media.
+        double variance = 0;  // Varianza delle ops/s.
+        for (double value : throughput) variance += (value - mean) * (value - mean) / Math.max(1, iterations - 1);  // Calcola la varianza campionaria.
+        double bytesPerOp = allocatedBytes() < 0 ? Double.NaN : (double) allocated / Math.max(1, operations);  // Byte allocati per operazione.
+        System.out.printf(Locale.ROOT, "%-28s %8s %16.1f %12.1f %12.1f   (gc: %d)%n",
+                benchmark.name, benchmark.param, mean, Math.sqrt(variance), bytesPerOp, gcCount() - gcBefore);  // Riga dei risultati.
+    }
+
+    private static long measure(LongSupplier operation, long iterationMillis) {  // Esegue l'operazione per la durata indicata e restituisce il numero di esecuzioni.
+        long deadline = System.nanoTime() + iterationMillis * 1_000_000L;  // Fine dell'iterazione.
+        long count = 0;  // Esecuzioni completate.
+        long sink = 0;  // Accumula i risultati per il blackhole.
+        do {
+            for (int i = 0; i < 64; i++) sink += operation.getAsLong();  // Lotto di esecuzioni tra due letture dell'orologio.
+            count += 64;  // Aggiorna il conteggio.
+        } while (System.nanoTime() < deadline);  // Continua fino alla scadenza.
+        blackhole = sink;  // Pubblica il risultato.
+        return count;
+    }
+
+    private static long allocatedBytes() {  // Restituisce i byte allocati dal thread corrente, o -1 se non supportato.
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();  // Bean dei thread.
+        if (bean instanceof com.sun.management.ThreadMXBean) {  // Estensione HotSpot con il conteggio delle allocazioni.
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());  // Byte allocati dal thread.
+        }
+        return -1;  // Conteggio non disponibile.
+    }
+
+    private static long gcCount() {  // Restituisce il numero totale di raccolte del garbage collector.
+        long count = 0;  // Raccolte totali.
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) count += Math.max(0, bean.getCollectionCount());  // Somma i collector.
+        return count;
+    }
+
+    private static String message(int size) {  // Genera un messaggio di chat realistico della lunghezza indicata.
+        String sample = "Ciao a tutti, il server e' di nuovo online! ";  // Testo misto di lettere, spazi e punteggiatura.
+        StringBuilder builder = new StringBuilder(size);  // Costruttore del messaggio.
+        while (builder.length() < size) builder.append(sample);  // Ripete il testo di esempio.
+        builder.setLength(size);  // Tronca alla lunghezza richiesta.
+        return builder.toString();
+    }
+}
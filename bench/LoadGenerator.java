@@ -0,0 +1,396 @@
+import java.io.IOException;  // Importa l'eccezione per gli errori di input/output.
+import java.net.InetSocketAddress;  // Importa la classe per l'indirizzo del server.
+import java.net.StandardSocketOptions;  // Importa le opzioni standard dei socket.
+import java.nio.ByteBuffer;  // Importa i buffer di byte.
+import java.nio.channels.SelectionKey;  // Importa le chiavi di selezione.
+import java.nio.channels.Selector;  // Importa il selettore.
+import java.nio.channels.SocketChannel;  // Importa il canale del socket.
+import java.nio.charset.Charset;  // Importa la classe per la codifica dei caratteri.
+import java.nio.charset.StandardCharsets;  // Importa le codifiche standard.
+import java.security.GeneralSecurityException;  // Importa l'eccezione generica degli algoritmi crittografici.
+import java.util.ArrayDeque;  // Importa la coda dei buffer da scrivere.
+import java.util.ArrayList;  // Importa la lista dinamica.
+import java.util.Collections;  // Importa le utilità per le collezioni.
+import java.util.List;  // Importa l'interfaccia delle liste.
+import java.util.Locale;  // Importa la classe per la formattazione indipendente dalla lingua.
+import java.util.concurrent.TimeUnit;  // Importa le unità di tempo.
+import java.util.concurrent.atomic.LongAdder;  // Importa un contatore ad alta concorrenza.
+import java.util.zip.Inflater;  // Importa il decompressore deflate.
+
+// Generatore di carico senza interfaccia grafica per il server di chat (porta 12345; protocollo a righe, a frame con -framed true,
+// a frame compressi con -deflate true, a frame cifrati AES-GCM con -secure true).
+// Con -p 12345,12346 le connessioni si distribuiscono a turno sui nodi di un cluster.
+// Apre migliaia di connessioni su pochi thread NIO, invia messaggi marcati con l'istante di invio e misura
+// la latenza end-to-end del broadcast su ogni destinatario.
+//   javac -encoding UTF-8 -d out *.java bench/*.java
+//   java -cp out LoadGenerator -c 2000 -senders 20 -rate 50 -size 128 -d 30 [-framed true] [-deflate true] [-secure true] [-p 12345,12346]
+public class LoadGenerator {  // Genera carico sul server e riporta i percentili di latenza e il throughput sostenuto.
+    private static final char MARK = '#';  // Separatore dei campi: non è una lettera, quindi sopravvive a Cesare e Vigenère.
+    private static final Charset CHARSET = Charset.defaultCharset();  // Stessa codifica del ClientGUI.
+
+    private final List<InetSocketAddress> addresses;  // Indirizzi dei nodi del server.
+    private final int connections;  // Connessioni totali.
+    private final int senders;  // Connessioni che inviano (le altre ascoltano soltanto).
+    private final double ratePerSender;  // Messaggi al secondo per ogni connessione che invia.
+    private final int size;  // Dimensione di ogni messaggio in caratteri.
+    private final CipherEngine.Transformer cipher;  // Cifratura applicata ai messaggi inviati, come nel ClientGUI.
+    private final boolean framed;  // True per negoziare il protocollo a frame.
+    private final boolean deflate;  // True per negoziare anche la compressione.
+    private final boolean secure;  // True per negoziare la cifratura di sessione.
+    private final LatencyHistogram latency = new LatencyHistogram();  // Latenze end-to-end in nanosecondi.
+    private final LongAdder sent = new LongAdder();  // Messaggi inviati.
+    private final LongAdder received = new LongAdder();  // Messaggi ricevuti (consegne).
+    private final LongAdder failures = new LongAdder();  // Connessioni fallite o chiuse dal server.
+    private volatile boolean measuring;  // True dopo il riscaldamento.
+    private volatile boolean running = true;  // False alla fine del test.
+
+    LoadGenerator(List<InetSocketAddress> addresses, int connections, int senders, double ratePerSender, int size, CipherEngine.Transformer cipher,
+                  boolean framed, boolean deflate, boolean secure) {  // Costruttore del generatore.
+        this.addresses = addresses;  // Imposta gli indirizzi dei nodi.
+        this.connections = connections;  // Imposta il numero di connessioni.
+        this.senders = Math.min(senders, connections);  // Non più mittenti che connessioni.
+        this.ratePerSender = ratePerSender;  // Imposta il ritmo di invio.
+        this.size = size;  // Imposta la dimensione dei messaggi.
+        this.cipher = cipher;  // Imposta la cifratura.
+        this.framed = framed || deflate || secure;  // Imposta il protocollo (compressione e cifratura richiedono i frame).
+        this.deflate = deflate;  // Imposta la compressione.
+        this.secure = secure;  // Imposta la cifratura di sessione.
+    }
+
+    public static void main(String[] args) throws Exception {  // Metodo principale del generatore di carico.
+        String host = "localhost";  // Host del server.
+        String ports = "12345";  // Porte dei nodi, separate da virgole.
+        int connections = 1000;  // Connessioni totali.
+        int senders = 10;  // Connessioni che inviano.
+        double rate = 10;  // Messaggi al secondo per mittente.
+        int size = 64;  // Dimensione dei messaggi.
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);  // Thread di I/O del generatore.
+        int warmup = 5;  // Secondi di riscaldamento.
+        int duration = 20;  // Secondi di misura.
+        String option = CipherEngine.PLAIN_TEXT;  // Cifratura dei messaggi inviati.
+        String key = "";  // Chiave di cifratura.
+        boolean framed = false;  // Protocollo a frame.
+        boolean deflate = false;  // Compressione dei messaggi lunghi.
+        boolean secure = false;  // Cifratura di sessione AES-GCM.
+        for (int i = 0; i + 1 < args.length; i += 2) {  // Legge le opzioni a coppie.
+            String value = args[i + 1];  // Valore dell'opzione.
+            switch (args[i]) {
+                case "-h": host = value; break;  // Host del server.
+                case "-p": ports = value; break;  // Porte dei nodi.
+                case "-c": connections = Integer.parseInt(value); break;  // Connessioni totali.
+                case "-senders": senders = Integer.parseInt(value); break;  // Connessioni che inviano.
+                case "-rate": rate = Double.parseDouble(value); break;  // Messaggi al secondo per mittente.
+                case "-size": size = Integer.parseInt(value); break;  // Dimensione dei messaggi.
+                case "-threads": threads = Integer.parseInt(value); break;  // Thread di I/O.
+                case "-w": warmup = Integer.parseInt(value); break;  // Secondi di riscaldamento.
+                case "-d": duration = Integer.parseInt(value); break;  // Secondi di misura.
+                case "-caesar": option = CipherEngine.CAESAR_ENCRYPT; key = value; break;  // Cifra i messaggi con Cesare.
+                case "-vigenere": option = CipherEngine.VIGENERE_ENCRYPT; key = value; break;  // Cifra i messaggi con Vigenère.
+                case "-framed": framed = Boolean.parseBoolean(value); break;  // Negozia il protocollo a frame.
+                case "-deflate": deflate = Boolean.parseBoolean(value); break;  // Negozia la compressione.
+                case "-secure": secure = Boolean.parseBoolean(value); break;  // Negozia la cifratura di sessione.
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        List<InetSocketAddress> addresses = new ArrayList<>();  // Un indirizzo per nodo.
+        for (String port : ports.split(",")) addresses.add(new InetSocketAddress(host, Integer.parseInt(port.trim())));  // Stesso host, porte diverse.
+        LoadGenerator generator = new LoadGenerator(addresses, connections, senders, rate, size,
+                CipherEngine.transformer(option, key), framed, deflate, secure);  // Crea il generatore.
+        generator.run(threads, warmup, duration);  // Esegue il test.
+    }
+
+    void run(int threads, int warmupSeconds, int durationSeconds) throws IOException, InterruptedException {  // Esegue il test e stampa il rapporto.
+        List<Worker> workers = new ArrayList<>();  // Thread di I/O.
+        for (int i = 0; i < threads; i++) workers.add(new Worker(i));  // Crea i thread.
+        for (int i = 0; i < connections; i++) workers.get(i % threads).connect(i, i < senders);  // Distribuisce le connessioni.
+        workers.forEach(Thread::start);  // Avvia i thread.
+        System.out.printf(Locale.ROOT, "%d connections (%d senders x %.1f msg/s, %d chars, %s) to %s, %d I/O threads%n",
+                connections, senders, ratePerSender, size, secure ? "secure" : deflate ? "deflate" : framed ? "framed" : "lines", addresses, threads);  // Riepilogo della configurazione.
+
+        long start = System.nanoTime();  // Inizio del test.
+        long lastSent = 0;  // Messaggi inviati al secondo precedente.
+        long lastReceived = 0;  // Messaggi ricevuti al secondo precedente.
+        long measureStart = 0;  // Inizio della misura.
+        long sentAtMeasureStart = 0;  // Messaggi inviati all'inizio della misura.
+        long receivedAtMeasureStart = 0;  // Messaggi ricevuti all'inizio della misura.
+        if (warmupSeconds == 0) {  // Nessun riscaldamento: misura da subito.
+            measuring = true;  // Inizia la misura.
+            measureStart = start;  // Istante di inizio della misura.
+        }
+        for (int second = 1; second <= warmupSeconds + durationSeconds; second++) {  // Un rapporto al secondo.
+            TimeUnit.NANOSECONDS.sleep(start + TimeUnit.SECONDS.toNanos(second) - System.nanoTime());  // Attende il prossimo secondo.
+            long nowSent = sent.sum();  // Messaggi inviati finora.
+            long nowReceived = received.sum();  // Messaggi ricevuti finora.
+            if (second == warmupSeconds) {  // Fine del riscaldamento.
+                latency.reset();  // Scarta le latenze del riscaldamento.
+                measuring = true;  // Inizia la misura.
+                measureStart = System.nanoTime();  // Istante di inizio della misura.
+                sentAtMeasureStart = nowSent;  // Contatori all'inizio della misura.
+                receivedAtMeasureStart = nowReceived;
+            }
+            System.out.printf(Locale.ROOT, "[%3ds]%s sent %8d/s  delivered %9d/s  p99 %8.2f ms  failures %d%n",
+                    second, second <= warmupSeconds ? " warmup" : "", nowSent - lastSent, nowReceived - lastReceived,
+                    latency.percentile(99) / 1e6, failures.sum());  // Rapporto del secondo.
+            lastSent = nowSent;  // Aggiorna i contatori.
+            lastReceived = nowReceived;
+        }
+        running = false;  // Ferma i thread di I/O.
+        double seconds = Math.max(1, System.nanoTime() - measureStart) / 1e9;  // Durata della misura.
+        workers.forEach(worker -> worker.selector.wakeup());  // Risveglia i thread per farli terminare.
+        for (Worker worker : workers) worker.join();  // Attende la chiusura delle connessioni.
+
+        System.out.println("---");
+        System.out.printf(Locale.ROOT, "sustained: %.0f msg/s sent, %.0f deliveries/s%n",
+                (sent.sum() - sentAtMeasureStart) / seconds, (received.sum() - receivedAtMeasureStart) / seconds);  // Throughput sostenuto.
+        System.out.printf(Locale.ROOT, "latency (ms): p50 %.3f  p99 %.3f  p99.9 %.3f  max %.3f  mean %.3f  (%d samples)%n",
+                latency.percentile(50) / 1e6, latency.percentile(99) / 1e6, latency.percentile(99.9) / 1e6,
+                latency.max() / 1e6, latency.mean() / 1e6, latency.count());  // Percentili di latenza.
+        System.out.println("failed connections: " + failures.sum());  // Connessioni fallite.
+    }
+
+    private final class Worker extends Thread {  // Thread di I/O che gestisce un sottoinsieme delle connessioni.
+        private final Selector selector;  // Selettore delle connessioni del thread.
+        private final List<Client> clients = new ArrayList<>();  // Connessioni del thread.
+
+        Worker(int index) throws IOException {  // Costruttore del thread.
+            super("load-" + index);  // Nome del thread.
+            selector = Selector.open();  // Apre il selettore.
+        }
+
+        void connect(int id, boolean sender) throws IOException {  // Avvia una connessione non bloccante.
+            SocketChannel channel = SocketChannel.open();  // Apre il canale.
+            channel.configureBlocking(false);  // Modalità non bloccante.
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);  // Invia subito i messaggi brevi.
+            Client client = new Client(id, channel, sender);  // Crea la connessione.
+            channel.connect(addresses.get(id % addresses.size()));  // Avvia la connessione, a turno sui nodi.
+            channel.register(selector, SelectionKey.OP_CONNECT, client);  // Attende il completamento.
+            clients.add(client);  // Registra la connessione.
+        }
+
+        @Override
+        public void run() {  // Ciclo del thread di I/O.
+            long interval = ratePerSender > 0 ? (long) (1e9 / ratePerSender) : Long.MAX_VALUE;  // Intervallo tra due invii.
+            try {
+                while (running) {  // Continua fino alla fine del test.
+                    long now = System.nanoTime();  // Istante corrente.
+                    long nextDue = Long.MAX_VALUE;  // Prossimo invio programmato.
+                    for (Client client : clients) {  // Invia i messaggi dovuti.
+                        if (!client.sender || !client.connected) continue;  // Solo mittenti connessi.
+                        while (client.nextSend <= now) {  // Recupera gli invii arretrati senza perdere il ritmo.
+                            client.send(now);  // Invia un messaggio.
+                            client.nextSend += interval;  // Programma il prossimo.
+                        }
+                        nextDue = Math.min(nextDue, client.nextSend);  // Aggiorna la prossima scadenza.
+                    }
+                    long waitMillis = nextDue == Long.MAX_VALUE ? 100 : Math.max(1, (nextDue - System.nanoTime()) / 1_000_000);  // Attesa massima.
+                    selector.select(waitMillis);  // Attende eventi o la prossima scadenza.
+                    for (SelectionKey key : selector.selectedKeys()) {  // Gestisce gli eventi.
+                        Client client = (Client) key.attachment();  // Connessione dell'evento.
+                        try {
+                            if (key.isConnectable()) client.finishConnect(key);  // Connessione completata.
+                            else {
+                                if (key.isReadable()) client.read();  // Dati in arrivo.
+                                if (key.isValid() && key.isWritable()) client.flush(key);  // Socket di nuovo scrivibile.
+                            }
+                        } catch (IOException e) {  // Connessione persa.
+                            client.fail(key);  // La chiude e la conta come fallita.
+                        }
+                    }
+                    selector.selectedKeys().clear();  // Svuota gli eventi gestiti.
+                }
+            } catch (IOException e) {  // Errore del selettore.
+                e.printStackTrace();  // Stampa le informazioni di eccezione.
+            } finally {
+                for (SelectionKey key : selector.keys()) {  // Chiude tutte le connessioni.
+                    try {
+                        key.channel().close();  // Chiude il canale.
+                    } catch (IOException ignored) {  // Ignora gli errori di chiusura.
+                    }
+                }
+            }
+        }
+    }
+
+    private final class Client implements ProtocolDecoder.Handler {  // Singola connessione simulata.
+        private final int id;  // Identificativo della connessione.
+        private final SocketChannel channel;  // Canale verso il server.
+        private final boolean sender;  // True se la connessione invia messaggi.
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);  // Buffer di lettura.
+        private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();  // Messaggi non ancora scritti.
+        private final StringBuilder line = new StringBuilder();  // Riga in ricezione (solo i caratteri utili).
+        private final ProtocolDecoder decoder = new ProtocolDecoder(CHARSET, this);  // Decodificatore della risposta al saluto e dei frame.
+        private long sequence;  // Numero di sequenza dell'ultimo frame inviato.
+        private Inflater inflater;  // Contesto di decompressione (creato al primo messaggio compresso).
+        private SessionCipher.Handshake handshake;  // Chiavi effimere proposte nel saluto.
+        private SessionCipher session;  // Cifratura di sessione accettata dal server.
+        private boolean compress;  // True se il server ha accettato la compressione.
+        private boolean connected;  // True dopo il completamento della connessione.
+        private long nextSend;  // Istante del prossimo invio.
+        private SelectionKey key;  // Chiave di selezione della connessione.
+
+        Client(int id, SocketChannel channel, boolean sender) {  // Costruttore della connessione.
+            this.id = id;  // Imposta l'identificativo.
+            this.channel = channel;  // Imposta il canale.
+            this.sender = sender;  // Imposta il ruolo.
+        }
+
+        void finishConnect(SelectionKey key) throws IOException {  // Completa la connessione non bloccante.
+            channel.finishConnect();  // Completa l'handshake TCP.
+            this.key = key;  // Memorizza la chiave.
+            key.interestOps(SelectionKey.OP_READ);  // Ascolta i messaggi in arrivo.
+            if (framed) {  // Propone i frame; gli invii iniziano dopo la risposta.
+                List<String> features = new ArrayList<>(Collections.singletonList(ChatProtocol.FEATURE_FRAMED));  // Funzionalità richieste.
+                if (deflate) features.add(ChatProtocol.FEATURE_DEFLATE);  // Compressione dei messaggi lunghi.
+                features.add(ChatProtocol.FEATURE_HEARTBEAT);  // Risponde ai ping, come il client grafico.
+                if (secure) {  // Cifratura di sessione.
+                    try {
+                        handshake = new SessionCipher.Handshake();  // Chiavi effimere della connessione.
+                    } catch (GeneralSecurityException e) {  // Piattaforma senza X25519.
+                        throw new IOException(e);
+                    }
+                    features.add(ChatProtocol.PARAM_SECURE + "=" + handshake.publicKey());  // Chiave pubblica.
+                }
+                pending.add(CHARSET.encode(ChatProtocol.hello(features) + "\n"));  // Saluto come riga.
+                flush(key);  // Lo invia subito.
+                return;
+            }
+            start();  // Protocollo a righe: invia da subito.
+        }
+
+        private void start() {  // Inizia gli invii.
+            connected = true;  // Segna la connessione come attiva.
+            nextSend = System.nanoTime() + (long) (Math.random() * 1e9 / Math.max(ratePerSender, 1));  // Sfasa i mittenti per evitare raffiche sincronizzate.
+        }
+
+        void send(long now) {  // Invia un messaggio marcato con l'istante di invio.
+            StringBuilder text = new StringBuilder(size + 32);  // Testo del messaggio.
+            text.append(MARK).append(id).append(MARK).append(now).append(MARK);  // Intestazione numerica: resiste alla cifratura.
+            while (text.length() < size) text.append((char) ('a' + text.length() % 26));  // Riempimento alfabetico, così la cifratura lavora davvero.
+            if (framed) {  // Protocollo a frame.
+                byte[] payload = cipher.apply(text.toString()).getBytes(StandardCharsets.UTF_8);  // Cifra e codifica il messaggio.
+                byte[] compressed = compress ? Compression.deflate(payload) : null;  // Compresso solo se lungo e se si riduce.
+                byte type = compressed != null ? ChatProtocol.TYPE_MESSAGE_DEFLATE : ChatProtocol.TYPE_MESSAGE;  // Tipo del frame.
+                if (compressed != null) payload = compressed;  // Invia il payload compresso.
+                long seq = ++sequence;  // Numero di sequenza del frame.
+                if (session != null) payload = session.seal(type, seq, payload);  // Cifra e autentica il payload.
+                ByteBuffer frame = ByteBuffer.allocate(ChatProtocol.HEADER_SIZE + payload.length);  // Frame completo.
+                frame.putInt(1 + 8 + payload.length).put(type).putLong(seq).put(payload).flip();  // Intestazione e payload.
+                pending.add(frame);  // Accoda il frame.
+            } else {
+                text.append(System.lineSeparator());  // Terminatore di riga, come PrintWriter.println.
+                pending.add(CHARSET.encode(cipher.apply(text.toString())));  // Cifra e codifica il messaggio.
+            }
+            sent.increment();  // Conta l'invio.
+            try {
+                flush(key);  // Prova a scrivere subito.
+            } catch (IOException e) {  // Connessione persa.
+                fail(key);  // La chiude e la conta come fallita.
+            }
+        }
+
+        void flush(SelectionKey key) throws IOException {  // Scrive i messaggi in sospeso.
+            ByteBuffer buffer;
+            while ((buffer = pending.peek()) != null) {  // In ordine di invio.
+                channel.write(buffer);  // Scrive quanto possibile.
+                if (buffer.hasRemaining()) {  // Buffer del socket pieno.
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);  // Attende che torni scrivibile.
+                    return;
+                }
+                pending.poll();  // Messaggio completato.
+            }
+            key.interestOps(SelectionKey.OP_READ);  // Niente da scrivere.
+        }
+
+        void read() throws IOException {  // Legge i messaggi ricevuti e misura la latenza.
+            int read = channel.read(readBuffer);  // Legge dal socket.
+            if (read < 0) throw new IOException("closed by server");  // Il server ha chiuso la connessione.
+            long now = System.nanoTime();  // Istante di ricezione.
+            readBuffer.flip();  // Prepara il buffer alla lettura.
+            if (framed) {  // Risposta al saluto e frame.
+                receivedAt = now;  // Istante di ricezione per i frame decodificati.
+                decoder.feed(readBuffer);  // Decodifica i messaggi completi.
+                readBuffer.clear();  // Prepara il buffer alla prossima lettura.
+                return;
+            }
+            while (readBuffer.hasRemaining()) {  // Scorre i byte ricevuti.
+                byte b = readBuffer.get();  // Byte corrente.
+                if (b == '\n') {  // Fine del messaggio.
+                    onLine(now);  // Elabora la riga.
+                    line.setLength(0);  // Azzera la riga.
+                } else if (line.length() < 64) {  // Conserva solo l'intestazione: il riempimento non serve.
+                    line.append((char) b);  // Aggiunge il carattere (l'intestazione è ASCII).
+                }
+            }
+            readBuffer.clear();  // Prepara il buffer alla prossima lettura.
+        }
+
+        private long receivedAt;  // Istante dell'ultima lettura (protocollo a frame).
+
+        @Override
+        public void onLine(String text) throws IOException {  // Riga ricevuta prima del passaggio ai frame: un broadcast precedente al saluto, o la risposta.
+            if (!ChatProtocol.isAck(text)) {  // Broadcast inviato prima che il server leggesse il saluto.
+                line.setLength(0);  // Azzera l'intestazione.
+                line.append(text, 0, Math.min(64, text.length()));  // Conserva solo l'intestazione.
+                onLine(receivedAt);  // Registra la latenza.
+                return;
+            }
+            List<String> features = ChatProtocol.features(text);  // Funzionalità accettate.
+            if (!features.contains(ChatProtocol.FEATURE_FRAMED)) throw new IOException("framing not negotiated");  // La connessione conta come fallita.
+            compress = features.contains(ChatProtocol.FEATURE_DEFLATE);  // Il server può rifiutare la compressione.
+            if (handshake != null) {  // Cifratura richiesta.
+                String serverKey = ChatProtocol.text(features, ChatProtocol.PARAM_SECURE);  // Chiave pubblica del server.
+                if (serverKey == null) throw new IOException("session encryption not negotiated");  // La connessione conta come fallita.
+                try {
+                    session = handshake.complete(serverKey, true);  // Chiavi di sessione.
+                } catch (GeneralSecurityException e) {  // Chiave del server non valida.
+                    throw new IOException(e);
+                }
+            }
+            decoder.switchToFrames();  // I byte successivi sono frame.
+            start();  // Inizia gli invii.
+        }
+
+        @Override
+        public void onFrame(byte type, long seq, ByteBuffer payload) throws IOException {  // Frame ricevuto: estrae l'intestazione dal payload.
+            if (session != null) payload = session.open(type, seq, payload);  // Verifica e decifra il payload.
+            if (type == ChatProtocol.TYPE_PING) {  // Il server controlla che la connessione sia viva.
+                byte[] empty = session != null ? session.seal(ChatProtocol.TYPE_PONG, ChatProtocol.UNSEQUENCED, new byte[0]) : new byte[0];  // Sessione cifrata: solo il tag.
+                ByteBuffer pong = ByteBuffer.allocate(ChatProtocol.HEADER_SIZE + empty.length);  // Frame di risposta.
+                pong.putInt(1 + 8 + empty.length).put(ChatProtocol.TYPE_PONG).putLong(ChatProtocol.UNSEQUENCED).put(empty).flip();  // Intestazione e tag.
+                pending.add(pong);  // In coda dopo i messaggi già in sospeso.
+                flush(key);  // Prova a scrivere subito.
+                return;
+            }
+            if (type == ChatProtocol.TYPE_PONG) return;  // Nessuna latenza da registrare.
+            if (type == ChatProtocol.TYPE_MESSAGE_DEFLATE) {  // Messaggio compresso.
+                if (inflater == null) inflater = new Inflater(true);  // Contesto della connessione.
+                payload = StandardCharsets.UTF_8.encode(Compression.inflate(inflater, payload));  // Decomprime il messaggio.
+            }
+            line.setLength(0);  // Azzera l'intestazione.
+            for (int i = payload.position(); i < payload.limit() && line.length() < 64; i++) line.append((char) payload.get(i));  // L'intestazione è ASCII.
+            onLine(receivedAt);  // Registra la latenza.
+        }
+
+        private void onLine(long now) {  // Estrae l'istante di invio dall'intestazione e registra la latenza.
+            received.increment();  // Conta la consegna.
+            int first = line.indexOf(String.valueOf(MARK));  // Primo separatore.
+            int second = first < 0 ? -1 : line.indexOf(String.valueOf(MARK), first + 1);  // Secondo separatore.
+            int third = second < 0 ? -1 : line.indexOf(String.valueOf(MARK), second + 1);  // Terzo separatore.
+            if (third < 0 || !measuring) return;  // Messaggio estraneo o riscaldamento in corso.
+            try {
+                latency.record(now - Long.parseLong(line, second + 1, third, 10));  // Latenza end-to-end.
+            } catch (NumberFormatException ignored) {  // Messaggio non generato da questo test.
+            }
+        }
+
+        void fail(SelectionKey key) {  // Chiude una connessione fallita.
+            failures.increment();  // Conta il fallimento.
+            connected = false;  // Smette di inviare.
+            key.cancel();  // Cancella la registrazione.
+            try {
+                channel.close();  // Chiude il canale.
+            } catch (IOException ignored) {  // Ignora gli errori di chiusura.
+            }
+        }
+    }
+}